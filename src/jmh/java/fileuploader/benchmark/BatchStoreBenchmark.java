@@ -0,0 +1,120 @@
+package fileuploader.benchmark;
+
+import fileuploader.FileUploadApplication;
+import fileuploader.controller.resources.BatchUploadResultResource;
+import fileuploader.domain.ContentRange;
+import fileuploader.domain.UploadPart;
+import fileuploader.services.StorageService;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores {@code batchSize} small files through {@code StorageService}, against a benchmark-only temp upload directory
+ * and an in-memory H2 database: one whole file upload per file, as separate requests do, and a single batch upload.
+ * Every file has distinct content, so none of them is deduplicated.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchStoreBenchmark {
+
+    private static final String STORAGE_DIRECTORY = "fileuploader_benchmark_store";
+    private static final String TMP_DIRECTORY = "fileuploader_benchmark_tmp";
+    private static final String USER_ID = "benchmark";
+
+    @State(Scope.Benchmark)
+    public static class Service {
+
+        @Param({"100"})
+        int batchSize;
+
+        @Param({"1024", "16384"})
+        int fileSize;
+
+        ConfigurableApplicationContext context;
+        StorageService storageService;
+        byte[] content;
+        final AtomicLong sequence = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setup() {
+            context = new SpringApplicationBuilder(FileUploadApplication.class)
+                    .properties(
+                            "server.port=0",
+                            "spring.datasource.url=jdbc:h2:mem:batch_store_benchmark",
+                            "upload.tmp.directory=" + TMP_DIRECTORY,
+                            "storage.filesystem.directory=" + STORAGE_DIRECTORY,
+                            "upload.finalization.async.enabled=false",
+                            "logging.level.root=WARN")
+                    .run();
+            storageService = context.getBean(StorageService.class);
+
+            content = new byte[fileSize];
+            new Random(42).nextBytes(content);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            context.close();
+            FileUtils.deleteDirectory(Paths.get(System.getProperty("user.home"), TMP_DIRECTORY).toFile());
+            FileUtils.deleteDirectory(Paths.get(System.getProperty("user.home"), STORAGE_DIRECTORY).toFile());
+        }
+
+        /**
+         * The shared content with a sequence number in its first bytes, so each file hashes differently.
+         */
+        byte[] nextContent() {
+            byte[] bytes = content.clone();
+            ByteBuffer.wrap(bytes).putLong(sequence.incrementAndGet());
+            return bytes;
+        }
+
+    }
+
+    @Benchmark
+    public void storeOneByOne(Service service, Blackhole blackhole) {
+        for (int i = 0; i < service.batchSize; i++) {
+            blackhole.consume(service.storageService.store(USER_ID, "file-" + i + ".bin",
+                    new ByteArrayInputStream(service.nextContent()), ContentRange.whole(service.fileSize), null,
+                    Instant.now()));
+        }
+    }
+
+    @Benchmark
+    public List<BatchUploadResultResource> storeBatch(Service service) {
+        List<UploadPart> parts = new ArrayList<>(service.batchSize);
+        for (int i = 0; i < service.batchSize; i++) {
+            parts.add(new UploadPart("file-" + i + ".bin", new ByteArrayInputStream(service.nextContent())));
+        }
+        return service.storageService.storeBatch(USER_ID, parts.iterator(), Instant.now());
+    }
+
+}
@@ -0,0 +1,168 @@
+package fileuploader.benchmark;
+
+import fileuploader.enums.ContentCodec;
+import fileuploader.storage.ContentCompressor;
+import fileuploader.storage.EncodedContent;
+import fileuploader.storage.FileSystemContentStore;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Weighs the CPU spent gzipping content at finalization and gunzipping it on download against the I/O saved, for
+ * log-like text and for incompressible data (which the compressor detects and stores as is).
+ * Compare {@code storeCompressed} with {@code storePlain} and {@code readCompressed} with {@code readPlain}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompressionBenchmark {
+
+    private static final String STORAGE_DIRECTORY = "fileuploader_benchmark_store";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @State(Scope.Benchmark)
+    public static class Storage {
+
+        @Param({"text", "random"})
+        String content;
+
+        @Param({"1", "6"})
+        String level;
+
+        @Param({"16777216"})
+        int fileSize;
+
+        Path workDirectory;
+        Path sourceFile;
+        FileSystemContentStore contentStore;
+        ContentCompressor compressor;
+        String plainKey;
+        EncodedContent encoded;
+        String encodedKey;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            workDirectory = Files.createTempDirectory("fileuploader-benchmark");
+            sourceFile = Files.write(workDirectory.resolve("source"), content(content, fileSize));
+
+            contentStore = new FileSystemContentStore();
+            ReflectionTestUtils.setField(contentStore, "storageDirectory", STORAGE_DIRECTORY);
+
+            compressor = new ContentCompressor();
+            ReflectionTestUtils.setField(compressor, "enabled", true);
+            ReflectionTestUtils.setField(compressor, "level", level);
+            ReflectionTestUtils.setField(compressor, "minSize", "0");
+
+            plainKey = contentStore.put(Files.copy(sourceFile, workDirectory.resolve("plain")));
+            Path stored = Files.copy(sourceFile, workDirectory.resolve("stored"));
+            encoded = compressor.encode(stored, fileSize);
+            encodedKey = contentStore.put(encoded.getFile());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            FileUtils.deleteDirectory(workDirectory.toFile());
+            FileUtils.deleteDirectory(Paths.get(System.getProperty("user.home"), STORAGE_DIRECTORY).toFile());
+        }
+
+    }
+
+    /**
+     * A fresh copy of the assembled upload for every invocation, as storing it consumes it.
+     */
+    @State(Scope.Thread)
+    public static class AssembledUpload {
+
+        Storage storage;
+        Path tmpFile;
+        String storageKey;
+
+        @Setup(Level.Invocation)
+        public void setup(Storage storage) throws IOException {
+            this.storage = storage;
+            tmpFile = Files.copy(storage.sourceFile, storage.workDirectory.resolve("upload-" + Thread.currentThread().getId()));
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(tmpFile);
+            if (storageKey != null) {
+                storage.contentStore.delete(storageKey);
+                storageKey = null;
+            }
+        }
+
+    }
+
+    @Benchmark
+    public void storePlain(Storage storage, AssembledUpload upload) {
+        upload.storageKey = storage.contentStore.put(upload.tmpFile);
+    }
+
+    @Benchmark
+    public void storeCompressed(Storage storage, AssembledUpload upload) {
+        EncodedContent encoded = storage.compressor.encode(upload.tmpFile, storage.fileSize);
+        upload.storageKey = storage.contentStore.put(encoded.getFile());
+    }
+
+    @Benchmark
+    public long readPlain(Storage storage) throws IOException {
+        try (InputStream inputStream = storage.contentStore.get(storage.plainKey, 0, storage.fileSize)) {
+            return IOUtils.copyLarge(inputStream, NullOutputStream.NULL_OUTPUT_STREAM, new byte[BUFFER_SIZE]);
+        }
+    }
+
+    @Benchmark
+    public long readCompressed(Storage storage) throws IOException {
+        InputStream stored = storage.contentStore.get(storage.encodedKey, 0, storage.encoded.getSize());
+        try (InputStream inputStream = !ContentCodec.isEncoded(storage.encoded.getCodec()) ? stored
+                : storage.compressor.decode(stored, storage.encoded.getCodec(), 0, storage.fileSize)) {
+            return IOUtils.copyLarge(inputStream, NullOutputStream.NULL_OUTPUT_STREAM, new byte[BUFFER_SIZE]);
+        }
+    }
+
+    private static byte[] content(String content, int size) {
+        byte[] bytes = new byte[size];
+        if ("random".equals(content)) {
+            new Random(42).nextBytes(bytes);
+            return bytes;
+        }
+
+        Random random = new Random(42);
+        int position = 0;
+        while (position < size) {
+            byte[] line = ("2017-11-23 10:00:" + (10 + random.nextInt(50)) + " INFO [upload-" + random.nextInt(8) +
+                    "] fileuploader.services.StorageServiceImpl - stored chunk " + random.nextInt(100000) + "\n").getBytes();
+            int length = Math.min(line.length, size - position);
+            System.arraycopy(line, 0, bytes, position, length);
+            position += length;
+        }
+        return bytes;
+    }
+
+}
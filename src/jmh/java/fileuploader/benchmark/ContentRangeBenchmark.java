@@ -0,0 +1,40 @@
+package fileuploader.benchmark;
+
+import fileuploader.domain.ContentRange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the Content-Range header of every chunked upload request, as the upload endpoints do before validating it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContentRangeBenchmark {
+
+    @Param({"bytes 0-1048575/10485760", "bytes 9437184-10485759/10485760", "bytes 0-1048575/*"})
+    String contentRange;
+
+    @Benchmark
+    public Object parse() {
+        try {
+            return ContentRange.parse(contentRange);
+        } catch (IllegalArgumentException e) {
+            return e;
+        }
+    }
+
+}
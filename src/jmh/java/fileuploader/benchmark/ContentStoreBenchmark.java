@@ -0,0 +1,173 @@
+package fileuploader.benchmark;
+
+import fileuploader.storage.FileSystemContentStore;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares finalizing and downloading a file through the filesystem content store against the former H2 LOB path
+ * ({@code readAllBytes} of the assembled temp file into a {@code BLOB} column, streamed back through JDBC).
+ * Throughput is reported in operations per second; multiply by {@code fileSize} for bytes per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ContentStoreBenchmark {
+
+    private static final String STORAGE_DIRECTORY = "fileuploader_benchmark_store";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @State(Scope.Benchmark)
+    public static class Storage {
+
+        @Param({"1048576", "16777216", "104857600"})
+        int fileSize;
+
+        Path workDirectory;
+        Path sourceFile;
+        FileSystemContentStore contentStore;
+        Connection connection;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException, SQLException {
+            workDirectory = Files.createTempDirectory("fileuploader-benchmark");
+
+            byte[] bytes = new byte[fileSize];
+            new Random(42).nextBytes(bytes);
+            sourceFile = Files.write(workDirectory.resolve("source"), bytes);
+
+            contentStore = new FileSystemContentStore();
+            ReflectionTestUtils.setField(contentStore, "storageDirectory", STORAGE_DIRECTORY);
+
+            connection = DriverManager.getConnection("jdbc:h2:file:" + workDirectory.resolve("lob"), "sa", "");
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE content_benchmark (id BIGINT PRIMARY KEY, content BLOB)");
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException, SQLException {
+            connection.close();
+            FileUtils.deleteDirectory(workDirectory.toFile());
+            FileUtils.deleteDirectory(Paths.get(System.getProperty("user.home"), STORAGE_DIRECTORY).toFile());
+        }
+
+    }
+
+    /**
+     * A fresh copy of the assembled upload for every invocation, as the filesystem store consumes it by moving it.
+     */
+    @State(Scope.Thread)
+    public static class AssembledUpload {
+
+        Storage storage;
+        Path tmpFile;
+        String storageKey;
+
+        @Setup(Level.Invocation)
+        public void setup(Storage storage) throws IOException {
+            this.storage = storage;
+            tmpFile = Files.copy(storage.sourceFile, storage.workDirectory.resolve("upload-" + Thread.currentThread().getId()));
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException, SQLException {
+            Files.deleteIfExists(tmpFile);
+            if (storageKey != null) {
+                storage.contentStore.delete(storageKey);
+                storageKey = null;
+            }
+            try (Statement statement = storage.connection.createStatement()) {
+                statement.execute("DELETE FROM content_benchmark WHERE id > 1");
+            }
+        }
+
+    }
+
+    @State(Scope.Benchmark)
+    public static class StoredContent {
+
+        String storageKey;
+
+        @Setup(Level.Trial)
+        public void setup(Storage storage) throws IOException, SQLException {
+            Path tmpFile = Files.copy(storage.sourceFile, storage.workDirectory.resolve("stored"));
+            storageKey = storage.contentStore.put(tmpFile);
+
+            insertLob(storage.connection, 1L, Files.readAllBytes(storage.sourceFile));
+        }
+
+    }
+
+    @Benchmark
+    public void writeLob(Storage storage, AssembledUpload upload) throws IOException, SQLException {
+        insertLob(storage.connection, 2L, Files.readAllBytes(upload.tmpFile));
+    }
+
+    @Benchmark
+    public void writeFileSystem(Storage storage, AssembledUpload upload) {
+        upload.storageKey = storage.contentStore.put(upload.tmpFile);
+    }
+
+    @Benchmark
+    public long readLob(Storage storage, StoredContent content) throws IOException, SQLException {
+        try (PreparedStatement statement = storage.connection.prepareStatement(
+                "SELECT content FROM content_benchmark WHERE id = ?")) {
+            statement.setLong(1, 1L);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                try (InputStream inputStream = resultSet.getBinaryStream(1)) {
+                    return IOUtils.copyLarge(inputStream, NullOutputStream.NULL_OUTPUT_STREAM, new byte[BUFFER_SIZE]);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public long readFileSystem(Storage storage, StoredContent content) throws IOException {
+        try (InputStream inputStream = storage.contentStore.get(content.storageKey, 0, storage.fileSize)) {
+            return IOUtils.copyLarge(inputStream, NullOutputStream.NULL_OUTPUT_STREAM, new byte[BUFFER_SIZE]);
+        }
+    }
+
+    private static void insertLob(Connection connection, Long id, byte[] content) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO content_benchmark (id, content) VALUES (?, ?)")) {
+            statement.setLong(1, id);
+            statement.setBytes(2, content);
+            statement.executeUpdate();
+        }
+    }
+
+}
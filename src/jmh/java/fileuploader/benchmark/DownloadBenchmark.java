@@ -0,0 +1,114 @@
+package fileuploader.benchmark;
+
+import fileuploader.FileUploadApplication;
+import fileuploader.domain.UploadedFile;
+import fileuploader.repositories.UploadedFileRepository;
+import fileuploader.storage.ContentStore;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static fileuploader.enums.FileUploadStatus.COMPLETED;
+
+/**
+ * Downloads a stored file end to end through the embedded Tomcat, with and without the sendfile path.
+ * Run it with {@code -prof gc} to compare the per-download allocation rate of both variants.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class DownloadBenchmark {
+
+    private static final String STORAGE_DIRECTORY = "fileuploader_benchmark_store";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @State(Scope.Benchmark)
+    public static class Server {
+
+        @Param({"true", "false"})
+        boolean sendfile;
+
+        @Param({"1048576", "104857600"})
+        int fileSize;
+
+        ConfigurableApplicationContext context;
+        URL downloadUrl;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            context = new SpringApplicationBuilder(FileUploadApplication.class)
+                    .properties(
+                            "server.port=0",
+                            "spring.datasource.url=jdbc:h2:mem:download_benchmark",
+                            "storage.filesystem.directory=" + STORAGE_DIRECTORY,
+                            "download.sendfile.enabled=" + sendfile,
+                            "logging.level.root=WARN")
+                    .run();
+
+            byte[] bytes = new byte[fileSize];
+            new Random(42).nextBytes(bytes);
+            Path source = Files.write(Files.createTempFile("fileuploader-benchmark", null), bytes);
+
+            UploadedFile uploadedFile = context.getBean(UploadedFileRepository.class).save(UploadedFile.builder()
+                    .userId("benchmark")
+                    .filename("benchmark.bin")
+                    .status(COMPLETED)
+                    .createdAt(Instant.now())
+                    .lastModifiedAt(Instant.now())
+                    .chunks(1)
+                    .size((long) fileSize)
+                    .storageKey(context.getBean(ContentStore.class).put(source))
+                    .build());
+
+            int port = ((EmbeddedWebApplicationContext) context).getEmbeddedServletContainer().getPort();
+            downloadUrl = new URL("http://localhost:" + port + "/api/files/" + uploadedFile.getId());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            context.close();
+            FileUtils.deleteDirectory(Paths.get(System.getProperty("user.home"), STORAGE_DIRECTORY).toFile());
+        }
+
+    }
+
+    @Benchmark
+    public long download(Server server) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) server.downloadUrl.openConnection();
+        try (InputStream inputStream = connection.getInputStream()) {
+            return IOUtils.copyLarge(inputStream, NullOutputStream.NULL_OUTPUT_STREAM, new byte[BUFFER_SIZE]);
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+package fileuploader.benchmark;
+
+import fileuploader.FileUploadApplication;
+import fileuploader.domain.UploadedFile;
+import fileuploader.repositories.UploadedFileRepository;
+import fileuploader.storage.ContentStore;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static fileuploader.enums.FileUploadStatus.COMPLETED;
+import static fileuploader.utils.RestConstants.CONTENT_RANGE_HEADER;
+import static fileuploader.utils.RestConstants.FILE_PARAM;
+import static fileuploader.utils.RestConstants.FILE_UPLOAD_URL_SERVICE;
+import static fileuploader.utils.RestConstants.USER_ID_PARAM;
+
+/**
+ * Macro benchmark of the whole application on a random port: simulated clients upload files in chunks the way
+ * {@code myuploadfunction.js} does, while others download a stored file and list the uploaded files.
+ * Every request is one operation of its endpoint, so JMH reports throughput and p50/p99/p99.9 latency per endpoint.
+ * Add {@code -prof fileuploader.benchmark.PeakHeapProfiler} for the peak heap, and {@code -p} to compare configurations.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class LoadTestBenchmark {
+
+    private static final String STORAGE_DIRECTORY = "fileuploader_loadtest_store";
+    private static final String TMP_DIRECTORY = "fileuploader_loadtest_tmp";
+    private static final int DOWNLOAD_SIZE = 4 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @State(Scope.Benchmark)
+    public static class Server {
+
+        @Param({"250000", "1000000"})
+        int chunkSize;
+
+        @Param({"4"})
+        int chunksPerFile;
+
+        @Param({"true", "false"})
+        boolean asyncFinalization;
+
+        ConfigurableApplicationContext context;
+        String baseUrl;
+        String downloadUrl;
+        byte[] chunk;
+        final AtomicLong clients = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            context = new SpringApplicationBuilder(FileUploadApplication.class)
+                    .properties(
+                            "server.port=0",
+                            "spring.datasource.url=jdbc:h2:mem:load_test",
+                            "upload.tmp.directory=" + TMP_DIRECTORY,
+                            "upload.max.chunk.size.bytes=" + chunkSize,
+                            "upload.finalization.async.enabled=" + asyncFinalization,
+                            "storage.filesystem.directory=" + STORAGE_DIRECTORY,
+                            "logging.level.root=WARN")
+                    .run();
+
+            chunk = new byte[chunkSize];
+            new Random(42).nextBytes(chunk);
+
+            byte[] bytes = new byte[DOWNLOAD_SIZE];
+            new Random(42).nextBytes(bytes);
+            Path source = Files.write(Files.createTempFile("fileuploader-loadtest", null), bytes);
+
+            UploadedFile uploadedFile = context.getBean(UploadedFileRepository.class).save(UploadedFile.builder()
+                    .userId("loadtest")
+                    .filename("download.bin")
+                    .status(COMPLETED)
+                    .createdAt(Instant.now())
+                    .lastModifiedAt(Instant.now())
+                    .chunks(1)
+                    .size((long) DOWNLOAD_SIZE)
+                    .storageKey(context.getBean(ContentStore.class).put(source))
+                    .build());
+
+            int port = ((EmbeddedWebApplicationContext) context).getEmbeddedServletContainer().getPort();
+            baseUrl = "http://localhost:" + port + FILE_UPLOAD_URL_SERVICE;
+            downloadUrl = baseUrl + "/" + uploadedFile.getId();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            context.close();
+            FileUtils.deleteDirectory(Paths.get(System.getProperty("user.home"), TMP_DIRECTORY).toFile());
+            FileUtils.deleteDirectory(Paths.get(System.getProperty("user.home"), STORAGE_DIRECTORY).toFile());
+        }
+
+    }
+
+    /**
+     * One simulated browser, uploading its files one chunk per invocation.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+
+        RestTemplate restTemplate;
+        String userId;
+        String filename;
+        int nextChunk;
+
+        @Setup(Level.Trial)
+        public void setup(Server server) {
+            restTemplate = new RestTemplate();
+            userId = "client-" + server.clients.incrementAndGet();
+        }
+
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public String upload(Server server, Client client) {
+        if (client.nextChunk == 0) {
+            client.filename = Instant.now().toEpochMilli() + "_" + UUID.randomUUID() + ".bin";
+        }
+        String filename = client.filename;
+        long start = (long) client.nextChunk * server.chunkSize;
+        long total = (long) server.chunksPerFile * server.chunkSize;
+
+        MultiValueMap<String, Object> form = new LinkedMultiValueMap<>();
+        form.add(USER_ID_PARAM, client.userId);
+        form.add(FILE_PARAM, new ByteArrayResource(server.chunk) {
+            @Override
+            public String getFilename() {
+                return filename;
+            }
+        });
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        headers.set(CONTENT_RANGE_HEADER, "bytes " + start + "-" + (start + server.chunkSize - 1) + "/" + total);
+
+        String response = client.restTemplate.postForObject(server.baseUrl, new HttpEntity<>(form, headers), String.class);
+
+        client.nextChunk = (client.nextChunk + 1) % server.chunksPerFile;
+        return response;
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public Long download(Server server, Client client) {
+        return client.restTemplate.execute(server.downloadUrl, HttpMethod.GET, null,
+                response -> {
+                    try (InputStream inputStream = response.getBody()) {
+                        return IOUtils.copyLarge(inputStream, NullOutputStream.NULL_OUTPUT_STREAM, new byte[BUFFER_SIZE]);
+                    }
+                });
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public String list(Server server, Client client) {
+        return client.restTemplate.getForObject(server.baseUrl, String.class);
+    }
+
+}
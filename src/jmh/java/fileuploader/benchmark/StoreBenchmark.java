@@ -0,0 +1,103 @@
+package fileuploader.benchmark;
+
+import fileuploader.FileUploadApplication;
+import fileuploader.domain.ContentRange;
+import fileuploader.enums.FileUploadStatus;
+import fileuploader.services.StorageService;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calls {@code StorageService.store} directly, against a benchmark-only temp upload directory and an in-memory H2 database:
+ * an intermediate chunk of a two chunk upload, which only touches the temp file, and a whole file upload,
+ * which is finalized into the content store on the calling thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class StoreBenchmark {
+
+    private static final String STORAGE_DIRECTORY = "fileuploader_benchmark_store";
+    private static final String TMP_DIRECTORY = "fileuploader_benchmark_tmp";
+    private static final String USER_ID = "benchmark";
+
+    @State(Scope.Benchmark)
+    public static class Service {
+
+        @Param({"65536", "1048576"})
+        int chunkSize;
+
+        ConfigurableApplicationContext context;
+        StorageService storageService;
+        byte[] content;
+        final AtomicLong sequence = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setup() {
+            context = new SpringApplicationBuilder(FileUploadApplication.class)
+                    .properties(
+                            "server.port=0",
+                            "spring.datasource.url=jdbc:h2:mem:store_benchmark",
+                            "upload.tmp.directory=" + TMP_DIRECTORY,
+                            "storage.filesystem.directory=" + STORAGE_DIRECTORY,
+                            "upload.finalization.async.enabled=false",
+                            "logging.level.root=WARN")
+                    .run();
+            storageService = context.getBean(StorageService.class);
+
+            content = new byte[chunkSize];
+            new Random(42).nextBytes(content);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            context.close();
+            FileUtils.deleteDirectory(Paths.get(System.getProperty("user.home"), TMP_DIRECTORY).toFile());
+            FileUtils.deleteDirectory(Paths.get(System.getProperty("user.home"), STORAGE_DIRECTORY).toFile());
+        }
+
+    }
+
+    @Benchmark
+    public FileUploadStatus storeChunk(Service service) {
+        // the first chunk of a file whose second chunk never arrives, so every call resumes the same session
+        String filename = "chunked-" + Thread.currentThread().getId() + ".bin";
+        ContentRange range = new ContentRange(0, service.chunkSize, 2L * service.chunkSize);
+        return service.storageService.store(USER_ID, filename, new ByteArrayInputStream(service.content),
+                range, 2, Instant.now());
+    }
+
+    @Benchmark
+    public FileUploadStatus storeWholeFile(Service service) {
+        String filename = "whole-" + service.sequence.incrementAndGet() + ".bin";
+        return service.storageService.store(USER_ID, filename, new ByteArrayInputStream(service.content),
+                ContentRange.whole(service.chunkSize), null, Instant.now());
+    }
+
+}
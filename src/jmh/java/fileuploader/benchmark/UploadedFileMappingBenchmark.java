@@ -0,0 +1,101 @@
+package fileuploader.benchmark;
+
+import ch.qos.logback.classic.Logger;
+import fileuploader.controller.resources.UploadedFilePageResource;
+import fileuploader.enums.FileUploadStatus;
+import fileuploader.projection.UploadedFileInfo;
+import fileuploader.repositories.UploadedFileRepository;
+import fileuploader.services.StorageServiceImpl;
+import fileuploader.utils.MultipartFileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.projection.ProjectionFactory;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static fileuploader.enums.FileUploadStatus.COMPLETED;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Maps a listing page of repository projections into {@code UploadedFileResource}s, without the database round trip,
+ * plus the filename clean-up done for every row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UploadedFileMappingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Listing {
+
+        @Param({"100", "1000"})
+        int limit;
+
+        StorageServiceImpl storageService;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            // no Spring Boot logging configuration here, so keep logback's DEBUG default out of the measurement
+            ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(ch.qos.logback.classic.Level.WARN);
+
+            // same projection proxies the repository hands out for scalar rows
+            ProjectionFactory projectionFactory = new SpelAwareProxyProjectionFactory();
+            Instant createdAt = Instant.now();
+
+            List<UploadedFileInfo> page = new ArrayList<>();
+            for (int i = 0; i <= limit; i++) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("id", (long) i);
+                row.put("userId", "benchmark");
+                row.put("filename", "1510000000000_file-" + i + ".pdf");
+                row.put("status", COMPLETED);
+                row.put("createdAt", createdAt);
+                row.put("lastModifiedAt", createdAt.plusMillis(i));
+                row.put("chunks", 10);
+                page.add(projectionFactory.createProjection(UploadedFileInfo.class, row));
+            }
+
+            UploadedFileRepository repository = mock(UploadedFileRepository.class, withSettings().stubOnly());
+            when(repository.findPage(any(), any(), any(), anyInt())).thenReturn(page);
+
+            storageService = new StorageServiceImpl();
+            ReflectionTestUtils.setField(storageService, "repository", repository);
+        }
+
+    }
+
+    @Benchmark
+    public UploadedFilePageResource findAll(Listing listing) {
+        return listing.storageService.findAll(null, (FileUploadStatus) null, null, listing.limit);
+    }
+
+    @Benchmark
+    public String extractOriginalFilename() {
+        return MultipartFileUtils.extractOriginalFilename("1510000000000_quarterly_report.pdf");
+    }
+
+}
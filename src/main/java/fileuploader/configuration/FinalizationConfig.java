@@ -0,0 +1,39 @@
+package fileuploader.configuration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import static java.lang.Integer.valueOf;
+
+/**
+ * Created by luisoliveira on 11/20/17.
+ */
+@Configuration
+public class FinalizationConfig {
+
+    public static final String FINALIZATION_EXECUTOR = "finalizationExecutor";
+
+    @Value("${upload.finalization.threads}")
+    private String threads;
+    @Value("${upload.finalization.queue.capacity}")
+    private String queueCapacity;
+
+    /**
+     * Bounded pool for finalizing uploads off the request thread. Once the queue is full, submissions are rejected
+     * and the caller finalizes the upload itself, which slows uploads down instead of piling up work.
+     */
+    @Bean(name = FINALIZATION_EXECUTOR)
+    public ThreadPoolTaskExecutor finalizationExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(valueOf(threads));
+        executor.setMaxPoolSize(valueOf(threads));
+        executor.setQueueCapacity(valueOf(queueCapacity));
+        executor.setThreadNamePrefix("upload-finalization-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        return executor;
+    }
+
+}
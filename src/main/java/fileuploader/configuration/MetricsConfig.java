@@ -0,0 +1,23 @@
+package fileuploader.configuration;
+
+import fileuploader.metrics.UploadMetrics;
+import fileuploader.services.UploadSessionRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Created by luisoliveira on 11/21/17.
+ */
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * Upload and download metrics, scraped by Prometheus from the {@code /prometheus} actuator endpoint.
+     */
+    @Bean
+    public UploadMetrics uploadMetrics(MeterRegistry registry, UploadSessionRegistry sessionRegistry) {
+        return new UploadMetrics(registry, sessionRegistry::size, sessionRegistry::getTmpBytesInUse);
+    }
+
+}
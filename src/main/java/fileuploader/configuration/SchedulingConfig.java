@@ -0,0 +1,14 @@
+package fileuploader.configuration;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Runs the {@code @Scheduled} housekeeping of the application, such as the upload janitor.
+ *
+ * Created by luisoliveira on 11/24/17.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
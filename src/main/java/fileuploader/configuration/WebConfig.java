@@ -0,0 +1,58 @@
+package fileuploader.configuration;
+
+import fileuploader.controller.UploadAdmissionFilter;
+import fileuploader.services.UploadAdmissionControl;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.filter.HiddenHttpMethodFilter;
+import org.springframework.web.servlet.config.annotation.ContentNegotiationConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import static fileuploader.utils.RestConstants.FILE_UPLOAD_URL_SERVICE;
+import static java.lang.Long.valueOf;
+
+/**
+ * Created by luisoliveira on 11/21/17.
+ */
+@Configuration
+public class WebConfig extends WebMvcConfigurerAdapter {
+
+    @Value("${upload.max.chunk.size.bytes}")
+    private String maxChunkSize;
+    @Value("${upload.admission.retry.after.seconds}")
+    private String retryAfterSeconds;
+
+    /**
+     * Filenames are part of some upload URLs, so their extension must not be taken for the requested media type.
+     */
+    @Override
+    public void configureContentNegotiation(ContentNegotiationConfigurer configurer) {
+        configurer.favorPathExtension(false);
+    }
+
+    /**
+     * Admission control of uploads, ahead of the dispatcher so that rejected uploads never have their body read.
+     * A request sent without Content-Length is accounted as one chunk of the maximum size.
+     */
+    @Bean
+    public FilterRegistrationBean uploadAdmissionFilter(UploadAdmissionControl admissionControl) {
+        FilterRegistrationBean registration = new FilterRegistrationBean(new UploadAdmissionFilter(admissionControl,
+                valueOf(maxChunkSize), valueOf(retryAfterSeconds)));
+        registration.addUrlPatterns(FILE_UPLOAD_URL_SERVICE, FILE_UPLOAD_URL_SERVICE + "/*");
+        return registration;
+    }
+
+    /**
+     * The hidden method filter reads the form parameters of every POST, which makes the container parse a multipart
+     * body before a batch upload can stream it. The API serves no HTML forms, so it is not needed.
+     */
+    @Bean
+    public FilterRegistrationBean hiddenHttpMethodFilterRegistration(HiddenHttpMethodFilter hiddenHttpMethodFilter) {
+        FilterRegistrationBean registration = new FilterRegistrationBean(hiddenHttpMethodFilter);
+        registration.setEnabled(false);
+        return registration;
+    }
+
+}
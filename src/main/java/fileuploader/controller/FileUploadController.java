@@ -1,8 +1,18 @@
 package fileuploader.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fileuploader.controller.resources.BatchUploadResultResource;
 import fileuploader.controller.resources.DownloadableFileResource;
+import fileuploader.controller.resources.UploadProgressResource;
+import fileuploader.controller.resources.UploadedFilePageResource;
 import fileuploader.controller.resources.UploadedFileResource;
+import fileuploader.domain.ContentRange;
+import fileuploader.domain.UploadPart;
+import fileuploader.domain.UploadedFileCursor;
+import fileuploader.enums.FileUploadStatus;
 import fileuploader.exceptions.UnprocessableEntityException;
+import fileuploader.metrics.UploadMetrics;
 import fileuploader.services.StorageService;
 import fileuploader.utils.MultipartFileUtils;
 import io.swagger.annotations.Api;
@@ -11,31 +21,85 @@ import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
+import org.apache.tomcat.util.http.fileupload.FileItemIterator;
+import org.apache.tomcat.util.http.fileupload.FileItemStream;
+import org.apache.tomcat.util.http.fileupload.FileUploadException;
+import org.apache.tomcat.util.http.fileupload.servlet.ServletFileUpload;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.hateoas.Link;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import static fileuploader.enums.FileUploadStatus.FINALIZING;
+import static fileuploader.utils.RestConstants.ACCEPT_ENCODING_HEADER;
+import static fileuploader.utils.RestConstants.AFTER_PARAM;
+import static fileuploader.utils.RestConstants.ARCHIVE_PATH;
 import static fileuploader.utils.RestConstants.CONTENT_RANGE_HEADER;
+import static fileuploader.utils.RestConstants.EXPORT_PATH;
+import static fileuploader.utils.RestConstants.FILENAME_PARAM;
 import static fileuploader.utils.RestConstants.FILE_PARAM;
 import static fileuploader.utils.RestConstants.FILE_UPLOAD_URL_SERVICE;
+import static fileuploader.utils.RestConstants.IDS_PARAM;
 import static fileuploader.utils.RestConstants.ID_PARAM;
 import static fileuploader.utils.RestConstants.ID_PATH_VARIABLE;
+import static fileuploader.utils.RestConstants.IF_RANGE_HEADER;
+import static fileuploader.utils.RestConstants.LIMIT_PARAM;
+import static fileuploader.utils.RestConstants.RANGE_HEADER;
+import static fileuploader.utils.RestConstants.STATUS_PARAM;
+import static fileuploader.utils.RestConstants.UPLOAD_LENGTH_HEADER;
+import static fileuploader.utils.RestConstants.UPLOAD_OFFSET_HEADER;
+import static fileuploader.utils.RestConstants.USER_FILE_PATH_VARIABLES;
 import static fileuploader.utils.RestConstants.USER_ID_PARAM;
+import static fileuploader.utils.RestConstants.USER_ID_PATH_VARIABLE;
 import static java.lang.Long.valueOf;
 import static java.lang.Math.ceil;
 import static java.lang.String.format;
@@ -52,64 +116,586 @@ import static org.springframework.hateoas.mvc.ControllerLinkBuilder.linkTo;
 public class FileUploadController {
 
     private static final String CONTENT_RANGE_NOT_ALLOWED_ERROR = "Content-Range not allowed for %s";
+    private static final String CONTENT_RANGE_MISMATCH_ERROR = ". Received chunk size: %s bytes";
     private static final String FILE_SIZE_NOT_ALLOWED_ERROR = "File size not allowed. File size: %s bytes. Max file size allowed: %s bytes";
+    private static final String CONTENT_LENGTH_REQUIRED_ERROR = "Content-Length or Content-Range required for %s";
+    private static final String MULTIPART_NOT_READABLE_ERROR = "Could not read multipart request. Exception: %s";
     private static final String CHUNK_SIZE_NOT_ALLOWED_ERROR = "Chunk size not allowed. Chunk size: %s bytes. Max chunks size allowed: %s bytes";
 
-    private static final String PREFIX_REGEX = "[b][y][t][e][s][ ]";
-    private static final String RANGE_SEPARATOR_REGEX = "[/]";
-    private static final String RANGE_INNER_SEPARATOR_REGEX = "[-]";
-    private static final String CONTENT_RANGE_REGEX = "^" + PREFIX_REGEX + "[0-9]+" +
-            RANGE_INNER_SEPARATOR_REGEX + "[0-9]+" + RANGE_SEPARATOR_REGEX + "[0-9]+$";
+    private static final String LIMIT_NOT_ALLOWED_ERROR = "Limit not allowed: %s. Limit must be between 1 and %s";
+    private static final String STATUS_NOT_ALLOWED_ERROR = "Status not allowed: %s";
+    private static final String CURSOR_NOT_ALLOWED_ERROR = "Cursor not allowed: %s";
+
+    private static final String ARCHIVE_SELECTION_REQUIRED_ERROR = "Either ids or userId required";
+    private static final String ID_NOT_ALLOWED_ERROR = "Id not allowed: %s";
+    private static final String TOO_MANY_IDS_ERROR = "Too many ids: %s. Max ids allowed: %s";
+
+    private static final String RANGE_NOT_SATISFIABLE_ERROR = "Range not satisfiable: %s. File size: %s bytes";
+
+    private static final String BYTES_UNIT = "bytes";
+    private static final int DOWNLOAD_BUFFER_SIZE = 64 * 1024;
+    private static final String APPLICATION_ZIP_VALUE = "application/zip";
+    private static final String ARCHIVE_FILENAME = "files.zip";
+    private static final String ARCHIVE_SPOOL_PREFIX = "archive-entry-";
+
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
 
     @Value("${upload.max.file.size.bytes}")
     private String maxFileSize;
     @Value("${upload.max.chunk.size.bytes}")
     private String maxChunkSize;
+    @Value("${list.default.limit}")
+    private String defaultListLimit;
+    @Value("${list.max.limit}")
+    private String maxListLimit;
+    @Value("${download.sendfile.enabled}")
+    private boolean sendfileEnabled;
+    @Value("${download.sendfile.min.size.bytes}")
+    private String sendfileMinSize;
 
     @Autowired
     private StorageService storageService;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private UploadMetrics metrics;
+
     @GetMapping
     @ApiOperation(value = "Returns uploaded files",
-            notes = "Returns a complete list of uploaded files")
+            notes = "Returns a page of uploaded files ordered by userId and filename, optionally filtered by userId " +
+                    "and status. When there are more files, the Link header carries the URL of the next page. " +
+                    "Pages carry an ETag and Last-Modified and answer If-None-Match and If-Modified-Since with 304")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successful retrieval of uploaded files"),
+            @ApiResponse(code = 304, message = "Uploaded files not modified"),
+            @ApiResponse(code = 422, message = "Unprocessable entity"),
             @ApiResponse(code = 500, message = "Internal server error")
     })
-    public ResponseEntity<List<UploadedFileResource>> getUploadedFiles() {
-        log.info("[FileUploadController.getUploadedFiles] retrieving all uploaded files");
+    public ResponseEntity<List<UploadedFileResource>> getUploadedFiles(
+            @RequestParam(value = USER_ID_PARAM, required = false) String userId,
+            @RequestParam(value = STATUS_PARAM, required = false) String status,
+            @RequestParam(value = AFTER_PARAM, required = false) String after,
+            @RequestParam(value = LIMIT_PARAM, required = false) Integer limit) {
+        log.info("[FileUploadController.getUploadedFiles] retrieving uploaded files. userId: {}, status: {}, after: {}, limit: {}",
+                userId, status, after, limit);
+
+        int pageSize = resolveLimit(limit);
+        UploadedFilePageResource page = storageService.findAll(isBlank(userId) ? null : userId,
+                resolveStatus(status), resolveCursor(after), pageSize);
+
+        String filesUri = linkTo(FileUploadController.class).toUri().toString();
+        page.getFiles().forEach(file -> file.setLinks(new Link(filesUri + "/" + file.getId(), "uploadedFile")));
+
+        // the response entity is answered with 304 when If-None-Match or If-Modified-Since still match the page
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(pageETag(page));
+        page.getFiles().stream()
+                .map(UploadedFileResource::getLastModifiedAt)
+                .filter(Objects::nonNull)
+                .max(Comparator.naturalOrder())
+                .ifPresent(lastModifiedAt -> response.lastModified(lastModifiedAt.toEpochMilli()));
+        if (page.getNextCursor() != null) {
+            UriComponentsBuilder nextUri = ServletUriComponentsBuilder.fromCurrentRequestUri();
+            if (!isBlank(userId)) {
+                nextUri.queryParam(USER_ID_PARAM, userId);
+            }
+            if (!isBlank(status)) {
+                nextUri.queryParam(STATUS_PARAM, status);
+            }
+            nextUri.queryParam(AFTER_PARAM, page.getNextCursor())
+                    .queryParam(LIMIT_PARAM, pageSize);
+            response.header(HttpHeaders.LINK, new Link(nextUri.toUriString(), Link.REL_NEXT).toString());
+        }
+
+        return response.body(page.getFiles());
+    }
+
+    /**
+     * Strong validator of a listing page, changing whenever a file on it changes, appears or disappears.
+     */
+    private String pageETag(UploadedFilePageResource page) {
+        StringBuilder validator = new StringBuilder();
+        page.getFiles().forEach(file -> validator.append(file.getId()).append(':')
+                .append(file.getStatus()).append(':')
+                .append(file.getLastModifiedAt() == null ? "" : file.getLastModifiedAt().toEpochMilli()).append(';'));
+        validator.append(page.getNextCursor());
+
+        return "\"" + DigestUtils.md5DigestAsHex(validator.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    @GetMapping(EXPORT_PATH)
+    @ApiOperation(value = "Exports uploaded files",
+            notes = "Streams the complete list of uploaded files ordered by userId and filename, optionally filtered " +
+                    "by userId and status, as a JSON array")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful export of uploaded files"),
+            @ApiResponse(code = 422, message = "Unprocessable entity"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    public void exportUploadedFiles(@RequestParam(value = USER_ID_PARAM, required = false) String userId,
+                                    @RequestParam(value = STATUS_PARAM, required = false) String status,
+                                    HttpServletResponse response) throws IOException {
+        log.info("[FileUploadController.exportUploadedFiles] exporting uploaded files. userId: {}, status: {}", userId, status);
+
+        FileUploadStatus fileUploadStatus = resolveStatus(status);
+        String filesUri = linkTo(FileUploadController.class).toUri().toString();
+
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            generator.writeStartArray();
+            storageService.exportAll(isBlank(userId) ? null : userId, fileUploadStatus, file -> {
+                file.setLinks(new Link(filesUri + "/" + file.getId(), "uploadedFile"));
+                try {
+                    generator.writeObject(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            generator.writeEndArray();
+        }
+    }
+
+    @GetMapping(ARCHIVE_PATH)
+    @ApiOperation(value = "Downloads uploaded files as a ZIP archive",
+            notes = "Streams a ZIP archive, built while it is sent, of the completed files with the given comma " +
+                    "separated ids, or else of every completed file of userId. Content of an already compressed " +
+                    "format is stored as is, anything else is deflated")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful retrieval of uploaded files"),
+            @ApiResponse(code = 404, message = "File not found"),
+            @ApiResponse(code = 422, message = "Unprocessable entity"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    public void getArchive(@RequestParam(value = IDS_PARAM, required = false) String ids,
+                           @RequestParam(value = USER_ID_PARAM, required = false) String userId,
+                           HttpServletResponse response) throws IOException {
+        log.info("[FileUploadController.getArchive] archiving uploaded files. ids: {}, userId: {}", ids, userId);
+
+        if (isBlank(ids) == isBlank(userId)) {
+            log.error("[FileUploadController.getArchive] " + ARCHIVE_SELECTION_REQUIRED_ERROR);
+            throw new UnprocessableEntityException(ARCHIVE_SELECTION_REQUIRED_ERROR);
+        }
+        List<Long> fileIds = isBlank(ids) ? null : resolveIds(ids);
+
+        // nothing is written before the first entry, so a missing or incomplete file is still answered with an error
+        ZipOutputStream zip = new ZipOutputStream(response.getOutputStream());
+        zip.setLevel(Deflater.BEST_SPEED);
+        Set<String> entryNames = new HashSet<>();
+        storageService.exportContent(fileIds, isBlank(userId) ? null : userId, (file, content) -> {
+            if (entryNames.isEmpty()) {
+                writeArchiveHeaders(response);
+            }
+            try {
+                writeArchiveEntry(zip, archiveEntryName(entryNames, file.getFilename()), file, content);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        if (entryNames.isEmpty()) {
+            writeArchiveHeaders(response);
+        }
+        zip.finish();
+    }
+
+    private List<Long> resolveIds(String ids) {
+        List<Long> fileIds = new ArrayList<>();
+        for (String id : ids.split(",")) {
+            try {
+                fileIds.add(valueOf(id.trim()));
+            } catch (NumberFormatException e) {
+                String err = format(ID_NOT_ALLOWED_ERROR, id);
+                log.error("[FileUploadController.getArchive] " + err);
+                throw new UnprocessableEntityException(err);
+            }
+        }
+
+        if (fileIds.size() > valueOf(maxListLimit)) {
+            String err = format(TOO_MANY_IDS_ERROR, fileIds.size(), maxListLimit);
+            log.error("[FileUploadController.getArchive] " + err);
+            throw new UnprocessableEntityException(err);
+        }
+
+        return fileIds;
+    }
+
+    private void writeArchiveHeaders(HttpServletResponse response) {
+        response.setContentType(APPLICATION_ZIP_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + ARCHIVE_FILENAME + "\"");
+    }
+
+    /**
+     * Keeps entry names unique, as the same filename may belong to several users.
+     */
+    private String archiveEntryName(Set<String> entryNames, String filename) {
+        String name = filename;
+        int extension = filename.lastIndexOf('.');
+        for (int copy = 1; !entryNames.add(name); copy++) {
+            name = extension > 0
+                    ? filename.substring(0, extension) + " (" + copy + ")" + filename.substring(extension)
+                    : filename + " (" + copy + ")";
+        }
+        return name;
+    }
+
+    private void writeArchiveEntry(ZipOutputStream zip, String name, DownloadableFileResource file,
+                                   Supplier<InputStream> content) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        if (file.getLastModifiedAt() != null) {
+            entry.setTime(file.getLastModifiedAt().toEpochMilli());
+        }
 
-        List<UploadedFileResource> uploadedFileResources = storageService.findAll();
-        uploadedFileResources.forEach(
-                file -> file.setLinks(linkTo(FileUploadController.class).slash(file.getId()).withRel("uploadedFile")));
+        byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+        if (!file.isIncompressible()) {
+            zip.putNextEntry(entry);
+            try (InputStream inputStream = content.get()) {
+                metrics.bytesSent(IOUtils.copyLarge(inputStream, zip, buffer));
+            }
+            zip.closeEntry();
+            return;
+        }
+
+        // deflating it again would only burn CPU, but a stored entry needs its CRC up front: content kept as is on
+        // local disk is read from there, anything else is read once into a temp file while the CRC is computed
+        Path localPath = file.getContentEncoding() == null ? file.getContentPath() : null;
+        Path source = localPath != null ? localPath : Files.createTempFile(ARCHIVE_SPOOL_PREFIX, null);
+        try {
+            CRC32 crc = new CRC32();
+            if (localPath != null) {
+                try (InputStream inputStream = new CheckedInputStream(Files.newInputStream(source), crc)) {
+                    IOUtils.skip(inputStream, Long.MAX_VALUE);
+                }
+            } else {
+                try (InputStream inputStream = new CheckedInputStream(content.get(), crc);
+                     OutputStream outputStream = Files.newOutputStream(source)) {
+                    IOUtils.copyLarge(inputStream, outputStream, buffer);
+                }
+            }
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(file.getSize());
+            entry.setCompressedSize(file.getSize());
+            entry.setCrc(crc.getValue());
+
+            zip.putNextEntry(entry);
+            try (InputStream inputStream = Files.newInputStream(source)) {
+                metrics.bytesSent(IOUtils.copyLarge(inputStream, zip, buffer));
+            }
+            zip.closeEntry();
+        } finally {
+            if (localPath == null) {
+                Files.deleteIfExists(source);
+            }
+        }
+    }
+
+    private int resolveLimit(Integer limit) {
+        if (limit == null) {
+            return valueOf(defaultListLimit).intValue();
+        }
+
+        if (limit < 1 || limit > valueOf(maxListLimit)) {
+            String err = format(LIMIT_NOT_ALLOWED_ERROR, limit, maxListLimit);
+            log.error("[FileUploadController.getUploadedFiles] " + err);
+            throw new UnprocessableEntityException(err);
+        }
+
+        return limit;
+    }
+
+    private FileUploadStatus resolveStatus(String status) {
+        if (isBlank(status)) {
+            return null;
+        }
 
-        return ResponseEntity.ok(uploadedFileResources);
+        return Arrays.stream(FileUploadStatus.values())
+                .filter(value -> value.name().equalsIgnoreCase(status))
+                .findFirst()
+                .orElseThrow(() -> {
+                    String err = format(STATUS_NOT_ALLOWED_ERROR, status);
+                    log.error("[FileUploadController.getUploadedFiles] " + err);
+                    return new UnprocessableEntityException(err);
+                });
+    }
+
+    private UploadedFileCursor resolveCursor(String after) {
+        if (isBlank(after)) {
+            return null;
+        }
+
+        try {
+            return UploadedFileCursor.decode(after);
+        } catch (IllegalArgumentException e) {
+            String err = format(CURSOR_NOT_ALLOWED_ERROR, after);
+            log.error("[FileUploadController.getUploadedFiles] " + err);
+            throw new UnprocessableEntityException(err);
+        }
     }
 
     @GetMapping(ID_PATH_VARIABLE)
     @ApiOperation(value = "Downloads an uploaded file",
-            notes = "Downloads an uploaded file by its id")
+            notes = "Downloads an uploaded file by its id. Supports single byte ranges via Range and If-Range headers " +
+                    "and conditional requests via If-None-Match and If-Modified-Since. Content stored compressed is " +
+                    "sent as is with Content-Encoding when Accept-Encoding allows it")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successful retrieval of uploaded file"),
+            @ApiResponse(code = 206, message = "Successful retrieval of the requested range of uploaded file"),
+            @ApiResponse(code = 304, message = "Uploaded file not modified"),
             @ApiResponse(code = 404, message = "File not found"),
+            @ApiResponse(code = 416, message = "Requested range not satisfiable"),
             @ApiResponse(code = 500, message = "Internal server error")
     })
-    public void getUploadedFile(@PathVariable(value = ID_PARAM) String id, HttpServletResponse response)
+    public void getUploadedFile(@PathVariable(value = ID_PARAM) String id,
+                                @RequestHeader(value = RANGE_HEADER, required = false) String range,
+                                @RequestHeader(value = IF_RANGE_HEADER, required = false) String ifRange,
+                                @RequestHeader(value = ACCEPT_ENCODING_HEADER, required = false) String acceptEncoding,
+                                HttpServletRequest request, HttpServletResponse response)
             throws MissingServletRequestParameterException, IOException {
-        log.info("[FileUploadController.getUploadedFile] retrieving uploaded file for {}", id);
+        log.info("[FileUploadController.getUploadedFile] retrieving uploaded file for {}. Range: {}", id, range);
 
         checkParams(id, ID_PARAM);
 
         DownloadableFileResource downloadableFileResource = storageService.findById(valueOf(id));
-        response.setHeader("Content-Disposition", "attachment; filename=" + downloadableFileResource.getFilename());
-        IOUtils.copy(downloadableFileResource.getInputStream(), response.getOutputStream());
+        long size = downloadableFileResource.getSize() == null ? 0 : downloadableFileResource.getSize();
+
+        HttpRange httpRange = resolveRange(range, ifRange, valueOf(id), downloadableFileResource);
+        String contentEncoding = httpRange == null ? resolveContentEncoding(acceptEncoding, downloadableFileResource) : null;
+        if (writeDownloadHeaders(valueOf(id), downloadableFileResource, contentEncoding, request, response)) {
+            return;
+        }
+
+        if (contentEncoding != null) {
+            // the stored bytes already are the encoded representation, so they go out without being decoded
+            long storedSize = downloadableFileResource.getStoredSize();
+            sendContent(request, response, downloadableFileResource.getContentPath(), 0, storedSize - 1,
+                    () -> storageService.openStoredContent(valueOf(id), 0, storedSize));
+            return;
+        }
+
+        long start = 0;
+        long end = size - 1;
+
+        if (httpRange != null) {
+            start = httpRange.getRangeStart(size);
+            end = httpRange.getRangeEnd(size);
+            if (start >= size || start > end) {
+                log.error("[FileUploadController.getUploadedFile] " + format(RANGE_NOT_SATISFIABLE_ERROR, range, size));
+                response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " */" + size);
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " " + start + "-" + end + "/" + size);
+        }
+
+        long offset = start;
+        long length = end - start + 1;
+        // encoded content has to be decoded on the way out, so it cannot be handed to the container as is
+        boolean storedAsIs = downloadableFileResource.getContentEncoding() == null;
+        sendContent(request, response, storedAsIs ? downloadableFileResource.getContentPath() : null,
+                start, end, () -> storageService.openContent(valueOf(id), offset, length));
+    }
+
+    @RequestMapping(value = ID_PATH_VARIABLE, method = RequestMethod.HEAD)
+    @ApiOperation(value = "Returns the size and validators of an uploaded file",
+            notes = "Returns the headers a download of the uploaded file would carry, including Content-Length, " +
+                    "ETag and Last-Modified, without reading its content")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful retrieval of uploaded file headers"),
+            @ApiResponse(code = 304, message = "Uploaded file not modified"),
+            @ApiResponse(code = 404, message = "File not found"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    public void headUploadedFile(@PathVariable(value = ID_PARAM) String id,
+                                 @RequestHeader(value = ACCEPT_ENCODING_HEADER, required = false) String acceptEncoding,
+                                 HttpServletRequest request, HttpServletResponse response)
+            throws MissingServletRequestParameterException {
+        log.info("[FileUploadController.headUploadedFile] retrieving uploaded file headers for {}", id);
+
+        checkParams(id, ID_PARAM);
+
+        DownloadableFileResource downloadableFileResource = storageService.findById(valueOf(id));
+
+        String contentEncoding = resolveContentEncoding(acceptEncoding, downloadableFileResource);
+        if (writeDownloadHeaders(valueOf(id), downloadableFileResource, contentEncoding, request, response)) {
+            return;
+        }
+
+        Long length = contentEncoding != null ? downloadableFileResource.getStoredSize() : downloadableFileResource.getSize();
+        response.setContentLengthLong(length == null ? 0 : length);
+    }
+
+    /**
+     * Sets the headers shared by GET and HEAD downloads, validators included, and answers If-None-Match and
+     * If-Modified-Since.
+     *
+     * @return {@code true} when the client's copy is still current and the response is a complete 304
+     */
+    private boolean writeDownloadHeaders(Long id, DownloadableFileResource downloadableFileResource,
+                                         String contentEncoding, HttpServletRequest request,
+                                         HttpServletResponse response) {
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + downloadableFileResource.getFilename());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, BYTES_UNIT);
+        if (downloadableFileResource.getContentEncoding() != null) {
+            response.setHeader(HttpHeaders.VARY, ACCEPT_ENCODING_HEADER);
+        }
+
+        Instant lastModifiedAt = downloadableFileResource.getLastModifiedAt();
+        // also sets the ETag and Last-Modified headers, on 304 responses as well
+        if (new ServletWebRequest(request, response).checkNotModified(
+                downloadETag(id, downloadableFileResource, contentEncoding),
+                lastModifiedAt == null ? -1 : lastModifiedAt.toEpochMilli())) {
+            return true;
+        }
+
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        if (contentEncoding != null) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+        }
+        return false;
+    }
+
+    /**
+     * Strong validator of the representation being sent: the content hash, or the id and modification time for
+     * content stored before hashing, suffixed with the content coding when the stored gzip bytes are sent.
+     */
+    private String downloadETag(Long id, DownloadableFileResource downloadableFileResource, String contentEncoding) {
+        String validator = downloadableFileResource.getContentHash();
+        if (validator == null) {
+            Instant lastModifiedAt = downloadableFileResource.getLastModifiedAt();
+            validator = id + "-" + (lastModifiedAt == null ? 0 : lastModifiedAt.toEpochMilli());
+        }
+
+        return "\"" + validator + (contentEncoding == null ? "" : "-" + contentEncoding) + "\"";
+    }
+
+    /**
+     * Returns the content coding of the stored bytes when they can be sent as they are, or {@code null} when the
+     * content has to be sent decoded.
+     */
+    private String resolveContentEncoding(String acceptEncoding, DownloadableFileResource downloadableFileResource) {
+        String contentEncoding = downloadableFileResource.getContentEncoding();
+        return isEncodingAccepted(acceptEncoding, contentEncoding) ? contentEncoding : null;
+    }
+
+    private void sendContent(HttpServletRequest request, HttpServletResponse response, Path contentPath, long start,
+                             long end, Supplier<InputStream> content) throws IOException {
+        long length = end - start + 1;
+        response.setContentLengthLong(length);
+
+        if (isSendfileAvailable(request, contentPath, length)) {
+            // the container writes the file straight from the page cache to the socket once the handler returns
+            request.setAttribute(SENDFILE_FILENAME_ATTR, contentPath.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, end + 1);
+            metrics.bytesSent(length);
+            return;
+        }
+
+        try (InputStream inputStream = content.get()) {
+            metrics.bytesSent(IOUtils.copyLarge(inputStream, response.getOutputStream(), new byte[DOWNLOAD_BUFFER_SIZE]));
+        }
+    }
+
+    private boolean isSendfileAvailable(HttpServletRequest request, Path contentPath, long length) {
+        return sendfileEnabled
+                && contentPath != null
+                && length >= valueOf(sendfileMinSize)
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR));
+    }
+
+    /**
+     * Tells whether an Accept-Encoding header allows the given content coding, either by name or through {@code *},
+     * with a non-zero quality value. An exact match takes precedence over the wildcard.
+     */
+    private boolean isEncodingAccepted(String acceptEncoding, String contentEncoding) {
+        if (contentEncoding == null || isBlank(acceptEncoding)) {
+            return false;
+        }
+
+        boolean wildcardAccepted = false;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parameters = element.split(";");
+            String coding = parameters[0].trim();
+            if (coding.equalsIgnoreCase(contentEncoding)) {
+                return hasNonZeroQuality(parameters);
+            }
+            if ("*".equals(coding)) {
+                wildcardAccepted = hasNonZeroQuality(parameters);
+            }
+        }
+        return wildcardAccepted;
+    }
+
+    private boolean hasNonZeroQuality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) > 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the single byte range to be served, or {@code null} when the whole file must be sent: no Range header,
+     * a malformed or multi-range header, or an If-Range date or ETag that no longer matches.
+     */
+    private HttpRange resolveRange(String range, String ifRange, Long id,
+                                   DownloadableFileResource downloadableFileResource) {
+        if (isBlank(range) || !isRangeStillValid(ifRange, id, downloadableFileResource)) {
+            return null;
+        }
+
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(range);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            log.warn("[FileUploadController.resolveRange] ignoring invalid Range {}: {}", range, e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean isRangeStillValid(String ifRange, Long id, DownloadableFileResource downloadableFileResource) {
+        if (isBlank(ifRange)) {
+            return true;
+        }
+
+        if (ifRange.startsWith("\"")) {
+            // ranges are served from the decoded content, so they are validated against its ETag
+            return ifRange.equals(downloadETag(id, downloadableFileResource, null));
+        }
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+
+        Instant lastModifiedAt = downloadableFileResource.getLastModifiedAt();
+        if (lastModifiedAt == null) {
+            return false;
+        }
+
+        try {
+            Instant validator = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return validator.getEpochSecond() == lastModifiedAt.getEpochSecond();
+        } catch (DateTimeParseException e) {
+            return false;
+        }
     }
 
     @PostMapping(produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
     @ApiOperation(value = "Uploads a file",
-            notes = "Uploads a file either via multipart or chunked transfer")
+            notes = "Uploads a file either via multipart or chunked transfer. Chunks are written at the offset given " +
+                    "in Content-Range, so they may be sent in any order, in parallel and retried")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Uploaded file successfully"),
+            @ApiResponse(code = 202, message = "Uploaded file received, finalization in progress"),
             @ApiResponse(code = 422, message = "Unprocessable entity"),
             @ApiResponse(code = 500, message = "Internal server error")
     })
@@ -126,29 +712,188 @@ public class FileUploadController {
 
         MultipartFileUtils.validate(file);
 
-        Integer totalChunks = null;
-        boolean lastChunk = true;
-        // chunked transfer
-        if (isChunkedRequest(contentRange)) {
-            String[] chunks = contentRange.replaceAll(PREFIX_REGEX, "").split(RANGE_SEPARATOR_REGEX);
-            Long totalBytes = valueOf(chunks[1]);
+        ContentRange range = resolveContentRange(contentRange, file.getSize());
+        if (range == null) {
+            validateFileSize(file.getSize());
+            range = ContentRange.whole(file.getSize());
+        }
+
+        FileUploadStatus status = storageService.store(userId, file, range, totalChunks(contentRange, range), now);
+
+        return uploadResponse(status);
+    }
+
+    @PutMapping(value = USER_FILE_PATH_VARIABLES, consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE,
+            produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    @ApiOperation(value = "Uploads a file from the raw request body",
+            notes = "Uploads a file, or the chunk of it given in Content-Range, streaming the application/octet-stream " +
+                    "body straight to storage without multipart parsing")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Uploaded file successfully"),
+            @ApiResponse(code = 202, message = "Uploaded file received, finalization in progress"),
+            @ApiResponse(code = 422, message = "Unprocessable entity"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    public ResponseEntity<String> uploadContent(@PathVariable(value = USER_ID_PARAM) String userId,
+                                                @PathVariable(value = FILENAME_PARAM) String filename,
+                                                @RequestHeader(value = CONTENT_RANGE_HEADER, required = false) String contentRange,
+                                                HttpServletRequest request)
+            throws MissingServletRequestParameterException, IOException {
+        log.info("[FileUploadController.uploadContent] uploading file {} for userId {}. Content-Range: {}",
+                filename, userId, contentRange);
+
+        Instant now = Instant.now();
+
+        checkParams(userId, USER_ID_PARAM);
+        checkParams(filename, FILENAME_PARAM);
 
-            String[] range = chunks[0].split(RANGE_INNER_SEPARATOR_REGEX);
-            Long start = valueOf(range[0]);
-            Long end = valueOf(range[1]) + 1;
+        MultipartFileUtils.validateFilename(filename);
 
-            validateFileSize(totalBytes);
-            validateChunkSize(start, end);
+        // -1 for a body sent with chunked transfer encoding; the storage checks the bytes actually read instead
+        long bodySize = request.getContentLengthLong();
 
-            lastChunk = totalBytes <= end;
-            totalChunks = lastChunk ? (int) ceil((double) totalBytes / valueOf(maxChunkSize)) : null;
-        } else {
-            validateFileSize(file.getBytes().length);
+        ContentRange range = resolveContentRange(contentRange, bodySize);
+        if (range == null) {
+            if (bodySize <= 0) {
+                String err = format(CONTENT_LENGTH_REQUIRED_ERROR, filename);
+                log.error("[FileUploadController.uploadContent] " + err);
+                throw new UnprocessableEntityException(err);
+            }
+            validateFileSize(bodySize);
+            range = ContentRange.whole(bodySize);
         }
 
-        storageService.store(userId, file, totalChunks, lastChunk, now);
+        FileUploadStatus status = storageService.store(userId, filename, request.getInputStream(), range,
+                totalChunks(contentRange, range), now);
 
-        return ResponseEntity.ok("{}");
+        return uploadResponse(status);
+    }
+
+    @PostMapping(value = USER_ID_PATH_VARIABLE, consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    @ApiOperation(value = "Uploads many files in one request",
+            notes = "Stores every file part of a multipart request as a whole file of the user, reading the parts one " +
+                    "at a time as they arrive, and returns the outcome of each of them in order")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Batch received, see each file for its outcome"),
+            @ApiResponse(code = 422, message = "Unprocessable entity"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    public ResponseEntity<List<BatchUploadResultResource>> uploadBatch(@PathVariable(value = USER_ID_PARAM) String userId,
+                                                                       HttpServletRequest request)
+            throws MissingServletRequestParameterException, IOException {
+        log.info("[FileUploadController.uploadBatch] uploading files for userId {}", userId);
+
+        Instant now = Instant.now();
+
+        checkParams(userId, USER_ID_PARAM);
+
+        FileItemIterator items;
+        try {
+            // read from the raw body: the parts are never buffered by the container or the multipart resolver
+            items = new ServletFileUpload().getItemIterator(request);
+        } catch (FileUploadException e) {
+            String err = format(MULTIPART_NOT_READABLE_ERROR, e.getMessage());
+            log.error("[FileUploadController.uploadBatch] " + err);
+            throw new UnprocessableEntityException(err);
+        }
+
+        return ResponseEntity.ok(storageService.storeBatch(userId, fileParts(items), now));
+    }
+
+    /**
+     * The file parts of a multipart stream, skipping form fields. Each part is only readable until the next one is
+     * requested.
+     */
+    private Iterator<UploadPart> fileParts(FileItemIterator items) {
+        return new Iterator<UploadPart>() {
+
+            private UploadPart next;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (next == null && items.hasNext()) {
+                        FileItemStream item = items.next();
+                        if (!item.isFormField()) {
+                            next = new UploadPart(item.getName(), item.openStream());
+                        }
+                    }
+                    return next != null;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (FileUploadException e) {
+                    throw new UncheckedIOException(new IOException(e.getMessage(), e));
+                }
+            }
+
+            @Override
+            public UploadPart next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                UploadPart part = next;
+                next = null;
+                return part;
+            }
+
+        };
+    }
+
+    @RequestMapping(value = USER_FILE_PATH_VARIABLES, method = RequestMethod.HEAD)
+    @ApiOperation(value = "Returns the progress of an upload",
+            notes = "Returns in Upload-Offset the bytes received without a gap from the start of the file, and in " +
+                    "Upload-Length its declared size. An interrupted upload is resumed by sending the rest of the file " +
+                    "from Upload-Offset with a Content-Range")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successful retrieval of upload progress"),
+            @ApiResponse(code = 404, message = "Upload not in progress"),
+            @ApiResponse(code = 500, message = "Internal server error")
+    })
+    public ResponseEntity<Void> headUpload(@PathVariable(value = USER_ID_PARAM) String userId,
+                                           @PathVariable(value = FILENAME_PARAM) String filename)
+            throws MissingServletRequestParameterException {
+        log.info("[FileUploadController.headUpload] retrieving upload progress of file {} for userId {}", filename, userId);
+
+        checkParams(userId, USER_ID_PARAM);
+        checkParams(filename, FILENAME_PARAM);
+
+        UploadProgressResource progress = storageService.findUploadProgress(userId, filename);
+
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .header(UPLOAD_OFFSET_HEADER, String.valueOf(progress.getOffset()))
+                .header(UPLOAD_LENGTH_HEADER, String.valueOf(progress.getTotalBytes()))
+                .build();
+    }
+
+    /**
+     * Parses and validates a Content-Range header, returning {@code null} for a non-chunked transfer.
+     *
+     * @param bodySize size of the received chunk, or -1 when unknown
+     */
+    private ContentRange resolveContentRange(String contentRange, long bodySize) {
+        if (isBlank(contentRange)) {
+            return null;
+        }
+
+        ContentRange range = parseContentRange(contentRange);
+
+        validateFileSize(range.getTotal());
+        validateChunkSize(range.getStart(), range.getEnd());
+        validateRange(contentRange, range.getStart(), range.getEnd(), range.getTotal(),
+                bodySize < 0 ? range.length() : bodySize);
+
+        return range;
+    }
+
+    private Integer totalChunks(String contentRange, ContentRange range) {
+        return isBlank(contentRange) ? null : (int) ceil((double) range.getTotal() / valueOf(maxChunkSize));
+    }
+
+    private ResponseEntity<String> uploadResponse(FileUploadStatus status) {
+        // the last chunk is acknowledged before the upload is persisted when finalization runs in the background
+        return ResponseEntity.status(FINALIZING.equals(status) ? HttpStatus.ACCEPTED : HttpStatus.OK).body("{}");
     }
 
     private void checkParams(String value, String paramName) throws MissingServletRequestParameterException {
@@ -158,18 +903,14 @@ public class FileUploadController {
         }
     }
 
-    private boolean isChunkedRequest(String contentRange) {
-        if (isBlank(contentRange)) {
-            return false;
-        }
-
-        if (!contentRange.matches(CONTENT_RANGE_REGEX)) {
+    private ContentRange parseContentRange(String contentRange) {
+        try {
+            return ContentRange.parse(contentRange);
+        } catch (IllegalArgumentException e) {
             String err = format(CONTENT_RANGE_NOT_ALLOWED_ERROR, contentRange);
-            log.error("[FileUploadController.isChunkedRequest] " + err);
+            log.error("[FileUploadController.parseContentRange] " + err);
             throw new UnprocessableEntityException(err);
         }
-
-        return true;
     }
 
     private void validateFileSize(long totalBytes) {
@@ -180,6 +921,14 @@ public class FileUploadController {
         }
     }
 
+    private void validateRange(String contentRange, long start, long end, long totalBytes, long chunkSize) {
+        if (start >= end || end > totalBytes || end - start != chunkSize) {
+            String err = format(CONTENT_RANGE_NOT_ALLOWED_ERROR, contentRange) + format(CONTENT_RANGE_MISMATCH_ERROR, chunkSize);
+            log.error("[FileUploadController.upload] " + err);
+            throw new UnprocessableEntityException(err);
+        }
+    }
+
     private void validateChunkSize(Long start, Long end) {
         long chunkSize = end - start;
         if (chunkSize > valueOf(maxChunkSize)) {
@@ -0,0 +1,102 @@
+package fileuploader.controller;
+
+import fileuploader.exceptions.TooManyRequestsException;
+import fileuploader.services.UploadAdmissionControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static fileuploader.utils.RestConstants.FILE_UPLOAD_URL_SERVICE;
+import static fileuploader.utils.RestConstants.USER_ID_PARAM;
+
+/**
+ * Puts upload requests through {@link UploadAdmissionControl} before anything reads their body. It runs ahead of the
+ * dispatcher, which parses multipart requests before the controller is invoked, and answers with
+ * {@code 429 Too Many Requests} and a {@code Retry-After} when an upload is not admitted.
+ *
+ * Created by luisoliveira on 11/24/17.
+ */
+public class UploadAdmissionFilter extends OncePerRequestFilter {
+
+    private final UploadAdmissionControl admissionControl;
+    private final long unknownContentLength;
+    private final long retryAfterSeconds;
+
+    /**
+     * @param unknownContentLength bytes accounted for a request sent without Content-Length
+     */
+    public UploadAdmissionFilter(UploadAdmissionControl admissionControl, long unknownContentLength,
+                                 long retryAfterSeconds) {
+        this.admissionControl = admissionControl;
+        this.unknownContentLength = unknownContentLength;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !HttpMethod.POST.matches(request.getMethod()) && !HttpMethod.PUT.matches(request.getMethod());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long contentLength = request.getContentLengthLong();
+
+        UploadAdmissionControl.Admission admission;
+        try {
+            admission = admissionControl.admit(resolveUserId(request),
+                    contentLength < 0 ? unknownContentLength : contentLength);
+        } catch (TooManyRequestsException e) {
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getWriter().write(e.getMessage());
+            return;
+        }
+
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            admission.close();
+        }
+    }
+
+    /**
+     * The userId of a raw-body or batch upload is in its path, the one of a single multipart upload in the query
+     * string. It is not looked up in the multipart form, as that would read the body, so a userId sent only as a form
+     * field leaves the upload in the bucket {@link UploadAdmissionControl} shares between unknown users.
+     */
+    private String resolveUserId(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (path.startsWith(FILE_UPLOAD_URL_SERVICE + "/")) {
+            String userId = path.substring(FILE_UPLOAD_URL_SERVICE.length() + 1).split("/", 2)[0];
+            return userId.isEmpty() ? null : decode(userId);
+        }
+
+        if (request.getQueryString() == null) {
+            return null;
+        }
+        String userId = UriComponentsBuilder.newInstance().query(request.getQueryString()).build()
+                .getQueryParams().getFirst(USER_ID_PARAM);
+        return userId == null || userId.isEmpty() ? null : decode(userId);
+    }
+
+    private String decode(String value) {
+        try {
+            return UriUtils.decode(value, "UTF-8");
+        } catch (IllegalArgumentException | IOException e) {
+            return value;
+        }
+    }
+
+}
@@ -0,0 +1,36 @@
+package fileuploader.controller.resources;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Outcome of one file of a batch upload.
+ *
+ * Created by luisoliveira on 11/24/17.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@Builder
+@ApiModel
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchUploadResultResource {
+
+    @ApiModelProperty("uploaded filename")
+    private String filename;
+
+    @ApiModelProperty("upload status (Completed, Failed)")
+    private String status;
+
+    @ApiModelProperty("uploaded file size (bytes)")
+    private Long size;
+
+    @ApiModelProperty("reason the file was not stored")
+    private String error;
+
+}
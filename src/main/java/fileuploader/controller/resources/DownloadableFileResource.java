@@ -1,5 +1,6 @@
 package fileuploader.controller.resources;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
@@ -8,7 +9,8 @@ import lombok.Builder;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Instant;
 
 /**
  * Created by luisoliveira on 11/11/17.
@@ -24,7 +26,30 @@ public class DownloadableFileResource {
     @ApiModelProperty("database filename")
     private String filename;
 
-    @ApiModelProperty("uploaded file content bytes")
-    private InputStream inputStream;
+    @ApiModelProperty("uploaded file size (bytes)")
+    private Long size;
+
+    @ApiModelProperty("database lastModifiedAt")
+    private Instant lastModifiedAt;
+
+    @JsonIgnore
+    @ApiModelProperty(hidden = true)
+    private String contentHash;
+
+    @JsonIgnore
+    @ApiModelProperty(hidden = true)
+    private Path contentPath;
+
+    @JsonIgnore
+    @ApiModelProperty(hidden = true)
+    private String contentEncoding;
+
+    @JsonIgnore
+    @ApiModelProperty(hidden = true)
+    private Long storedSize;
+
+    @JsonIgnore
+    @ApiModelProperty(hidden = true)
+    private boolean incompressible;
 
 }
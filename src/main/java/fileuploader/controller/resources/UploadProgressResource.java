@@ -0,0 +1,26 @@
+package fileuploader.controller.resources;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Progress of an upload in progress. {@code offset} is where a client resuming it continues, while
+ * {@code receivedBytes} also counts the chunks received past a gap.
+ *
+ * Created by luisoliveira on 11/24/17.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@Builder
+public class UploadProgressResource {
+
+    private long offset;
+
+    private long receivedBytes;
+
+    private long totalBytes;
+
+}
@@ -0,0 +1,25 @@
+package fileuploader.controller.resources;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+/**
+ * One page of the uploaded files listing. {@code nextCursor} is {@code null} on the last page.
+ *
+ * Created by luisoliveira on 11/19/17.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@Builder
+public class UploadedFilePageResource {
+
+    private List<UploadedFileResource> files;
+
+    private String nextCursor;
+
+}
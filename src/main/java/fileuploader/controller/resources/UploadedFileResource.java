@@ -1,5 +1,6 @@
 package fileuploader.controller.resources;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import io.swagger.annotations.ApiModel;
 import io.swagger.annotations.ApiModelProperty;
@@ -10,6 +11,7 @@ import lombok.Setter;
 import org.springframework.hateoas.Link;
 
 import java.io.InputStream;
+import java.time.Instant;
 
 /**
  * Created by luisoliveira on 11/11/17.
@@ -40,10 +42,17 @@ public class UploadedFileResource {
     @ApiModelProperty("database chunks")
     private Integer chunks;
 
+    @ApiModelProperty("uploaded file size in bytes")
+    private Long size;
+
     @ApiModelProperty("uploaded file content bytes")
     private InputStream inputStream;
 
     @ApiModelProperty("download link")
     private Link links;
 
+    @JsonIgnore
+    @ApiModelProperty(hidden = true)
+    private Instant lastModifiedAt;
+
 }
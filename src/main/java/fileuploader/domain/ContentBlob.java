@@ -0,0 +1,39 @@
+package fileuploader.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import java.sql.Blob;
+
+/**
+ * Content kept in the database by {@link fileuploader.storage.DatabaseContentStore}. Only mapped so its table is
+ * created along with the others: the content is always streamed through JDBC, never loaded as an entity.
+ *
+ * Created by luisoliveira on 11/24/17.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = ContentBlob.TABLE_NAME)
+public class ContentBlob {
+
+    public static final String TABLE_NAME = "contentBlob";
+
+    @Id
+    @Column(name = "storage_key", nullable = false)
+    protected String storageKey;
+
+    @Lob
+    @Column(name = "content", nullable = false)
+    protected Blob content;
+
+}
@@ -0,0 +1,55 @@
+package fileuploader.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Byte range carried by an upload request: {@code start} inclusive, {@code end} exclusive, out of {@code total}
+ * bytes for the whole file.
+ *
+ * Created by luisoliveira on 11/12/17.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+@AllArgsConstructor
+public class ContentRange {
+
+    private static final String PREFIX_REGEX = "[b][y][t][e][s][ ]";
+    private static final String RANGE_SEPARATOR_REGEX = "[/]";
+    private static final String RANGE_INNER_SEPARATOR_REGEX = "[-]";
+    private static final String CONTENT_RANGE_REGEX = "^" + PREFIX_REGEX + "[0-9]+" +
+            RANGE_INNER_SEPARATOR_REGEX + "[0-9]+" + RANGE_SEPARATOR_REGEX + "[0-9]+$";
+
+    private final long start;
+    private final long end;
+    private final long total;
+
+    /**
+     * Parses a {@code bytes <first>-<last>/<total>} Content-Range header, whose last byte position is inclusive.
+     *
+     * @throws IllegalArgumentException if the header is not in that form
+     */
+    public static ContentRange parse(String contentRange) {
+        if (!contentRange.matches(CONTENT_RANGE_REGEX)) {
+            throw new IllegalArgumentException(contentRange);
+        }
+
+        String[] chunks = contentRange.replaceAll(PREFIX_REGEX, "").split(RANGE_SEPARATOR_REGEX);
+        long total = Long.valueOf(chunks[1]);
+
+        String[] bounds = chunks[0].split(RANGE_INNER_SEPARATOR_REGEX);
+        return new ContentRange(Long.valueOf(bounds[0]), Long.valueOf(bounds[1]) + 1, total);
+    }
+
+    public static ContentRange whole(long size) {
+        return new ContentRange(0, size, size);
+    }
+
+    public long length() {
+        return end - start;
+    }
+
+}
@@ -0,0 +1,29 @@
+package fileuploader.domain;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import java.sql.Timestamp;
+import java.time.Instant;
+
+/**
+ * Maps every {@link Instant} attribute to a TIMESTAMP column. Without it Hibernate 5.0 stores instants as serialized
+ * objects in a binary column, which the database cannot compare or order as points in time.
+ *
+ * Native queries bypass it, so they bind their instants as {@link Timestamp} themselves.
+ *
+ * Created by luisoliveira on 11/24/17.
+ */
+@Converter(autoApply = true)
+public class InstantConverter implements AttributeConverter<Instant, Timestamp> {
+
+    @Override
+    public Timestamp convertToDatabaseColumn(Instant instant) {
+        return instant == null ? null : Timestamp.from(instant);
+    }
+
+    @Override
+    public Instant convertToEntityAttribute(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toInstant();
+    }
+
+}
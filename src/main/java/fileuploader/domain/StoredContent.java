@@ -0,0 +1,60 @@
+package fileuploader.domain;
+
+import fileuploader.enums.ContentCodec;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * A stored blob shared by every uploaded file with the same content, how it is encoded and how many of them still
+ * point to it. {@code size} is the size of the original content, {@code storedSize} the size of the blob, and
+ * {@code compressible} whether the original content looked worth compressing when it was stored.
+ *
+ * Created by luisoliveira on 11/22/17.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(name = StoredContent.TABLE_NAME,
+        uniqueConstraints = @UniqueConstraint(name = "uk_stored_content_storage_key", columnNames = "storage_key"))
+public class StoredContent {
+
+    public static final String TABLE_NAME = "storedContent";
+
+    @Id
+    @Column(name = "content_hash", nullable = false)
+    protected String contentHash;
+
+    @Column(name = "storage_key", nullable = false)
+    protected String storageKey;
+
+    @Column(name = "size", nullable = false)
+    protected Long size;
+
+    @Enumerated(value = EnumType.STRING)
+    @Column(name = "codec")
+    protected ContentCodec codec;
+
+    @Column(name = "stored_size")
+    protected Long storedSize;
+
+    @Column(name = "compressible")
+    protected Boolean compressible;
+
+    @Column(name = "reference_count", nullable = false)
+    protected Integer referenceCount;
+
+}
@@ -0,0 +1,22 @@
+package fileuploader.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.InputStream;
+
+/**
+ * One file of a batch upload, read straight from the request body. {@code content} is only readable until the next
+ * part is requested.
+ *
+ * Created by luisoliveira on 11/24/17.
+ */
+@Getter
+@AllArgsConstructor
+public class UploadPart {
+
+    private final String filename;
+
+    private final InputStream content;
+
+}
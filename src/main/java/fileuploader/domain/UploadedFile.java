@@ -1,5 +1,6 @@
 package fileuploader.domain;
 
+import fileuploader.enums.ContentCodec;
 import fileuploader.enums.FileUploadStatus;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -8,17 +9,16 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 import org.hibernate.annotations.GenericGenerator;
 
-import javax.persistence.Basic;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
-import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
-import javax.persistence.Lob;
+import javax.persistence.Index;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 import java.time.Instant;
 
 /**
@@ -30,7 +30,12 @@ import java.time.Instant;
 @AllArgsConstructor
 @Builder
 @Entity
-@Table(name = UploadedFile.TABLE_NAME)
+@Table(name = UploadedFile.TABLE_NAME,
+        uniqueConstraints = @UniqueConstraint(name = "uk_uploaded_file_user_filename", columnNames = {"user_id", "filename"}),
+        indexes = {
+                @Index(name = "idx_uploaded_file_status_user_filename", columnList = "status, user_id, filename"),
+                @Index(name = "idx_uploaded_file_status_created_at", columnList = "status, created_at")
+        })
 public class UploadedFile {
 
     public static final String TABLE_NAME = "uploadedFile";
@@ -59,10 +64,24 @@ public class UploadedFile {
     @Column(name = "chunks")
     protected Integer chunks;
 
-    @Lob
-    @Basic(fetch = FetchType.LAZY)
-    @Column(name = "content")
-    protected byte[] content;
+    @Column(name = "size")
+    protected Long size;
+
+    @Column(name = "storage_key")
+    protected String storageKey;
+
+    @Column(name = "content_hash")
+    protected String contentHash;
+
+    @Enumerated(value = EnumType.STRING)
+    @Column(name = "codec")
+    protected ContentCodec codec;
+
+    @Column(name = "stored_size")
+    protected Long storedSize;
+
+    @Column(name = "compressible")
+    protected Boolean compressible;
 
     @Column(name = "root_cause")
     protected String rootCause;
@@ -0,0 +1,52 @@
+package fileuploader.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position in the uploaded files listing, which is ordered by {@code (userId, filename)}: the next page starts right
+ * after the file carrying this key. Travels to clients as an opaque URL-safe token.
+ *
+ * Created by luisoliveira on 11/19/17.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+@AllArgsConstructor
+public class UploadedFileCursor {
+
+    private static final String SEPARATOR = ".";
+
+    private final String userId;
+    private final String filename;
+
+    /**
+     * @throws IllegalArgumentException if the token was not produced by {@link #encode()}
+     */
+    public static UploadedFileCursor decode(String token) {
+        int separator = token.indexOf(SEPARATOR);
+        if (separator < 0) {
+            throw new IllegalArgumentException("Missing separator");
+        }
+
+        return new UploadedFileCursor(decodePart(token.substring(0, separator)), decodePart(token.substring(separator + 1)));
+    }
+
+    public String encode() {
+        return encodePart(userId) + SEPARATOR + encodePart(filename);
+    }
+
+    private static String encodePart(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodePart(String value) {
+        return new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,26 @@
+package fileuploader.enums;
+
+import lombok.Getter;
+
+/**
+ * How stored content is encoded. Content recorded without a codec is stored as is.
+ *
+ * Created by luisoliveira on 11/23/17.
+ */
+@Getter
+public enum ContentCodec {
+
+    IDENTITY("identity"),
+    GZIP("gzip");
+
+    ContentCodec(String contentEncoding) {
+        this.contentEncoding = contentEncoding;
+    }
+
+    private String contentEncoding;
+
+    public static boolean isEncoded(ContentCodec codec) {
+        return codec != null && codec != IDENTITY;
+    }
+
+}
@@ -10,7 +10,8 @@ public enum FileUploadStatus {
 
     COMPLETED("Completed"),
     FAILED("Failed"),
-    PENDING("Pending");
+    PENDING("Pending"),
+    FINALIZING("Finalizing");
 
     FileUploadStatus(String description) {
         this.description = description;
@@ -0,0 +1,12 @@
+package fileuploader.exceptions;
+
+/**
+ * Created by luisoliveira on 11/24/17.
+ */
+public class TooManyRequestsException extends RuntimeException {
+
+    public TooManyRequestsException(String error) {
+        super(error);
+    }
+
+}
@@ -0,0 +1,170 @@
+package fileuploader.metrics;
+
+import fileuploader.enums.FileUploadStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Created by luisoliveira on 11/21/17.
+ */
+public class UploadMetrics {
+
+    public static final String SESSION_OPEN_STAGE = "session_open";
+    public static final String TEMP_WRITE_STAGE = "temp_write";
+    public static final String PENDING_INSERT_STAGE = "pending_insert";
+    public static final String FINALIZATION_QUEUE_STAGE = "finalization_queue";
+    public static final String CONTENT_HASH_STAGE = "content_hash";
+    public static final String CONTENT_PUT_STAGE = "content_put";
+    public static final String METADATA_UPSERT_STAGE = "metadata_upsert";
+
+    public static final String LOOKUP_STAGE = "lookup";
+    public static final String CONTENT_OPEN_STAGE = "content_open";
+
+    private static final String UPLOAD_STAGE_TIMER = "upload.stage";
+    private static final String UPLOAD_TIMER = "upload.requests";
+    private static final String DOWNLOAD_STAGE_TIMER = "download.stage";
+    private static final String STAGE_TAG = "stage";
+    private static final String OUTCOME_TAG = "outcome";
+    private static final String LIMIT_TAG = "limit";
+    private static final String RESULT_TAG = "result";
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Counter bytesIn;
+    private final Counter bytesOut;
+    private final Counter abandoned;
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+    private final Counter cacheEvictions;
+    private final Counter cacheEvictedBytes;
+
+    /**
+     * @param inFlightUploads number of uploads with chunks still to come
+     * @param tmpBytes        bytes counted against the temp space budget by the uploads with chunks still to come
+     */
+    public UploadMetrics(MeterRegistry registry, Supplier<Number> inFlightUploads, Supplier<Number> tmpBytes) {
+        this.registry = registry;
+        this.bytesIn = Counter.builder("upload.bytes.in")
+                .description("Bytes received in upload chunks")
+                .baseUnit("bytes")
+                .register(registry);
+        this.bytesOut = Counter.builder("download.bytes.out")
+                .description("Bytes served by downloads")
+                .baseUnit("bytes")
+                .register(registry);
+        this.abandoned = Counter.builder("upload.abandoned")
+                .description("Uploads expired by the janitor after going idle")
+                .register(registry);
+        this.cacheHits = Counter.builder("download.cache.requests")
+                .description("Content reads served by the download cache")
+                .tag(RESULT_TAG, "hit")
+                .register(registry);
+        this.cacheMisses = Counter.builder("download.cache.requests")
+                .description("Content reads served by the download cache")
+                .tag(RESULT_TAG, "miss")
+                .register(registry);
+        this.cacheEvictions = Counter.builder("download.cache.evictions")
+                .description("Entries evicted from the download cache to stay within its size")
+                .register(registry);
+        this.cacheEvictedBytes = Counter.builder("download.cache.evicted.bytes")
+                .description("Bytes evicted from the download cache to stay within its size")
+                .baseUnit("bytes")
+                .register(registry);
+
+        Gauge.builder("download.cache.hit.ratio", this, UploadMetrics::cacheHitRatio)
+                .description("Share of content reads served by the download cache")
+                .register(registry);
+
+        Gauge.builder("upload.in.flight", inFlightUploads, supplier -> supplier.get().doubleValue())
+                .description("Uploads with chunks still to come")
+                .register(registry);
+        Gauge.builder("upload.tmp.bytes", tmpBytes, supplier -> supplier.get().doubleValue())
+                .description("Bytes counted against the temp space budget by in-flight uploads")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    public void recordUploadStage(String stage, long startNanos) {
+        timer(UPLOAD_STAGE_TIMER, STAGE_TAG, stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordDownloadStage(String stage, long startNanos) {
+        timer(DOWNLOAD_STAGE_TIMER, STAGE_TAG, stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param outcome the status the upload request ended with
+     */
+    public void recordUpload(FileUploadStatus outcome, long startNanos) {
+        timer(UPLOAD_TIMER, OUTCOME_TAG, outcome.name().toLowerCase()).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void bytesReceived(long bytes) {
+        bytesIn.increment(bytes);
+    }
+
+    public void bytesSent(long bytes) {
+        bytesOut.increment(bytes);
+    }
+
+    public void uploadsAbandoned(int uploads) {
+        abandoned.increment(uploads);
+    }
+
+    /**
+     * @param limit the admission limit the upload request was turned away by
+     */
+    public void uploadRejected(String limit) {
+        Counter.builder("upload.rejected")
+                .description("Upload requests rejected by admission control")
+                .tag(LIMIT_TAG, limit)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * @param cachedBytes bytes held by the download cache
+     */
+    public void registerCache(Supplier<Number> cachedBytes) {
+        Gauge.builder("download.cache.size", cachedBytes, supplier -> supplier.get().doubleValue())
+                .description("Bytes held by the download cache")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    public void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    public void cacheEvicted(long bytes) {
+        cacheEvictions.increment();
+        cacheEvictedBytes.increment(bytes);
+    }
+
+    private double cacheHitRatio() {
+        double requests = cacheHits.count() + cacheMisses.count();
+        return requests == 0 ? 0 : cacheHits.count() / requests;
+    }
+
+    private Timer timer(String name, String tag, String value) {
+        return timers.computeIfAbsent(name + ":" + value, key -> Timer.builder(name)
+                .tag(tag, value)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(1))
+                .register(registry));
+    }
+
+}
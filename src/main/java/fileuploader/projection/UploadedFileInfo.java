@@ -1,5 +1,6 @@
 package fileuploader.projection;
 
+import fileuploader.enums.ContentCodec;
 import fileuploader.enums.FileUploadStatus;
 
 import java.time.Instant;
@@ -13,5 +14,11 @@ public interface UploadedFileInfo {
     Instant getCreatedAt();
     Instant getLastModifiedAt();
     Integer getChunks();
+    Long getSize();
+    String getStorageKey();
+    String getContentHash();
+    ContentCodec getCodec();
+    Long getStoredSize();
+    Boolean getCompressible();
 
 }
@@ -0,0 +1,60 @@
+package fileuploader.repositories;
+
+import fileuploader.domain.StoredContent;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Created by luisoliveira on 11/22/17.
+ */
+@Repository
+public interface StoredContentRepository extends CrudRepository<StoredContent, String> {
+
+    /**
+     * @return {@code 0} when no content with that hash is stored
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE " + StoredContent.TABLE_NAME + " SET reference_count = reference_count + 1 " +
+            "WHERE content_hash = :contentHash",
+            nativeQuery = true)
+    int incrementReferences(@Param("contentHash") String contentHash);
+
+    /**
+     * Records newly stored content with its first reference. A no-op when the same content was recorded meanwhile.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO " + StoredContent.TABLE_NAME + " " +
+            "(content_hash, storage_key, size, codec, stored_size, compressible, reference_count) " +
+            "SELECT :contentHash, :storageKey, :size, :codec, :storedSize, :compressible, 1 FROM DUAL " +
+            "WHERE NOT EXISTS (SELECT 1 FROM " + StoredContent.TABLE_NAME + " WHERE content_hash = :contentHash)",
+            nativeQuery = true)
+    int insertIfAbsent(@Param("contentHash") String contentHash, @Param("storageKey") String storageKey,
+                       @Param("size") Long size, @Param("codec") String codec, @Param("storedSize") Long storedSize,
+                       @Param("compressible") Boolean compressible);
+
+    /**
+     * @return {@code 0} when the content has no reference count, i.e. it is not shared
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE " + StoredContent.TABLE_NAME + " SET reference_count = reference_count - 1 " +
+            "WHERE storage_key = :storageKey",
+            nativeQuery = true)
+    int decrementReferences(@Param("storageKey") String storageKey);
+
+    /**
+     * Forgets the content once nothing points to it anymore. A no-op when it was referenced again meanwhile.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM " + StoredContent.TABLE_NAME + " WHERE storage_key = :storageKey AND reference_count <= 0",
+            nativeQuery = true)
+    int deleteIfUnreferenced(@Param("storageKey") String storageKey);
+
+}
@@ -3,41 +3,125 @@ package fileuploader.repositories;
 import fileuploader.domain.UploadedFile;
 import fileuploader.enums.FileUploadStatus;
 import fileuploader.projection.UploadedFileInfo;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 
 /**
  * Created by luisoliveira on 11/12/17.
  */
 @Repository
-public interface UploadedFileRepository extends CrudRepository<UploadedFile, Long> {
+public interface UploadedFileRepository extends CrudRepository<UploadedFile, Long>, UploadedFileRepositoryCustom {
 
-    List<UploadedFileInfo> findAllByOrderByUserIdAscFilenameAsc();
+    String EXISTING_CREATED_AT = "COALESCE((SELECT created_at FROM " + UploadedFile.TABLE_NAME + " " +
+            "WHERE user_id = :userId AND filename = :filename), :createdAt)";
 
-    @Query("SELECT CASE WHEN COUNT(uf) > 0 THEN true ELSE false END FROM UploadedFile uf " +
-            "WHERE uf.userId = :userId AND uf.filename = :filename")
-    boolean existsByUserIdAndFilename(@Param("userId") String userId, @Param("filename") String filename);
+    UploadedFileInfo findInfoById(Long id);
 
+    List<UploadedFileInfo> findInfoByIdIn(Collection<Long> ids);
+
+    List<UploadedFileInfo> findByStatusInAndCreatedAtBeforeOrderByCreatedAtAsc(Collection<FileUploadStatus> statuses,
+                                                                               Instant createdAt, Pageable pageable);
+
+    List<UploadedFileInfo> findByUserIdAndFilenameIn(String userId, Collection<String> filenames);
+
+    @Query("SELECT uf.storageKey FROM UploadedFile uf WHERE uf.userId = :userId AND uf.filename = :filename")
+    String findStorageKeyByUserIdAndFilename(@Param("userId") String userId, @Param("filename") String filename);
+
+    /**
+     * Records the first chunk of an upload. A no-op when the file is already known, so an upload in progress never
+     * hides the previous outcome of the same file.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO " + UploadedFile.TABLE_NAME + " (user_id, filename, status, created_at, last_modified_at) " +
+            "SELECT :userId, :filename, 'PENDING', :createdAt, :lastModifiedAt FROM DUAL " +
+            "WHERE NOT EXISTS (SELECT 1 FROM " + UploadedFile.TABLE_NAME + " WHERE user_id = :userId AND filename = :filename)",
+            nativeQuery = true)
+    int insertPendingIfAbsent(@Param("userId") String userId, @Param("filename") String filename,
+                              @Param("createdAt") Timestamp createdAt,
+                              @Param("lastModifiedAt") Timestamp lastModifiedAt);
+
+    /**
+     * Inserts or updates the file as completed, keeping the id and creation time of an existing row.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "MERGE INTO " + UploadedFile.TABLE_NAME + " " +
+            "(user_id, filename, status, created_at, last_modified_at, chunks, size, storage_key, content_hash, " +
+            "codec, stored_size, compressible, root_cause) " +
+            "KEY (user_id, filename) " +
+            "SELECT :userId, :filename, 'COMPLETED', " + EXISTING_CREATED_AT + ", :lastModifiedAt, :chunks, :size, " +
+            ":storageKey, :contentHash, :codec, :storedSize, :compressible, NULL FROM DUAL",
+            nativeQuery = true)
+    int upsertCompleted(@Param("userId") String userId, @Param("filename") String filename,
+                        @Param("createdAt") Timestamp createdAt, @Param("lastModifiedAt") Timestamp lastModifiedAt,
+                        @Param("chunks") Integer chunks, @Param("size") Long size, @Param("storageKey") String storageKey,
+                        @Param("contentHash") String contentHash, @Param("codec") String codec,
+                        @Param("storedSize") Long storedSize, @Param("compressible") Boolean compressible);
+
+    /**
+     * Inserts or updates the file as received and waiting to be finalized, keeping the id and creation time of an
+     * existing row.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "MERGE INTO " + UploadedFile.TABLE_NAME + " " +
+            "(user_id, filename, status, created_at, last_modified_at, chunks) " +
+            "KEY (user_id, filename) " +
+            "SELECT :userId, :filename, 'FINALIZING', " + EXISTING_CREATED_AT + ", :lastModifiedAt, :chunks FROM DUAL",
+            nativeQuery = true)
+    int upsertFinalizing(@Param("userId") String userId, @Param("filename") String filename,
+                         @Param("createdAt") Timestamp createdAt, @Param("lastModifiedAt") Timestamp lastModifiedAt,
+                         @Param("chunks") Integer chunks);
+
+    /**
+     * Inserts or updates the file as failed, keeping the id, creation time and content of an existing row.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "MERGE INTO " + UploadedFile.TABLE_NAME + " " +
+            "(user_id, filename, status, created_at, last_modified_at, chunks, root_cause) " +
+            "KEY (user_id, filename) " +
+            "SELECT :userId, :filename, 'FAILED', " + EXISTING_CREATED_AT + ", :lastModifiedAt, :chunks, :rootCause " +
+            "FROM DUAL",
+            nativeQuery = true)
+    int upsertFailed(@Param("userId") String userId, @Param("filename") String filename,
+                     @Param("createdAt") Timestamp createdAt, @Param("lastModifiedAt") Timestamp lastModifiedAt,
+                     @Param("chunks") Integer chunks, @Param("rootCause") String rootCause);
+
+    /**
+     * Marks an upload that never completed as failed. A no-op once the file is completed or failed, so an abandoned
+     * upload never hides the previous outcome of the same file.
+     */
     @Modifying
-    @Query("UPDATE UploadedFile uf " +
-            "SET uf.lastModifiedAt = :lastModifiedAt, uf.status = :status, uf.chunks = :chunks, uf.content = :content " +
-            "WHERE uf.userId = :userId AND uf.filename = :filename")
-    void updateByUserIdAndFilename(@Param("userId") String userId, @Param("filename") String filename,
-                                   @Param("lastModifiedAt") Instant lastModifiedAt, @Param("status") FileUploadStatus status,
-                                   @Param("chunks") Integer chunks, @Param("content") byte[] content);
+    @Transactional
+    @Query(value = "UPDATE " + UploadedFile.TABLE_NAME + " " +
+            "SET status = 'FAILED', last_modified_at = :lastModifiedAt, root_cause = :rootCause " +
+            "WHERE user_id = :userId AND filename = :filename AND status = 'PENDING'",
+            nativeQuery = true)
+    int failPending(@Param("userId") String userId, @Param("filename") String filename,
+                    @Param("lastModifiedAt") Timestamp lastModifiedAt, @Param("rootCause") String rootCause);
 
+    /**
+     * Like {@link #failPending}, but also fails an upload whose finalization was interrupted.
+     */
     @Modifying
-    @Query("UPDATE UploadedFile uf " +
-            "SET uf.lastModifiedAt = :lastModifiedAt, uf.status = :status, uf.chunks = :chunks, uf.rootCause = :rootCause " +
-            "WHERE uf.userId = :userId AND uf.filename = :filename")
-    void updateByUserIdAndFilename(@Param("userId") String userId, @Param("filename") String filename,
-                                   @Param("lastModifiedAt") Instant lastModifiedAt, @Param("status") FileUploadStatus status,
-                                   @Param("chunks") Integer chunks, @Param("rootCause") String rootCause);
+    @Transactional
+    @Query(value = "UPDATE " + UploadedFile.TABLE_NAME + " " +
+            "SET status = 'FAILED', last_modified_at = :lastModifiedAt, root_cause = :rootCause " +
+            "WHERE user_id = :userId AND filename = :filename AND status IN ('PENDING', 'FINALIZING')",
+            nativeQuery = true)
+    int failUnfinished(@Param("userId") String userId, @Param("filename") String filename,
+                       @Param("lastModifiedAt") Timestamp lastModifiedAt, @Param("rootCause") String rootCause);
 
 }
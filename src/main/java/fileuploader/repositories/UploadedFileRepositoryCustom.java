@@ -0,0 +1,36 @@
+package fileuploader.repositories;
+
+import fileuploader.domain.UploadedFile;
+import fileuploader.domain.UploadedFileCursor;
+import fileuploader.enums.FileUploadStatus;
+import fileuploader.projection.UploadedFileInfo;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Created by luisoliveira on 11/19/17.
+ */
+public interface UploadedFileRepositoryCustom {
+
+    /**
+     * Streams every file matching the optional filters, ordered by {@code (userId, filename)}, from a forward-only
+     * database cursor. Must be consumed inside a transaction and closed afterwards to release the cursor.
+     */
+    Stream<UploadedFileInfo> streamAll(String userId, FileUploadStatus status);
+
+    /**
+     * Returns up to {@code limit} files ordered by {@code (userId, filename)}, starting right after {@code after}.
+     * Every argument but {@code limit} is optional. The position is applied as a keyset condition rather than an
+     * offset, so each page reads only its own rows from the matching index.
+     */
+    List<UploadedFileInfo> findPage(String userId, FileUploadStatus status, UploadedFileCursor after, int limit);
+
+    /**
+     * Inserts or updates every file as completed in a single JDBC batch, keeping the id and creation time of existing
+     * rows. The files carry the values of {@link UploadedFileRepository#upsertCompleted}, with {@code createdAt}
+     * used for new rows only.
+     */
+    void upsertCompletedAll(List<UploadedFile> uploadedFiles);
+
+}
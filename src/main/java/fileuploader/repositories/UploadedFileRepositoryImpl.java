@@ -0,0 +1,193 @@
+package fileuploader.repositories;
+
+import fileuploader.domain.UploadedFile;
+import fileuploader.domain.UploadedFileCursor;
+import fileuploader.enums.FileUploadStatus;
+import fileuploader.projection.UploadedFileInfo;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.springframework.data.projection.ProjectionFactory;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Created by luisoliveira on 11/19/17.
+ */
+public class UploadedFileRepositoryImpl implements UploadedFileRepositoryCustom {
+
+    private static final int STREAM_FETCH_SIZE = 500;
+    private static final String UPSERT_COMPLETED_SQL = "MERGE INTO " + UploadedFile.TABLE_NAME + " " +
+            "(user_id, filename, status, created_at, last_modified_at, chunks, size, storage_key, content_hash, " +
+            "codec, stored_size, compressible, root_cause) " +
+            "KEY (user_id, filename) " +
+            "SELECT ?, ?, 'COMPLETED', COALESCE((SELECT created_at FROM " + UploadedFile.TABLE_NAME + " " +
+            "WHERE user_id = ? AND filename = ?), ?), ?, ?, ?, ?, ?, ?, ?, ?, NULL FROM DUAL";
+    private static final String[] STREAMED_PROPERTIES = {
+            "id", "userId", "filename", "status", "createdAt", "lastModifiedAt", "chunks", "size", "storageKey",
+            "contentHash", "codec", "storedSize", "compressible"
+    };
+
+    private final ProjectionFactory projectionFactory = new SpelAwareProxyProjectionFactory();
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public Stream<UploadedFileInfo> streamAll(String userId, FileUploadStatus status) {
+        List<String> conditions = filterConditions(userId, status);
+
+        // scalar columns rather than entities, so rows are never attached to the persistence context
+        String jpql = "SELECT " + String.join(", ", prefixed(STREAMED_PROPERTIES)) + " FROM UploadedFile uf" +
+                (conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions)) +
+                " ORDER BY uf.userId ASC, uf.filename ASC";
+
+        Query query = entityManager.createQuery(jpql).unwrap(Query.class);
+        if (userId != null) {
+            query.setParameter("userId", userId);
+        }
+        if (status != null) {
+            query.setParameter("status", status);
+        }
+
+        ScrollableResults results = query.setReadOnly(true)
+                .setFetchSize(STREAM_FETCH_SIZE)
+                .scroll(ScrollMode.FORWARD_ONLY);
+
+        Iterator<UploadedFileInfo> iterator = new Iterator<UploadedFileInfo>() {
+
+            private Boolean hasNext;
+
+            @Override
+            public boolean hasNext() {
+                if (hasNext == null) {
+                    hasNext = results.next();
+                }
+                return hasNext;
+            }
+
+            @Override
+            public UploadedFileInfo next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                hasNext = null;
+                return toProjection(results.get());
+            }
+
+        };
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+                .onClose(results::close);
+    }
+
+    private static List<String> filterConditions(String userId, FileUploadStatus status) {
+        List<String> conditions = new ArrayList<>();
+        if (userId != null) {
+            conditions.add("uf.userId = :userId");
+        }
+        if (status != null) {
+            conditions.add("uf.status = :status");
+        }
+        return conditions;
+    }
+
+    private UploadedFileInfo toProjection(Object[] row) {
+        Map<String, Object> properties = new HashMap<>();
+        for (int i = 0; i < STREAMED_PROPERTIES.length; i++) {
+            properties.put(STREAMED_PROPERTIES[i], row[i]);
+        }
+        return projectionFactory.createProjection(UploadedFileInfo.class, properties);
+    }
+
+    private static List<String> prefixed(String[] properties) {
+        return Arrays.stream(properties)
+                .map(property -> "uf." + property)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<UploadedFileInfo> findPage(String userId, FileUploadStatus status, UploadedFileCursor after, int limit) {
+        List<String> conditions = filterConditions(userId, status);
+        boolean sameUser = after != null && after.getUserId().equals(userId);
+        if (after != null) {
+            if (sameUser) {
+                conditions.add("uf.filename > :afterFilename");
+            } else {
+                // the leading bound is what lets the database start an index range scan at the cursor
+                conditions.add("uf.userId >= :afterUserId");
+                conditions.add("(uf.userId > :afterUserId OR uf.filename > :afterFilename)");
+            }
+        }
+
+        String jpql = "SELECT uf FROM UploadedFile uf" +
+                (conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions)) +
+                " ORDER BY uf.userId ASC, uf.filename ASC";
+
+        TypedQuery<UploadedFile> query = entityManager.createQuery(jpql, UploadedFile.class);
+        if (userId != null) {
+            query.setParameter("userId", userId);
+        }
+        if (status != null) {
+            query.setParameter("status", status);
+        }
+        if (after != null) {
+            if (!sameUser) {
+                query.setParameter("afterUserId", after.getUserId());
+            }
+            query.setParameter("afterFilename", after.getFilename());
+        }
+
+        return query.setMaxResults(limit)
+                .getResultList()
+                .stream()
+                .map(uploadedFile -> projectionFactory.createProjection(UploadedFileInfo.class, uploadedFile))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    @Transactional
+    public void upsertCompletedAll(List<UploadedFile> uploadedFiles) {
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(UPSERT_COMPLETED_SQL)) {
+                for (UploadedFile uploadedFile : uploadedFiles) {
+                    statement.setString(1, uploadedFile.getUserId());
+                    statement.setString(2, uploadedFile.getFilename());
+                    statement.setString(3, uploadedFile.getUserId());
+                    statement.setString(4, uploadedFile.getFilename());
+                    statement.setTimestamp(5, Timestamp.from(uploadedFile.getCreatedAt()));
+                    statement.setTimestamp(6, Timestamp.from(uploadedFile.getLastModifiedAt()));
+                    statement.setInt(7, uploadedFile.getChunks());
+                    statement.setLong(8, uploadedFile.getSize());
+                    statement.setString(9, uploadedFile.getStorageKey());
+                    statement.setString(10, uploadedFile.getContentHash());
+                    statement.setString(11, uploadedFile.getCodec().name());
+                    statement.setLong(12, uploadedFile.getStoredSize());
+                    statement.setObject(13, uploadedFile.getCompressible());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        });
+    }
+
+}
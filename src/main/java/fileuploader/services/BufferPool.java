@@ -0,0 +1,58 @@
+package fileuploader.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.Integer.valueOf;
+
+/**
+ * Bounded pool of direct buffers that uploads are streamed through on their way to a temp file. A direct buffer is
+ * written to a file channel without the copy the JDK makes of a heap one, and pooling them keeps that memory bounded
+ * by the pool rather than by the number of request threads.
+ *
+ * Created by luisoliveira on 11/24/17.
+ */
+@Slf4j
+@Component
+public class BufferPool {
+
+    @Value("${upload.buffer.size.bytes}")
+    private String bufferSize;
+    @Value("${upload.buffer.pool.size}")
+    private String poolSize;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> available = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    /**
+     * Returns a cleared buffer, to be handed back with {@link #release(ByteBuffer)}. Direct buffers are allocated on
+     * demand up to the pool size; beyond it, while every one of them is in use, a heap buffer is returned instead.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = available.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+
+        if (allocated.incrementAndGet() <= valueOf(poolSize)) {
+            return ByteBuffer.allocateDirect(valueOf(bufferSize));
+        }
+        allocated.decrementAndGet();
+
+        log.debug("[BufferPool.acquire] every pooled buffer is in use, allocating a heap buffer");
+        return ByteBuffer.allocate(valueOf(bufferSize));
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.isDirect()) {
+            buffer.clear();
+            available.offer(buffer);
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package fileuploader.services;
+
+import fileuploader.exceptions.StorageException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static java.lang.String.format;
+
+/**
+ * SHA-256 of an upload, computed while its chunks are written. A chunk starting where the digest left off is hashed
+ * as it streams through; anything received out of order is read back from the temp file when the upload completes.
+ *
+ * Created by luisoliveira on 11/22/17.
+ */
+public class ContentDigest {
+
+    private static final String COULD_NOT_HASH_FILE_ERROR = "Could not hash file at %s. Exception: %s";
+    private static final String ALGORITHM = "SHA-256";
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest digest;
+    private long digestedBytes;
+    private boolean claimed;
+
+    public ContentDigest() {
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Lets the caller hash the chunk starting at {@code offset} while writing it, when that chunk is the next one
+     * the digest needs and no other chunk is being hashed.
+     */
+    synchronized boolean claim(long offset) {
+        if (claimed || offset != digestedBytes) {
+            return false;
+        }
+
+        claimed = true;
+        return true;
+    }
+
+    /**
+     * Only called by the thread holding the claim. Hashes the remaining bytes of {@code buffer}, consuming them.
+     */
+    void update(ByteBuffer buffer) {
+        digest.update(buffer);
+    }
+
+    /**
+     * Ends a claim at the end of the bytes hashed, which is short of the end of the chunk when it failed halfway.
+     */
+    synchronized void release(long digestedUpTo) {
+        digestedBytes = digestedUpTo;
+        claimed = false;
+    }
+
+    /**
+     * Hashes whatever was not hashed on the way in and returns the hex encoded digest of the whole file.
+     */
+    public synchronized String finish(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            long position = digestedBytes;
+            while (channel.read(buffer, position) > 0) {
+                buffer.flip();
+                position += buffer.remaining();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            throw new StorageException(format(COULD_NOT_HASH_FILE_ERROR, file, e.getMessage()));
+        }
+
+        return toHex(digest.digest());
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+}
@@ -0,0 +1,73 @@
+package fileuploader.services;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Thread-safe record of the byte ranges received so far for one upload. Overlapping and adjacent ranges are merged,
+ * so a retried chunk is only counted once.
+ *
+ * Created by luisoliveira on 11/12/17.
+ */
+public class ReceivedRanges {
+
+    private final long totalBytes;
+
+    // range start -> range end (exclusive), always disjoint and non-adjacent
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+    private long receivedBytes;
+
+    public ReceivedRanges(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Records {@code [start, end)} as received.
+     *
+     * @return {@code true} only for the call that completes the upload, so exactly one caller finalizes it
+     */
+    public synchronized boolean add(long start, long end) {
+        boolean wasComplete = isComplete();
+
+        long mergedStart = start;
+        long mergedEnd = end;
+
+        Map.Entry<Long, Long> previous = ranges.floorEntry(start);
+        if (previous != null && previous.getValue() >= start) {
+            mergedStart = previous.getKey();
+        }
+
+        Map.Entry<Long, Long> next = ranges.ceilingEntry(mergedStart);
+        while (next != null && next.getKey() <= mergedEnd) {
+            mergedEnd = Math.max(mergedEnd, next.getValue());
+            receivedBytes -= next.getValue() - next.getKey();
+            ranges.remove(next.getKey());
+            next = ranges.ceilingEntry(mergedStart);
+        }
+
+        ranges.put(mergedStart, mergedEnd);
+        receivedBytes += mergedEnd - mergedStart;
+
+        return !wasComplete && isComplete();
+    }
+
+    public synchronized boolean isComplete() {
+        return !ranges.isEmpty() && ranges.firstKey() == 0 && ranges.firstEntry().getValue() >= totalBytes;
+    }
+
+    /**
+     * Bytes received without a gap from the start of the file, which is where a client resuming the upload continues.
+     */
+    public synchronized long getContiguousBytes() {
+        return ranges.isEmpty() || ranges.firstKey() != 0 ? 0 : ranges.firstEntry().getValue();
+    }
+
+    public synchronized long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+}
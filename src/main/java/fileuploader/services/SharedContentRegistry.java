@@ -0,0 +1,136 @@
+package fileuploader.services;
+
+import fileuploader.domain.StoredContent;
+import fileuploader.exceptions.StorageException;
+import fileuploader.repositories.StoredContentRepository;
+import fileuploader.storage.ContentCache;
+import fileuploader.storage.ContentCompressor;
+import fileuploader.storage.ContentStore;
+import fileuploader.storage.EncodedContent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.file.Path;
+
+import static java.lang.String.format;
+
+/**
+ * Stores each distinct content once, keyed by its SHA-256, and counts the uploaded files pointing to it.
+ *
+ * Created by luisoliveira on 11/22/17.
+ */
+@Slf4j
+@Component
+public class SharedContentRegistry {
+
+    private static final String CONTENT_VANISHED_ERROR = "Stored content %s was released while being shared";
+
+    @Autowired
+    private StoredContentRepository repository;
+
+    @Autowired
+    private ContentStore contentStore;
+
+    @Autowired
+    private ContentCompressor compressor;
+
+    @Autowired
+    private ContentCache contentCache;
+
+    /**
+     * Returns the stored content, adding a reference to it. Only content not stored yet is encoded and moved into the
+     * content store; otherwise {@code file} is left for the caller to delete.
+     */
+    public StoredContent acquire(String contentHash, long size, Path file) {
+        if (repository.incrementReferences(contentHash) > 0) {
+            return repository.findOne(contentHash);
+        }
+
+        EncodedContent encoded = compressor.encode(file, size);
+        StoredContent storedContent = StoredContent.builder()
+                .contentHash(contentHash)
+                .storageKey(put(encoded, file))
+                .size(size)
+                .codec(encoded.getCodec())
+                .storedSize(encoded.getSize())
+                .compressible(encoded.isCompressible())
+                .referenceCount(1)
+                .build();
+        if (insertIfAbsent(storedContent)) {
+            return storedContent;
+        }
+
+        // the same content was stored concurrently by another upload: share that copy instead
+        contentStore.delete(storedContent.getStorageKey());
+        if (repository.incrementReferences(contentHash) > 0) {
+            return repository.findOne(contentHash);
+        }
+
+        String err = format(CONTENT_VANISHED_ERROR, contentHash);
+        log.error("[SharedContentRegistry.acquire] " + err);
+        throw new StorageException(err);
+    }
+
+    /**
+     * Drops a reference to the content, deleting it once the last reference is gone.
+     */
+    public void release(String storageKey) {
+        // content without a reference count is not shared, so its only reference is the one being dropped
+        if (repository.decrementReferences(storageKey) == 0 || repository.deleteIfUnreferenced(storageKey) > 0) {
+            deleteContentAfterCommit(storageKey);
+        }
+    }
+
+    /**
+     * Moves the encoded file into the content store, removing an encoded sibling of {@code file} that could not be
+     * stored.
+     */
+    private String put(EncodedContent encoded, Path file) {
+        try {
+            return contentStore.put(encoded.getFile());
+        } catch (RuntimeException e) {
+            if (!encoded.getFile().equals(file)) {
+                encoded.getFile().toFile().delete();
+            }
+            throw e;
+        }
+    }
+
+    private boolean insertIfAbsent(StoredContent storedContent) {
+        try {
+            return repository.insertIfAbsent(storedContent.getContentHash(), storedContent.getStorageKey(),
+                    storedContent.getSize(), storedContent.getCodec().name(), storedContent.getStoredSize(),
+                    storedContent.getCompressible()) > 0;
+        } catch (DataIntegrityViolationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The released content is only removed once the new metadata is committed, so a rollback never leaves a row
+     * pointing at a deleted file.
+     */
+    private void deleteContentAfterCommit(String storageKey) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            deleteContent(storageKey);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                deleteContent(storageKey);
+            }
+        });
+    }
+
+    private void deleteContent(String storageKey) {
+        contentCache.invalidate(storageKey);
+        contentStore.delete(storageKey);
+    }
+
+}
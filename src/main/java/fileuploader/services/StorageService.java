@@ -1,21 +1,100 @@
 package fileuploader.services;
 
+import fileuploader.controller.resources.BatchUploadResultResource;
 import fileuploader.controller.resources.DownloadableFileResource;
+import fileuploader.controller.resources.UploadProgressResource;
+import fileuploader.controller.resources.UploadedFilePageResource;
 import fileuploader.controller.resources.UploadedFileResource;
+import fileuploader.domain.ContentRange;
+import fileuploader.domain.UploadPart;
+import fileuploader.domain.UploadedFileCursor;
+import fileuploader.enums.FileUploadStatus;
+import fileuploader.exceptions.ResourceNotFoundException;
+import fileuploader.exceptions.StorageException;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
 import java.time.Instant;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Created by luisoliveira on 11/11/17.
  */
 public interface StorageService {
 
-    List<UploadedFileResource> findAll();
+    /**
+     * Returns one page of uploaded files ordered by userId and filename, optionally filtered by userId and status.
+     * {@code after} is the cursor returned with the previous page, or {@code null} for the first one.
+     */
+    UploadedFilePageResource findAll(String userId, FileUploadStatus status, UploadedFileCursor after, int limit);
+
+    /**
+     * Hands every uploaded file matching the optional filters to {@code consumer}, one at a time and in listing
+     * order, without holding the whole listing in memory.
+     */
+    void exportAll(String userId, FileUploadStatus status, Consumer<UploadedFileResource> consumer);
 
     DownloadableFileResource findById(Long id);
 
-    void store(String userId, MultipartFile file, Integer totalChunks, boolean lastChunk, Instant uploadedTime);
+    /**
+     * Opens {@code length} bytes of the original content starting at {@code offset}, decoding it when it is stored
+     * compressed.
+     */
+    InputStream openContent(Long id, long offset, long length);
+
+    /**
+     * Opens {@code length} bytes of the content as stored, still encoded with
+     * {@link DownloadableFileResource#getContentEncoding()}, starting at {@code offset}.
+     */
+    InputStream openStoredContent(Long id, long offset, long length);
+
+    /**
+     * Hands the completed files with the given ids, in the given order, or else every completed file of
+     * {@code userId}, to {@code consumer} one at a time, along with an opener of their original content. Every
+     * invocation of the opener starts a new stream that the consumer must close.
+     *
+     * @throws ResourceNotFoundException if one of the ids does not exist, before any file is handed over
+     * @throws StorageException if one of the ids is not completed, before any file is handed over
+     */
+    void exportContent(List<Long> ids, String userId, BiConsumer<DownloadableFileResource, Supplier<InputStream>> consumer);
+
+    /**
+     * Returns how much of an upload in progress has been received, so an interrupted client can resume it.
+     *
+     * @throws ResourceNotFoundException if the upload is not in progress
+     */
+    UploadProgressResource findUploadProgress(String userId, String filename);
+
+    /**
+     * Writes the given chunk at its offset in the upload's temp file. Chunks may arrive in any order, concurrently
+     * or more than once; the upload is finalized as soon as every byte of the declared total has been received.
+     * A chunk that fails halfway keeps the bytes written before the failure, and the upload stays in progress.
+     *
+     * @return {@code PENDING} while chunks are missing, {@code COMPLETED} once the upload is finalized, or
+     * {@code FINALIZING} when finalization was handed to the background executor
+     */
+    FileUploadStatus store(String userId, MultipartFile file, ContentRange contentRange, Integer totalChunks,
+                           Instant uploadedTime);
+
+    /**
+     * Same as {@link #store(String, MultipartFile, ContentRange, Integer, Instant)}, streaming the chunk from
+     * {@code content}, which must hold exactly {@code contentRange.length()} bytes.
+     */
+    FileUploadStatus store(String userId, String filename, InputStream content, ContentRange contentRange,
+                           Integer totalChunks, Instant uploadedTime);
+
+    /**
+     * Stores every part as a whole file of {@code userId}, one part at a time as they are read, and records all of
+     * them in a single batched write once the last part is received. A part that cannot be stored is reported as
+     * failed without affecting the others.
+     *
+     * @return the outcome of each part, in order
+     * @throws StorageException if the parts cannot be read or recorded, in which case none of them is stored
+     */
+    List<BatchUploadResultResource> storeBatch(String userId, Iterator<UploadPart> parts, Instant uploadedTime);
 
 }
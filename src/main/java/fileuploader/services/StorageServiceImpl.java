@@ -1,35 +1,82 @@
 package fileuploader.services;
 
+import fileuploader.configuration.FinalizationConfig;
+import fileuploader.controller.resources.BatchUploadResultResource;
 import fileuploader.controller.resources.DownloadableFileResource;
+import fileuploader.controller.resources.UploadProgressResource;
+import fileuploader.controller.resources.UploadedFilePageResource;
 import fileuploader.controller.resources.UploadedFileResource;
+import fileuploader.domain.ContentRange;
+import fileuploader.domain.StoredContent;
+import fileuploader.domain.UploadPart;
 import fileuploader.domain.UploadedFile;
+import fileuploader.domain.UploadedFileCursor;
+import fileuploader.enums.ContentCodec;
+import fileuploader.enums.FileUploadStatus;
 import fileuploader.exceptions.ResourceNotFoundException;
 import fileuploader.exceptions.StorageException;
+import fileuploader.metrics.UploadMetrics;
 import fileuploader.projection.UploadedFileInfo;
 import fileuploader.repositories.UploadedFileRepository;
+import fileuploader.storage.ContentCache;
+import fileuploader.storage.ContentCompressor;
+import fileuploader.storage.ContentStore;
+import fileuploader.utils.MultipartFileUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static fileuploader.enums.FileUploadStatus.COMPLETED;
 import static fileuploader.enums.FileUploadStatus.FAILED;
+import static fileuploader.enums.FileUploadStatus.FINALIZING;
 import static fileuploader.enums.FileUploadStatus.PENDING;
+import static fileuploader.metrics.UploadMetrics.CONTENT_HASH_STAGE;
+import static fileuploader.metrics.UploadMetrics.CONTENT_OPEN_STAGE;
+import static fileuploader.metrics.UploadMetrics.CONTENT_PUT_STAGE;
+import static fileuploader.metrics.UploadMetrics.FINALIZATION_QUEUE_STAGE;
+import static fileuploader.metrics.UploadMetrics.LOOKUP_STAGE;
+import static fileuploader.metrics.UploadMetrics.METADATA_UPSERT_STAGE;
+import static fileuploader.metrics.UploadMetrics.PENDING_INSERT_STAGE;
+import static fileuploader.metrics.UploadMetrics.SESSION_OPEN_STAGE;
+import static fileuploader.metrics.UploadMetrics.TEMP_WRITE_STAGE;
+import static java.lang.Long.valueOf;
 import static java.lang.String.format;
-import static java.nio.file.Files.readAllBytes;
 
 /**
  * Created by luisoliveira on 11/11/17.
@@ -39,40 +86,100 @@ import static java.nio.file.Files.readAllBytes;
 public class StorageServiceImpl implements StorageService {
 
     private static final String COULD_NOT_CREATE_TMP_DIR_ERROR = "Could not create temporary location at %s. Exception: %s";
+    private static final String COULD_NOT_PREALLOCATE_TMP_FILE_ERROR = "Could not preallocate temporary file at %s. Exception: %s";
+    private static final String TOTAL_SIZE_MISMATCH_ERROR = "Declared file size %s does not match the upload in progress (%s bytes)";
+    private static final String CHUNK_SIZE_MISMATCH_ERROR = "Received content does not match the declared chunk size of %s bytes. " +
+            "Upload offset: %s";
     private static final String COULD_NOT_DELETE_TMP_FILE_ERROR = "Could not delete temporary file at %s. Exception: %s";
     private static final String COULD_NOT_PROCESS_FILE_ERROR = "Could not process given file: userId %s, filename %s. Exception: %s";
+    private static final String COULD_NOT_PROCESS_BATCH_ERROR = "Could not process batch upload: userId %s. Exception: %s";
+    private static final String EMPTY_FILE_ERROR = "Failed to store empty file: %s";
+    private static final String MISSING_FILENAME_ERROR = "Failed to store file part without a filename";
+    private static final String FILE_SIZE_NOT_ALLOWED_ERROR = "File size not allowed. Max file size allowed: %s bytes";
+    private static final String BATCH_SUFFIX = ".batch";
+    private static final int EXPORT_PAGE_SIZE = 100;
+    private static final String FINALIZING_SUFFIX = ".finalizing";
+
     private static final String ERROR_UPLOADED_FILE_NOT_FOUND_MSG = "Resource not found for id: %s";
+    private static final String UPLOAD_NOT_IN_PROGRESS_MSG = "Upload not in progress: userId %s, filename %s";
     private static final String CANNOT_DOWNLOAD_INCOMPLETE_FILE_MSG = "Cannot download an incomplete resource. Resource %s has status %s";
 
     @Value("${upload.tmp.directory}")
     private String tmpDirectory;
+    @Value("${upload.max.file.size.bytes}")
+    private String maxFileSize;
+    @Value("${upload.finalization.async.enabled}")
+    private boolean asyncFinalization;
 
     @Autowired
     private UploadedFileRepository repository;
 
+    @Autowired
+    private ContentStore contentStore;
+
+    @Autowired
+    private ContentCache contentCache;
+
+    @Autowired
+    private UploadSessionRegistry sessionRegistry;
+
+    @Autowired
+    private SharedContentRegistry sharedContent;
+
+    @Autowired
+    private ContentCompressor compressor;
+
+    @Autowired
+    private BufferPool bufferPool;
+
+    @Autowired
+    @Qualifier(FinalizationConfig.FINALIZATION_EXECUTOR)
+    private TaskExecutor finalizationExecutor;
+
+    @Autowired
+    private UploadMetrics metrics;
+
     @Override
-    public List<UploadedFileResource> findAll() {
-        List<UploadedFileInfo> uploadedFiles = repository.findAllByOrderByUserIdAscFilenameAsc();
-        return uploadedFiles.stream()
-                .map(this::apply)
-                .collect(Collectors.toList());
+    public UploadedFilePageResource findAll(String userId, FileUploadStatus status, UploadedFileCursor after, int limit) {
+        // one extra row tells whether there is a next page without a count query
+        List<UploadedFileInfo> uploadedFiles = repository.findPage(userId, status, after, limit + 1);
+
+        String nextCursor = null;
+        if (uploadedFiles.size() > limit) {
+            uploadedFiles = uploadedFiles.subList(0, limit);
+            UploadedFileInfo last = uploadedFiles.get(limit - 1);
+            nextCursor = new UploadedFileCursor(last.getUserId(), last.getFilename()).encode();
+        }
+
+        return UploadedFilePageResource.builder()
+                .files(uploadedFiles.stream()
+                        .map(this::apply)
+                        .collect(Collectors.toList()))
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void exportAll(String userId, FileUploadStatus status, Consumer<UploadedFileResource> consumer) {
+        try (Stream<UploadedFileInfo> uploadedFiles = repository.streamAll(userId, status)) {
+            uploadedFiles.map(this::apply).forEach(consumer);
+        }
     }
 
     private UploadedFileResource apply(UploadedFileInfo uploadedFile) {
         return UploadedFileResource.builder()
                 .id(uploadedFile.getId())
                 .userId(uploadedFile.getUserId())
-                .filename(extractOriginalFilename(uploadedFile.getFilename()))
+                .filename(MultipartFileUtils.extractOriginalFilename(uploadedFile.getFilename()))
                 .status(uploadedFile.getStatus().getDescription())
                 .uploadedTimeInMilliseconds(getUploadedTimeInMilliseconds(uploadedFile))
                 .chunks(uploadedFile.getChunks())
+                .size(uploadedFile.getSize())
+                .lastModifiedAt(uploadedFile.getLastModifiedAt())
                 .build();
     }
 
-    private String extractOriginalFilename(String filename) {
-        return filename.contains("_") ? filename.substring(filename.lastIndexOf("_") + 1) : filename;
-    }
-
     private Long getUploadedTimeInMilliseconds(UploadedFileInfo uploadedFile) {
         if (uploadedFile == null || uploadedFile.getCreatedAt() == null || uploadedFile.getLastModifiedAt() == null) {
             return null;
@@ -83,25 +190,124 @@ public class StorageServiceImpl implements StorageService {
 
     @Override
     public DownloadableFileResource findById(Long id) {
-        UploadedFile uploadedFile = repository.findOne(id);
+        UploadedFileInfo uploadedFile = findInfoById(id);
+        checkResourceNotFound(id, uploadedFile);
+        checkUploadedFileStatus(id, uploadedFile);
+
+        return toDownloadableFileResource(uploadedFile);
+    }
+
+    @Override
+    public InputStream openContent(Long id, long offset, long length) {
+        UploadedFileInfo uploadedFile = findInfoById(id);
+        checkResourceNotFound(id, uploadedFile);
+        checkUploadedFileStatus(id, uploadedFile);
+
+        return openContent(uploadedFile, offset, length);
+    }
+
+    @Override
+    public InputStream openStoredContent(Long id, long offset, long length) {
+        UploadedFileInfo uploadedFile = findInfoById(id);
         checkResourceNotFound(id, uploadedFile);
         checkUploadedFileStatus(id, uploadedFile);
 
+        long started = System.nanoTime();
+        InputStream content = contentCache.get(uploadedFile.getStorageKey(), offset, length);
+        metrics.recordDownloadStage(CONTENT_OPEN_STAGE, started);
+        return content;
+    }
+
+    @Override
+    public void exportContent(List<Long> ids, String userId,
+                              BiConsumer<DownloadableFileResource, Supplier<InputStream>> consumer) {
+        if (ids != null) {
+            // every file is checked before the first one is handed over, so a bad id fails the whole request up front
+            findInfoByIds(ids).forEach(uploadedFile -> exportContent(uploadedFile, consumer));
+            return;
+        }
+
+        // one page at a time, so neither the listing nor a database cursor is held while the content is streamed
+        UploadedFileCursor after = null;
+        List<UploadedFileInfo> uploadedFiles;
+        do {
+            long started = System.nanoTime();
+            uploadedFiles = repository.findPage(userId, COMPLETED, after, EXPORT_PAGE_SIZE);
+            metrics.recordDownloadStage(LOOKUP_STAGE, started);
+
+            uploadedFiles.forEach(uploadedFile -> exportContent(uploadedFile, consumer));
+            if (!uploadedFiles.isEmpty()) {
+                UploadedFileInfo last = uploadedFiles.get(uploadedFiles.size() - 1);
+                after = new UploadedFileCursor(last.getUserId(), last.getFilename());
+            }
+        } while (uploadedFiles.size() == EXPORT_PAGE_SIZE);
+    }
+
+    private List<UploadedFileInfo> findInfoByIds(List<Long> ids) {
+        long started = System.nanoTime();
+        Map<Long, UploadedFileInfo> uploadedFiles = repository.findInfoByIdIn(ids).stream()
+                .collect(Collectors.toMap(UploadedFileInfo::getId, Function.identity()));
+        metrics.recordDownloadStage(LOOKUP_STAGE, started);
+
+        return ids.stream()
+                .distinct()
+                .map(id -> {
+                    UploadedFileInfo uploadedFile = uploadedFiles.get(id);
+                    checkResourceNotFound(id, uploadedFile);
+                    checkUploadedFileStatus(id, uploadedFile);
+                    return uploadedFile;
+                })
+                .collect(Collectors.toList());
+    }
+
+    private void exportContent(UploadedFileInfo uploadedFile,
+                               BiConsumer<DownloadableFileResource, Supplier<InputStream>> consumer) {
+        DownloadableFileResource downloadableFileResource = toDownloadableFileResource(uploadedFile);
+        // decided when the content was stored; content recorded without the decision is deflated to be safe
+        downloadableFileResource.setIncompressible(Boolean.FALSE.equals(uploadedFile.getCompressible()));
+
+        consumer.accept(downloadableFileResource, () -> openContent(uploadedFile, 0, uploadedFile.getSize()));
+    }
+
+    private DownloadableFileResource toDownloadableFileResource(UploadedFileInfo uploadedFile) {
         return DownloadableFileResource.builder()
-                .filename(extractOriginalFilename(uploadedFile.getFilename()))
-                .inputStream(new ByteArrayInputStream(uploadedFile.getContent()))
+                .filename(MultipartFileUtils.extractOriginalFilename(uploadedFile.getFilename()))
+                .size(uploadedFile.getSize())
+                .lastModifiedAt(uploadedFile.getLastModifiedAt())
+                .contentHash(uploadedFile.getContentHash())
+                .contentPath(contentStore.getLocalPath(uploadedFile.getStorageKey()))
+                .contentEncoding(ContentCodec.isEncoded(uploadedFile.getCodec())
+                        ? uploadedFile.getCodec().getContentEncoding() : null)
+                .storedSize(uploadedFile.getStoredSize())
                 .build();
     }
 
-    private void checkResourceNotFound(Long id, UploadedFile uploadedFile) {
-        if (uploadedFile == null) {
+    private InputStream openContent(UploadedFileInfo uploadedFile, long offset, long length) {
+        long started = System.nanoTime();
+        InputStream content = ContentCodec.isEncoded(uploadedFile.getCodec())
+                ? compressor.decode(contentCache.get(uploadedFile.getStorageKey(), 0, uploadedFile.getStoredSize()),
+                        uploadedFile.getCodec(), offset, length)
+                : contentCache.get(uploadedFile.getStorageKey(), offset, length);
+        metrics.recordDownloadStage(CONTENT_OPEN_STAGE, started);
+        return content;
+    }
+
+    private UploadedFileInfo findInfoById(Long id) {
+        long started = System.nanoTime();
+        UploadedFileInfo uploadedFile = repository.findInfoById(id);
+        metrics.recordDownloadStage(LOOKUP_STAGE, started);
+        return uploadedFile;
+    }
+
+    private void checkResourceNotFound(Long id, Object resource) {
+        if (resource == null) {
             String err = format(ERROR_UPLOADED_FILE_NOT_FOUND_MSG, id);
             log.error("[StorageServiceImpl.findById] " + err);
             throw new ResourceNotFoundException(err);
         }
     }
 
-    private void checkUploadedFileStatus(Long id, UploadedFile uploadedFile) {
+    private void checkUploadedFileStatus(Long id, UploadedFileInfo uploadedFile) {
         if (!COMPLETED.equals(uploadedFile.getStatus())) {
             String err = format(CANNOT_DOWNLOAD_INCOMPLETE_FILE_MSG, id, uploadedFile.getStatus());
             log.error("[StorageServiceImpl.findById] " + err);
@@ -109,38 +315,394 @@ public class StorageServiceImpl implements StorageService {
         }
     }
 
-    @Transactional(noRollbackFor = StorageException.class)
     @Override
-    public void store(String userId, MultipartFile file, Integer totalChunks, boolean lastChunk, Instant
-            uploadedTime) {
-        String filename = StringUtils.cleanPath(file.getOriginalFilename());
+    public UploadProgressResource findUploadProgress(String userId, String filename) {
+        UploadSession session = sessionRegistry.get(userId, StringUtils.cleanPath(filename));
+        if (session == null) {
+            String err = format(UPLOAD_NOT_IN_PROGRESS_MSG, userId, filename);
+            log.error("[StorageServiceImpl.findUploadProgress] " + err);
+            throw new ResourceNotFoundException(err);
+        }
 
-        Path tempFile = getTempFile(userId, filename);
+        ReceivedRanges ranges = session.getReceivedRanges();
+        return UploadProgressResource.builder()
+                .offset(ranges.getContiguousBytes())
+                .receivedBytes(ranges.getReceivedBytes())
+                .totalBytes(ranges.getTotalBytes())
+                .build();
+    }
+
+    @Override
+    public FileUploadStatus store(String userId, MultipartFile file, ContentRange contentRange, Integer totalChunks,
+                                  Instant uploadedTime) {
+        try (InputStream content = file.getInputStream()) {
+            return store(userId, file.getOriginalFilename(), content, contentRange, totalChunks, uploadedTime);
+        } catch (IOException e) {
+            String err = format(COULD_NOT_PROCESS_FILE_ERROR, userId, file.getOriginalFilename(), e.getMessage());
+            log.error("[StorageServiceImpl.store] " + err);
+            throw new StorageException(err);
+        }
+    }
+
+    @Override
+    public FileUploadStatus store(String userId, String originalFilename, InputStream content, ContentRange contentRange,
+                                  Integer totalChunks, Instant uploadedTime) {
+        long started = System.nanoTime();
+        FileUploadStatus status = FAILED;
+        try {
+            status = storeChunk(userId, originalFilename, content, contentRange, totalChunks, uploadedTime);
+            return status;
+        } finally {
+            metrics.recordUpload(status, started);
+        }
+    }
+
+    @Override
+    public List<BatchUploadResultResource> storeBatch(String userId, Iterator<UploadPart> parts, Instant uploadedTime) {
+        List<BatchUploadResultResource> results = new ArrayList<>();
+        // the last part received for each filename, whose content is already acquired
+        Map<String, UploadedFile> received = new LinkedHashMap<>();
+        try {
+            while (parts.hasNext()) {
+                results.add(storeBatchPart(userId, parts.next(), uploadedTime, received));
+            }
+            saveBatch(userId, received);
+            return results;
+        } catch (Exception e) {
+            String err = format(COULD_NOT_PROCESS_BATCH_ERROR, userId, e.getMessage());
+            log.error("[StorageServiceImpl.storeBatch] " + err);
+
+            received.values().forEach(uploadedFile -> sharedContent.release(uploadedFile.getStorageKey()));
+            throw new StorageException(err);
+        }
+    }
+
+    /**
+     * Streams one part to a temp file and into the content store. Only a failure to read the request aborts the
+     * batch; anything wrong with the part itself is reported in its result.
+     */
+    private BatchUploadResultResource storeBatchPart(String userId, UploadPart part, Instant uploadedTime,
+                                                     Map<String, UploadedFile> received) throws IOException {
+        long started = System.nanoTime();
+        String filename = part.getFilename() == null ? "" : StringUtils.cleanPath(part.getFilename());
+        Path tempFile = null;
         try {
-            boolean exists = repository.existsByUserIdAndFilename(userId, filename);
+            if (!StringUtils.hasText(filename)) {
+                throw new StorageException(MISSING_FILENAME_ERROR);
+            }
+            MultipartFileUtils.validateFilename(filename);
+            tempFile = Files.createTempFile(getTmpDirectory(), userId + "_", BATCH_SUFFIX);
+
+            long stageStarted = System.nanoTime();
+            ContentDigest digest = new ContentDigest();
+            long size = receivePart(part.getContent(), tempFile, digest);
+            metrics.recordUploadStage(TEMP_WRITE_STAGE, stageStarted);
+            metrics.bytesReceived(size);
+
+            stageStarted = System.nanoTime();
+            String contentHash = digest.finish(tempFile);
+            metrics.recordUploadStage(CONTENT_HASH_STAGE, stageStarted);
 
-            Files.write(tempFile, file.getBytes(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-            if (lastChunk) {
-                saveOrUpdateCompletedUploadedFile(exists, userId, totalChunks, uploadedTime, filename, tempFile);
+            stageStarted = System.nanoTime();
+            StoredContent storedContent = sharedContent.acquire(contentHash, size, tempFile);
+            metrics.recordUploadStage(CONTENT_PUT_STAGE, stageStarted);
+
+            UploadedFile replaced = received.put(filename, UploadedFile.builder()
+                    .userId(userId)
+                    .filename(filename)
+                    .status(COMPLETED)
+                    .createdAt(uploadedTime)
+                    .chunks(1)
+                    .size(size)
+                    .storageKey(storedContent.getStorageKey())
+                    .contentHash(contentHash)
+                    .codec(storedContent.getCodec())
+                    .storedSize(storedContent.getStoredSize())
+                    .compressible(storedContent.getCompressible())
+                    .build());
+            if (replaced != null) {
+                sharedContent.release(replaced.getStorageKey());
+            }
+
+            metrics.recordUpload(COMPLETED, started);
+            return BatchUploadResultResource.builder()
+                    .filename(filename)
+                    .status(COMPLETED.getDescription())
+                    .size(size)
+                    .build();
+        } catch (StorageException e) {
+            log.error("[StorageServiceImpl.storeBatchPart] " + format(COULD_NOT_PROCESS_FILE_ERROR, userId, filename,
+                    e.getMessage()));
+
+            metrics.recordUpload(FAILED, started);
+            return BatchUploadResultResource.builder()
+                    .filename(filename)
+                    .status(FAILED.getDescription())
+                    .error(e.getMessage())
+                    .build();
+        } finally {
+            if (tempFile != null) {
                 deleteTmpFileIfExists(tempFile);
-            } else {
-                savePendingUploadedFile(exists, userId, uploadedTime, filename);
             }
+        }
+    }
+
+    /**
+     * Streams a part of unknown size to {@code tempFile}, hashing it on the way.
+     *
+     * @return the size of the part
+     * @throws StorageException if the part is empty or larger than the max file size
+     */
+    private long receivePart(InputStream content, Path tempFile, ContentDigest digest) throws IOException {
+        ByteBuffer buffer = bufferPool.acquire();
+        long size = 0;
+        digest.claim(0);
+
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            ReadableByteChannel source = Channels.newChannel(content);
+            int read;
+            while ((read = source.read(buffer)) >= 0) {
+                size += read;
+                if (size > valueOf(maxFileSize)) {
+                    throw new StorageException(format(FILE_SIZE_NOT_ALLOWED_ERROR, maxFileSize));
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.rewind();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            digest.release(size);
+            bufferPool.release(buffer);
+        }
+
+        if (size == 0) {
+            throw new StorageException(format(EMPTY_FILE_ERROR, tempFile.getFileName()));
+        }
+        return size;
+    }
+
+    /**
+     * Records every file received in one batched write, then drops the content the files used to point to.
+     */
+    private void saveBatch(String userId, Map<String, UploadedFile> received) {
+        if (received.isEmpty()) {
+            return;
+        }
+
+        long stageStarted = System.nanoTime();
+        List<String> previousStorageKeys = repository.findByUserIdAndFilenameIn(userId, received.keySet()).stream()
+                .map(UploadedFileInfo::getStorageKey)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+
+        Instant now = Instant.now();
+        received.values().forEach(uploadedFile -> uploadedFile.setLastModifiedAt(now));
+        repository.upsertCompletedAll(new ArrayList<>(received.values()));
+        metrics.recordUploadStage(METADATA_UPSERT_STAGE, stageStarted);
+        received.clear();
+
+        previousStorageKeys.forEach(sharedContent::release);
+    }
+
+    private FileUploadStatus storeChunk(String userId, String originalFilename, InputStream content,
+                                        ContentRange contentRange, Integer totalChunks, Instant uploadedTime) {
+        String filename = StringUtils.cleanPath(originalFilename);
+
+        Path tempFile = getTempFile(userId, filename);
+        Path assembledFile = tempFile;
+        boolean resumable = false;
+        try {
+            long stageStarted = System.nanoTime();
+            AtomicBoolean started = new AtomicBoolean();
+            UploadSession session = sessionRegistry.open(userId, filename, contentRange.getTotal(), () -> {
+                started.set(true);
+                return startUpload(userId, filename, tempFile, contentRange.getTotal());
+            });
+            metrics.recordUploadStage(SESSION_OPEN_STAGE, stageStarted);
+            // from here on a failed chunk leaves the session and its temp file as they are, so the client can resume
+            resumable = true;
+            ReceivedRanges ranges = session.getReceivedRanges();
+            checkDeclaredTotal(ranges, contentRange);
+
+            stageStarted = System.nanoTime();
+            ContentDigest digest = session.getContentDigest();
+            long writtenUpTo = writeChunk(tempFile, content, contentRange, digest);
+            metrics.recordUploadStage(TEMP_WRITE_STAGE, stageStarted);
+            metrics.bytesReceived(writtenUpTo - contentRange.getStart());
+            // a body longer than its Content-Range is rejected before its range is recorded, even when it would
+            // complete the file
+            boolean overrun = writtenUpTo == contentRange.getEnd() && content.read() >= 0;
+            if (!overrun && writtenUpTo > contentRange.getStart() && ranges.add(contentRange.getStart(), writtenUpTo)) {
+                resumable = false;
+                sessionRegistry.remove(userId, filename);
+                // frees the temp file name at once, so a new upload of the same file cannot interfere
+                assembledFile = moveAside(tempFile);
+                sessionRegistry.startFinalization(userId, filename, assembledFile);
+                if (asyncFinalization) {
+                    if (submitFinalization(userId, totalChunks, uploadedTime, filename, assembledFile, digest)) {
+                        return FINALIZING;
+                    }
+                }
+                completeUpload(userId, totalChunks, uploadedTime, filename, assembledFile, digest);
+                sessionRegistry.endFinalization(assembledFile);
+                return COMPLETED;
+            }
+
+            if (started.get()) {
+                // the database only hears about an upload when it starts and when it is finalized
+                stageStarted = System.nanoTime();
+                repository.insertPendingIfAbsent(userId, filename, Timestamp.from(uploadedTime),
+                        Timestamp.from(Instant.now()));
+                metrics.recordUploadStage(PENDING_INSERT_STAGE, stageStarted);
+            }
+            if (writtenUpTo < contentRange.getEnd() || overrun) {
+                throw new StorageException(format(CHUNK_SIZE_MISMATCH_ERROR, contentRange.length(),
+                        ranges.getContiguousBytes()));
+            }
+            return PENDING;
         } catch (Exception e) {
             String err = format(COULD_NOT_PROCESS_FILE_ERROR, userId, filename, e.getMessage());
             log.error("[StorageServiceImpl.store] " + err);
 
+            if (!resumable) {
+                sessionRegistry.remove(userId, filename);
+                saveOrUpdateFailedUploadedFile(userId, totalChunks, uploadedTime, filename, err);
+                deleteTmpFileIfExists(assembledFile);
+                sessionRegistry.endFinalization(assembledFile);
+            }
+
+            throw new StorageException(err);
+        }
+    }
+
+    private Path moveAside(Path tempFile) throws IOException {
+        Path assembledFile = tempFile.resolveSibling(tempFile.getFileName() + "." + UUID.randomUUID() + FINALIZING_SUFFIX);
+        return Files.move(tempFile, assembledFile, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return {@code false} when the finalization queue is full and the caller has to finalize the upload itself
+     */
+    private boolean submitFinalization(String userId, Integer totalChunks, Instant uploadedTime, String filename,
+                                       Path assembledFile, ContentDigest digest) {
+        repository.upsertFinalizing(userId, filename, Timestamp.from(uploadedTime), Timestamp.from(Instant.now()),
+                totalChunks == null ? 1 : totalChunks);
+        long submitted = System.nanoTime();
+        try {
+            finalizationExecutor.execute(() -> {
+                metrics.recordUploadStage(FINALIZATION_QUEUE_STAGE, submitted);
+                finalizeInBackground(userId, totalChunks, uploadedTime, filename, assembledFile, digest);
+            });
+            return true;
+        } catch (TaskRejectedException e) {
+            log.warn("[StorageServiceImpl.submitFinalization] finalization queue is full, finalizing {} for userId {} " +
+                    "on the request thread", filename, userId);
+            return false;
+        }
+    }
+
+    private void finalizeInBackground(String userId, Integer totalChunks, Instant uploadedTime, String filename,
+                                      Path assembledFile, ContentDigest digest) {
+        try {
+            completeUpload(userId, totalChunks, uploadedTime, filename, assembledFile, digest);
+        } catch (Exception e) {
+            String err = format(COULD_NOT_PROCESS_FILE_ERROR, userId, filename, e.getMessage());
+            log.error("[StorageServiceImpl.finalizeInBackground] " + err);
+
             saveOrUpdateFailedUploadedFile(userId, totalChunks, uploadedTime, filename, err);
-            deleteTmpFileIfExists(tempFile);
+            deleteTmpFileIfExists(assembledFile);
+        } finally {
+            sessionRegistry.endFinalization(assembledFile);
+        }
+    }
 
+    private void completeUpload(String userId, Integer totalChunks, Instant uploadedTime, String filename,
+                                Path assembledFile, ContentDigest digest) throws IOException {
+        saveOrUpdateCompletedUploadedFile(userId, totalChunks, uploadedTime, filename, assembledFile, digest);
+        deleteTmpFileIfExists(assembledFile);
+    }
+
+    /**
+     * Sizes the temp file to the declared total up front, so chunks can be written at their own offsets in any order.
+     */
+    private UploadSession startUpload(String userId, String filename, Path tempFile, long totalBytes) {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile.toFile(), "rw")) {
+            randomAccessFile.setLength(totalBytes);
+        } catch (IOException e) {
+            String err = format(COULD_NOT_PREALLOCATE_TMP_FILE_ERROR, tempFile, e.getMessage());
+            log.error("[StorageServiceImpl.startUpload] " + err);
             throw new StorageException(err);
         }
+
+        return new UploadSession(userId, filename, tempFile, new ReceivedRanges(totalBytes));
+    }
+
+    private void checkDeclaredTotal(ReceivedRanges ranges, ContentRange contentRange) {
+        if (ranges.getTotalBytes() != contentRange.getTotal()) {
+            throw new StorageException(format(TOTAL_SIZE_MISMATCH_ERROR, contentRange.getTotal(), ranges.getTotalBytes()));
+        }
+    }
+
+    /**
+     * Streams up to {@code contentRange.length()} bytes from {@code content} to their offset in the temp file,
+     * through a direct buffer borrowed from the {@link BufferPool} (a heap buffer of its own when the pool is drained),
+     * hashing them on the way when they are next in line for the digest.
+     * A body ending early or failing halfway is not an error here: the bytes written so far are kept.
+     *
+     * @return the end (exclusive) of the bytes written, short of {@code contentRange.getEnd()} when interrupted
+     */
+    private long writeChunk(Path tempFile, InputStream content, ContentRange contentRange, ContentDigest digest) {
+        ByteBuffer buffer = bufferPool.acquire();
+        long position = contentRange.getStart();
+        long remaining = contentRange.length();
+        boolean digesting = digest.claim(contentRange.getStart());
+
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            // a multipart file kept on disk is read straight from its file channel, anything else through a small
+            // transfer array; the channel is left open, as closing it would close content, which is the caller's
+            ReadableByteChannel source = Channels.newChannel(content);
+            while (remaining > 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                int read = source.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, position + buffer.position());
+                }
+                // hashed once written, so the digest never gets ahead of the temp file
+                if (digesting) {
+                    buffer.rewind();
+                    digest.update(buffer);
+                }
+                position += read;
+                remaining -= read;
+            }
+        } catch (IOException e) {
+            log.warn("[StorageServiceImpl.writeChunk] chunk {} interrupted at byte {}. Exception: {}",
+                    contentRange, position, e.getMessage());
+        } finally {
+            if (digesting) {
+                digest.release(position);
+            }
+            bufferPool.release(buffer);
+        }
+        return position;
     }
 
     private Path getTempFile(String userId, String filename) {
-        String home = System.getProperty("user.home");
+        return getTmpDirectory().resolve(userId + "_" + filename);
+    }
 
-        Path path = Paths.get(home, tmpDirectory);
+    private Path getTmpDirectory() {
+        Path path = Paths.get(System.getProperty("user.home"), tmpDirectory);
         if (!path.toFile().exists()) {
             try {
                 Files.createDirectories(path);
@@ -151,61 +713,47 @@ public class StorageServiceImpl implements StorageService {
             }
         }
 
-        return Paths.get(home, tmpDirectory, userId + "_" + filename);
+        return path;
     }
 
-    private void saveOrUpdateCompletedUploadedFile(boolean exists, String userId, Integer totalChunks, Instant uploadedTime,
-                                                   String filename, Path tmpLocation)
+    /**
+     * Content already stored for another file is shared rather than encoded and written again, leaving the assembled
+     * file to be deleted by the caller.
+     */
+    private void saveOrUpdateCompletedUploadedFile(String userId, Integer totalChunks, Instant uploadedTime,
+                                                   String filename, Path tmpLocation, ContentDigest digest)
             throws IOException {
-        if (!exists) {
-            UploadedFile uploadedFile = UploadedFile.builder()
-                    .userId(userId)
-                    .filename(filename)
-                    .createdAt(uploadedTime)
-                    .lastModifiedAt(Instant.now())
-                    .status(COMPLETED)
-                    .chunks(1)
-                    .content(readAllBytes(tmpLocation))
-                    .build();
+        long size = Files.size(tmpLocation);
+        String previousStorageKey = repository.findStorageKeyByUserIdAndFilename(userId, filename);
 
-            repository.save(uploadedFile);
-        } else {
-            repository.updateByUserIdAndFilename(userId, filename, uploadedTime, COMPLETED,
-                    totalChunks, readAllBytes(tmpLocation));
-        }
-    }
+        long stageStarted = System.nanoTime();
+        String contentHash = digest.finish(tmpLocation);
+        metrics.recordUploadStage(CONTENT_HASH_STAGE, stageStarted);
 
-    private void savePendingUploadedFile(boolean exists, String userId, Instant uploadedTime, String filename) {
-        if (!exists) {
-            UploadedFile uploadedFile = UploadedFile.builder()
-                    .userId(userId)
-                    .filename(filename)
-                    .createdAt(uploadedTime)
-                    .status(PENDING)
-                    .build();
+        stageStarted = System.nanoTime();
+        StoredContent storedContent = sharedContent.acquire(contentHash, size, tmpLocation);
+        metrics.recordUploadStage(CONTENT_PUT_STAGE, stageStarted);
+        try {
+            stageStarted = System.nanoTime();
+            repository.upsertCompleted(userId, filename, Timestamp.from(uploadedTime),
+                    Timestamp.from(Instant.now()), totalChunks == null ? 1 : totalChunks, size,
+                    storedContent.getStorageKey(), contentHash, storedContent.getCodec().name(),
+                    storedContent.getStoredSize(), storedContent.getCompressible());
+            metrics.recordUploadStage(METADATA_UPSERT_STAGE, stageStarted);
+        } catch (Exception e) {
+            sharedContent.release(storedContent.getStorageKey());
+            throw e;
+        }
 
-            repository.save(uploadedFile);
+        if (previousStorageKey != null) {
+            sharedContent.release(previousStorageKey);
         }
     }
 
     private void saveOrUpdateFailedUploadedFile(String userId, Integer totalChunks, Instant uploadedTime,
                                                 String filename, String rootCause) {
-        boolean exists = repository.existsByUserIdAndFilename(userId, filename);
-        if (!exists) {
-            UploadedFile uploadedFile = UploadedFile.builder()
-                    .userId(userId)
-                    .filename(filename)
-                    .createdAt(uploadedTime)
-                    .lastModifiedAt(Instant.now())
-                    .status(FAILED)
-                    .chunks(1)
-                    .rootCause(rootCause)
-                    .build();
-
-            repository.save(uploadedFile);
-        } else {
-            repository.updateByUserIdAndFilename(userId, filename, uploadedTime, FAILED, totalChunks, rootCause);
-        }
+        repository.upsertFailed(userId, filename, Timestamp.from(uploadedTime), Timestamp.from(Instant.now()),
+                totalChunks == null ? 1 : totalChunks, rootCause);
     }
 
     private void deleteTmpFileIfExists(Path tmpLocation) {
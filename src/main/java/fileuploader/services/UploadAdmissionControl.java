@@ -0,0 +1,154 @@
+package fileuploader.services;
+
+import fileuploader.exceptions.TooManyRequestsException;
+import fileuploader.metrics.UploadMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.lang.Long.valueOf;
+import static java.lang.String.format;
+
+/**
+ * Bounds the upload requests being received at once and the bytes they carry, globally and per user, so a burst of
+ * uploads is turned away up front instead of tying up every request thread. A request is always admitted when its
+ * scope has nothing else in flight, so a single upload larger than a byte limit can still get through. Requests whose
+ * user is unknown share the per-user limits of a single bucket, so leaving the userId out does not lift them.
+ *
+ * Created by luisoliveira on 11/24/17.
+ */
+@Slf4j
+@Component
+public class UploadAdmissionControl {
+
+    public static final String UPLOADS_LIMIT = "uploads";
+    public static final String USER_UPLOADS_LIMIT = "user_uploads";
+    public static final String BYTES_LIMIT = "bytes";
+    public static final String USER_BYTES_LIMIT = "user_bytes";
+
+    private static final String TOO_MANY_UPLOADS_ERROR = "Too many uploads in progress. Max uploads in progress: %s";
+    private static final String TOO_MANY_USER_UPLOADS_ERROR = "Too many uploads in progress for %s. Max uploads in progress: %s";
+    private static final String TOO_MANY_BYTES_ERROR = "Too many bytes being uploaded. Max bytes in flight: %s";
+    private static final String TOO_MANY_USER_BYTES_ERROR = "Too many bytes being uploaded for %s. Max bytes in flight: %s";
+    private static final String UNIDENTIFIED_USER = "uploads without userId";
+
+    @Value("${upload.admission.max.concurrent}")
+    private String maxUploads;
+    @Value("${upload.admission.max.concurrent.per.user}")
+    private String maxUserUploads;
+    @Value("${upload.admission.max.inflight.bytes}")
+    private String maxBytes;
+    @Value("${upload.admission.max.inflight.bytes.per.user}")
+    private String maxUserBytes;
+
+    @Autowired
+    private UploadMetrics metrics;
+
+    private final Usage total = new Usage();
+    private final Map<String, Usage> users = new HashMap<>();
+
+    /**
+     * Admits an upload request of {@code bytes} bytes, which holds its share of the limits until the returned
+     * admission is closed.
+     *
+     * @param userId uploading user, or {@code null} when unknown, in which case the request is counted in the bucket
+     *               shared by every request without userId
+     * @throws TooManyRequestsException if admitting the request would exceed any limit
+     */
+    public synchronized Admission admit(String userId, long bytes) {
+        // the null key is the shared bucket
+        Usage user = users.computeIfAbsent(userId, k -> new Usage());
+        String scope = userId == null ? UNIDENTIFIED_USER : "userId " + userId;
+
+        try {
+            check(total, bytes, valueOf(maxUploads), valueOf(maxBytes), UPLOADS_LIMIT, BYTES_LIMIT,
+                    format(TOO_MANY_UPLOADS_ERROR, maxUploads), format(TOO_MANY_BYTES_ERROR, maxBytes));
+            check(user, bytes, valueOf(maxUserUploads), valueOf(maxUserBytes), USER_UPLOADS_LIMIT, USER_BYTES_LIMIT,
+                    format(TOO_MANY_USER_UPLOADS_ERROR, scope, maxUserUploads),
+                    format(TOO_MANY_USER_BYTES_ERROR, scope, maxUserBytes));
+        } catch (TooManyRequestsException e) {
+            if (user.uploads == 0) {
+                users.remove(userId);
+            }
+            throw e;
+        }
+
+        total.add(1, bytes);
+        user.add(1, bytes);
+        return new Admission(userId, bytes);
+    }
+
+    private void check(Usage usage, long bytes, long maxUploads, long maxBytes, String uploadsLimit, String bytesLimit,
+                       String uploadsError, String bytesError) {
+        if (usage.uploads >= maxUploads) {
+            reject(uploadsLimit, uploadsError);
+        }
+        if (usage.uploads > 0 && usage.bytes + bytes > maxBytes) {
+            reject(bytesLimit, bytesError);
+        }
+    }
+
+    private void reject(String limit, String err) {
+        log.warn("[UploadAdmissionControl.admit] " + err);
+        metrics.uploadRejected(limit);
+        throw new TooManyRequestsException(err);
+    }
+
+    private synchronized void release(String userId, long bytes) {
+        total.add(-1, -bytes);
+        Usage user = users.get(userId);
+        user.add(-1, -bytes);
+        if (user.uploads == 0) {
+            users.remove(userId);
+        }
+    }
+
+    public synchronized int getUploads() {
+        return total.uploads;
+    }
+
+    public synchronized long getBytes() {
+        return total.bytes;
+    }
+
+    private static final class Usage {
+
+        private int uploads;
+        private long bytes;
+
+        private void add(int uploads, long bytes) {
+            this.uploads += uploads;
+            this.bytes += bytes;
+        }
+
+    }
+
+    /**
+     * Share of the limits held by one upload request.
+     */
+    public class Admission implements AutoCloseable {
+
+        private final String userId;
+        private final long bytes;
+        private boolean closed;
+
+        private Admission(String userId, long bytes) {
+            this.userId = userId;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(userId, bytes);
+            }
+        }
+
+    }
+
+}
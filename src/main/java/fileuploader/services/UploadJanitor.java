@@ -0,0 +1,177 @@
+package fileuploader.services;
+
+import fileuploader.metrics.UploadMetrics;
+import fileuploader.projection.UploadedFileInfo;
+import fileuploader.repositories.UploadedFileRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static fileuploader.enums.FileUploadStatus.FINALIZING;
+import static fileuploader.enums.FileUploadStatus.PENDING;
+import static java.lang.Long.valueOf;
+import static java.lang.String.format;
+import static java.util.Arrays.asList;
+
+/**
+ * Cleans up after uploads clients gave up on. Every sweep expires idle sessions, deleting their temp files and marking
+ * them failed, fails pending and finalizing uploads a restart left without a session or a finalization, and deletes
+ * temp files nothing refers to anymore.
+ * A sweep handles at most one batch of each kind, so a large backlog is worked off over several sweeps.
+ *
+ * Created by luisoliveira on 11/24/17.
+ */
+@Slf4j
+@Component
+public class UploadJanitor {
+
+    private static final String ABANDONED_UPLOAD_ERROR = "Upload abandoned: no chunk received for %s seconds";
+    private static final String INTERRUPTED_FINALIZATION_ERROR = "Upload abandoned: finalization did not complete";
+
+    @Value("${upload.tmp.directory}")
+    private String tmpDirectory;
+    @Value("${upload.sessions.idle.timeout.seconds}")
+    private String idleTimeoutSeconds;
+    @Value("${upload.janitor.batch.size}")
+    private String batchSize;
+
+    @Autowired
+    private UploadSessionRegistry sessionRegistry;
+
+    @Autowired
+    private UploadedFileRepository repository;
+
+    @Autowired
+    private UploadMetrics metrics;
+
+    @Scheduled(fixedDelayString = "${upload.janitor.interval.millis}")
+    public void sweep() {
+        long idleSince = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(valueOf(idleTimeoutSeconds));
+        int limit = valueOf(batchSize).intValue();
+
+        metrics.uploadsAbandoned(expireIdleSessions(idleSince, limit) + failOrphanedUploads(idleSince, limit));
+        deleteOrphanedTempFiles(idleSince, limit);
+    }
+
+    private int expireIdleSessions(long idleSince, int limit) {
+        List<UploadSession> expired = sessionRegistry.removeIdleSessions(idleSince, limit);
+        for (UploadSession session : expired) {
+            log.warn("[UploadJanitor.expireIdleSessions] expiring idle upload {} for userId {}",
+                    session.getFilename(), session.getUserId());
+            deleteQuietly(session.getTempFile());
+            failPending(session.getUserId(), session.getFilename());
+        }
+        return expired.size();
+    }
+
+    /**
+     * Pending uploads whose session is gone and finalizing uploads whose finalization is gone, typically because the
+     * node restarted in the middle of them.
+     */
+    private int failOrphanedUploads(long idleSince, int limit) {
+        // oldest first, so uploads still receiving chunks cannot keep the real orphans out of the batch for good
+        List<UploadedFileInfo> unfinished = repository.findByStatusInAndCreatedAtBeforeOrderByCreatedAtAsc(
+                asList(PENDING, FINALIZING), Instant.ofEpochMilli(idleSince), new PageRequest(0, limit));
+
+        int failed = 0;
+        for (UploadedFileInfo uploadedFile : unfinished) {
+            String userId = uploadedFile.getUserId();
+            String filename = uploadedFile.getFilename();
+            // a long upload that is still receiving chunks or being finalized
+            if (!sessionRegistry.contains(userId, filename) && !sessionRegistry.isFinalizing(userId, filename)) {
+                log.warn("[UploadJanitor.failOrphanedUploads] failing orphaned {} upload {} for userId {}",
+                        uploadedFile.getStatus(), filename, userId);
+                failed += failUnfinished(userId, filename, uploadedFile.getStatus() == FINALIZING
+                        ? INTERRUPTED_FINALIZATION_ERROR : format(ABANDONED_UPLOAD_ERROR, idleTimeoutSeconds));
+            }
+        }
+        return failed;
+    }
+
+    private int failPending(String userId, String filename) {
+        try {
+            return repository.failPending(userId, filename, Timestamp.from(Instant.now()),
+                    format(ABANDONED_UPLOAD_ERROR, idleTimeoutSeconds));
+        } catch (Exception e) {
+            log.error("[UploadJanitor.failPending] could not fail upload {} for userId {}: {}",
+                    filename, userId, e.getMessage());
+            return 0;
+        }
+    }
+
+    private int failUnfinished(String userId, String filename, String rootCause) {
+        try {
+            return repository.failUnfinished(userId, filename, Timestamp.from(Instant.now()), rootCause);
+        } catch (Exception e) {
+            log.error("[UploadJanitor.failUnfinished] could not fail upload {} for userId {}: {}",
+                    filename, userId, e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Temp files of no session or finalization that were not written to within the idle timeout, such as those of
+     * uploads in progress or being finalized when the node stopped.
+     */
+    private void deleteOrphanedTempFiles(long idleSince, int limit) {
+        Path directory = getTmpDirectory();
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        Set<Path> inUse = sessionRegistry.tempFiles();
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (deleted >= limit) {
+                    break;
+                }
+                if (!inUse.contains(file) && lastModifiedAt(file) < idleSince) {
+                    log.warn("[UploadJanitor.deleteOrphanedTempFiles] deleting orphaned temp file {}", file);
+                    if (deleteQuietly(file)) {
+                        deleted++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("[UploadJanitor.deleteOrphanedTempFiles] could not list {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private Path getTmpDirectory() {
+        return Paths.get(System.getProperty("user.home"), tmpDirectory);
+    }
+
+    private long lastModifiedAt(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            // finalized or expired while listing
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private boolean deleteQuietly(Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.error("[UploadJanitor.deleteQuietly] could not delete {}: {}", file, e.getMessage());
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package fileuploader.services;
+
+import lombok.Getter;
+
+import java.nio.file.Path;
+
+/**
+ * State of one in-flight upload: the preallocated temp file its chunks are written to, the ranges received so far and
+ * the digest of its content.
+ *
+ * Created by luisoliveira on 11/20/17.
+ */
+@Getter
+public class UploadSession {
+
+    private final String userId;
+    private final String filename;
+    private final Path tempFile;
+    private final ReceivedRanges receivedRanges;
+    private final ContentDigest contentDigest = new ContentDigest();
+    private volatile long lastAccessedAt;
+    // temp space counted against the budget of the registry while the session is in it
+    private volatile long reservedTmpBytes;
+
+    public UploadSession(String userId, String filename, Path tempFile, ReceivedRanges receivedRanges) {
+        this.userId = userId;
+        this.filename = filename;
+        this.tempFile = tempFile;
+        this.receivedRanges = receivedRanges;
+        this.lastAccessedAt = System.currentTimeMillis();
+    }
+
+    void touch() {
+        lastAccessedAt = System.currentTimeMillis();
+    }
+
+    void setReservedTmpBytes(long reservedTmpBytes) {
+        this.reservedTmpBytes = reservedTmpBytes;
+    }
+
+}
@@ -0,0 +1,185 @@
+package fileuploader.services;
+
+import fileuploader.exceptions.StorageException;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static java.lang.Long.valueOf;
+import static java.lang.String.format;
+
+/**
+ * In-flight uploads of this node, keyed by userId and filename, so chunks in the middle of an upload are handled
+ * without touching the database. The registry is bounded both in sessions and in the bytes their temp files may take,
+ * and sessions left idle are expired by the {@link UploadJanitor}. It also keeps the uploads being finalized, so the
+ * janitor can tell them from those a restart interrupted.
+ *
+ * Created by luisoliveira on 11/20/17.
+ */
+@Slf4j
+@Component
+public class UploadSessionRegistry {
+
+    private static final String TOO_MANY_UPLOADS_ERROR = "Too many uploads in progress. Max uploads in progress: %s";
+    private static final String TMP_BUDGET_EXCEEDED_ERROR = "Not enough temporary space for %s bytes. " +
+            "Temporary space in use: %s bytes. Max temporary space: %s bytes";
+
+    @Value("${upload.sessions.max}")
+    private String maxSessions;
+    @Value("${upload.tmp.max.bytes}")
+    private String maxTmpBytes;
+
+    private final Map<Key, UploadSession> sessions = new ConcurrentHashMap<>();
+    private final Map<Path, Key> finalizations = new ConcurrentHashMap<>();
+
+    // sizes of the temp files preallocated by the sessions in the registry
+    private final AtomicLong reservedTmpBytes = new AtomicLong();
+
+    /**
+     * Returns the session of the given upload, starting it with {@code starter} when there is none.
+     *
+     * @param totalBytes size of the temp file a new session preallocates
+     * @throws StorageException if a new session is needed and the registry or the temp space budget is full
+     */
+    public UploadSession open(String userId, String filename, long totalBytes, Supplier<UploadSession> starter) {
+        Key key = new Key(userId, filename);
+
+        UploadSession session = sessions.get(key);
+        if (session == null) {
+            session = sessions.computeIfAbsent(key, k -> {
+                if (sessions.size() >= valueOf(maxSessions)) {
+                    String err = format(TOO_MANY_UPLOADS_ERROR, maxSessions);
+                    log.error("[UploadSessionRegistry.open] " + err);
+                    throw new StorageException(err);
+                }
+                reserveTmpBytes(totalBytes);
+                try {
+                    UploadSession started = starter.get();
+                    started.setReservedTmpBytes(totalBytes);
+                    return started;
+                } catch (RuntimeException e) {
+                    reservedTmpBytes.addAndGet(-totalBytes);
+                    throw e;
+                }
+            });
+        }
+
+        session.touch();
+        return session;
+    }
+
+    private void reserveTmpBytes(long totalBytes) {
+        long inUse = reservedTmpBytes.addAndGet(totalBytes) - totalBytes;
+        if (inUse + totalBytes > valueOf(maxTmpBytes)) {
+            reservedTmpBytes.addAndGet(-totalBytes);
+            String err = format(TMP_BUDGET_EXCEEDED_ERROR, totalBytes, inUse, maxTmpBytes);
+            log.error("[UploadSessionRegistry.open] " + err);
+            throw new StorageException(err);
+        }
+    }
+
+    /**
+     * @return the session of the given upload, or {@code null} when it is not in progress on this node
+     */
+    public UploadSession get(String userId, String filename) {
+        return sessions.get(new Key(userId, filename));
+    }
+
+    /**
+     * Removes the session of the given upload, releasing its temp space: its temp file is either deleted or moved aside
+     * for finalization by the caller.
+     */
+    public void remove(String userId, String filename) {
+        UploadSession session = sessions.remove(new Key(userId, filename));
+        if (session != null) {
+            reservedTmpBytes.addAndGet(-session.getReservedTmpBytes());
+        }
+    }
+
+    public boolean contains(String userId, String filename) {
+        return sessions.containsKey(new Key(userId, filename));
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * @return the temp files of the sessions in the registry and of the uploads being finalized
+     */
+    public Set<Path> tempFiles() {
+        Set<Path> tempFiles = sessions.values().stream().map(UploadSession::getTempFile).collect(Collectors.toSet());
+        tempFiles.addAll(finalizations.keySet());
+        return tempFiles;
+    }
+
+    /**
+     * Records that the upload assembled in {@code assembledFile} is being finalized, until
+     * {@link #endFinalization(Path)} is called with the same file.
+     */
+    public void startFinalization(String userId, String filename, Path assembledFile) {
+        finalizations.put(assembledFile, new Key(userId, filename));
+    }
+
+    public void endFinalization(Path assembledFile) {
+        finalizations.remove(assembledFile);
+    }
+
+    public boolean isFinalizing(String userId, String filename) {
+        return finalizations.containsValue(new Key(userId, filename));
+    }
+
+    /**
+     * Removes and returns at most {@code limit} sessions last accessed before {@code idleSince}. Their temp files are
+     * left to the caller.
+     */
+    public List<UploadSession> removeIdleSessions(long idleSince, int limit) {
+        List<UploadSession> removed = new ArrayList<>();
+
+        Iterator<Map.Entry<Key, UploadSession>> iterator = sessions.entrySet().iterator();
+        while (iterator.hasNext() && removed.size() < limit) {
+            Map.Entry<Key, UploadSession> entry = iterator.next();
+            UploadSession session = entry.getValue();
+            if (session.getLastAccessedAt() < idleSince && sessions.remove(entry.getKey(), session)) {
+                reservedTmpBytes.addAndGet(-session.getReservedTmpBytes());
+                removed.add(session);
+            }
+        }
+        return removed;
+    }
+
+    public long getTmpBytesInUse() {
+        return reservedTmpBytes.get();
+    }
+
+    @EqualsAndHashCode
+    private static final class Key {
+
+        private final String userId;
+        private final String filename;
+
+        private Key(String userId, String filename) {
+            this.userId = userId;
+            this.filename = filename;
+        }
+
+        @Override
+        public String toString() {
+            return userId + "/" + filename;
+        }
+
+    }
+
+}
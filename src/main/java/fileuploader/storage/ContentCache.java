@@ -0,0 +1,300 @@
+package fileuploader.storage;
+
+import fileuploader.metrics.UploadMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.Long.valueOf;
+
+/**
+ * Read-through cache of stored content on local disk, in front of a {@link ContentStore} that is slower to read from,
+ * such as the database or an object store. Entries are kept in least recently used order and evicted once their total
+ * size exceeds {@code download.cache.max.bytes}.
+ *
+ * A read starting at offset 0 of content not cached yet is copied into the cache while the caller consumes it, and
+ * becomes an entry once it has been read to the end. Content is immutable under its key, so an entry holding the first
+ * bytes of the content serves every later read falling within them, and only has to go when the content is deleted.
+ *
+ * Created by luisoliveira on 11/24/17.
+ */
+@Slf4j
+@Component
+public class ContentCache {
+
+    @Value("${download.cache.enabled}")
+    private boolean enabled;
+    @Value("${download.cache.directory}")
+    private String cacheDirectory;
+    @Value("${download.cache.max.bytes}")
+    private String maxBytes;
+    @Value("${download.cache.max.entry.bytes}")
+    private String maxEntryBytes;
+
+    @Autowired
+    private ContentStore contentStore;
+
+    @Autowired
+    private UploadMetrics metrics;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    @PostConstruct
+    public void init() throws IOException {
+        metrics.registerCache(this::getCachedBytes);
+        if (!enabled) {
+            return;
+        }
+
+        // entries are only known to this process, so whatever a previous one left behind is unreachable
+        Path directory = getCacheDirectory();
+        FileUtils.deleteDirectory(directory.toFile());
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Same as {@link ContentStore#get(String, long, long)}, served from the cache when it holds the requested bytes.
+     */
+    public InputStream get(String key, long offset, long length) {
+        if (!enabled) {
+            return contentStore.get(key, offset, length);
+        }
+
+        InputStream cached = openCached(key, offset, length);
+        if (cached != null) {
+            metrics.cacheHit();
+            return cached;
+        }
+
+        metrics.cacheMiss();
+        InputStream content = contentStore.get(key, offset, length);
+        if (offset != 0 || length > valueOf(maxEntryBytes)) {
+            return content;
+        }
+
+        try {
+            Path file = Files.createTempFile(getCacheDirectory(), key + "_", ".cache");
+            return new CachingInputStream(content, key, length, file);
+        } catch (IOException e) {
+            log.warn("[ContentCache.get] could not cache content {}: {}", key, e.getMessage());
+            return content;
+        }
+    }
+
+    /**
+     * Drops the entry of content that is being deleted from the content store.
+     */
+    public void invalidate(String key) {
+        if (!enabled) {
+            return;
+        }
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.remove(key);
+            if (entry != null) {
+                cachedBytes -= entry.length;
+            }
+        }
+        if (entry != null) {
+            deleteQuietly(entry.file);
+        }
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    private synchronized InputStream openCached(String key, long offset, long length) {
+        Entry entry = entries.get(key);
+        if (entry == null || offset + length > entry.length) {
+            return null;
+        }
+
+        // opened under the lock, so the file cannot be evicted in between; an open file stays readable once deleted
+        try {
+            FileChannel channel = FileChannel.open(entry.file, StandardOpenOption.READ);
+            channel.position(offset);
+            return new BoundedInputStream(Channels.newInputStream(channel), length);
+        } catch (IOException e) {
+            log.warn("[ContentCache.openCached] could not read cached content {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private void admit(String key, Path file, long length) {
+        List<Path> obsolete = new ArrayList<>();
+        List<Long> evicted = new ArrayList<>();
+        synchronized (this) {
+            Entry previous = entries.get(key);
+            if (previous != null && previous.length >= length) {
+                // a concurrent read already cached at least as much
+                obsolete.add(file);
+            } else {
+                if (previous != null) {
+                    cachedBytes -= previous.length;
+                    obsolete.add(previous.file);
+                }
+                entries.put(key, new Entry(file, length));
+                cachedBytes += length;
+
+                Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+                while (cachedBytes > valueOf(maxBytes) && eldest.hasNext()) {
+                    Map.Entry<String, Entry> candidate = eldest.next();
+                    if (candidate.getKey().equals(key)) {
+                        continue;
+                    }
+                    eldest.remove();
+                    cachedBytes -= candidate.getValue().length;
+                    obsolete.add(candidate.getValue().file);
+                    evicted.add(candidate.getValue().length);
+                }
+            }
+        }
+
+        obsolete.forEach(ContentCache::deleteQuietly);
+        evicted.forEach(metrics::cacheEvicted);
+    }
+
+    private Path getCacheDirectory() {
+        return Paths.get(System.getProperty("user.home"), cacheDirectory);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("[ContentCache.deleteQuietly] could not delete {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static class Entry {
+
+        private final Path file;
+        private final long length;
+
+        Entry(Path file, long length) {
+            this.file = file;
+            this.length = length;
+        }
+
+    }
+
+    /**
+     * Copies the bytes read by the caller into the cache file, which is admitted when the content was read to the end
+     * and dropped otherwise.
+     */
+    private class CachingInputStream extends FilterInputStream {
+
+        private final String key;
+        private final long length;
+        private final Path file;
+        private final OutputStream cacheOutput;
+        private long copied;
+        private boolean broken;
+        private boolean closed;
+
+        CachingInputStream(InputStream content, String key, long length, Path file) throws IOException {
+            super(content);
+            this.key = key;
+            this.length = length;
+            this.file = file;
+            this.cacheOutput = Files.newOutputStream(file);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read >= 0) {
+                copy(new byte[]{(byte) read}, 0, 1);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = in.read(buffer, offset, length);
+            if (read > 0) {
+                copy(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            broken = true;
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            try {
+                super.close();
+            } finally {
+                finish();
+            }
+        }
+
+        private void copy(byte[] buffer, int offset, int length) {
+            if (broken) {
+                return;
+            }
+
+            try {
+                cacheOutput.write(buffer, offset, length);
+                copied += length;
+            } catch (IOException e) {
+                // the download goes on, only caching is given up
+                log.warn("[ContentCache.copy] could not cache content {}: {}", key, e.getMessage());
+                broken = true;
+            }
+        }
+
+        private void finish() {
+            try {
+                cacheOutput.close();
+            } catch (IOException e) {
+                broken = true;
+            }
+
+            if (!broken && copied == length) {
+                admit(key, file, length);
+            } else {
+                deleteQuietly(file);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,213 @@
+package fileuploader.storage;
+
+import fileuploader.enums.ContentCodec;
+import fileuploader.exceptions.StorageException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.lang.Integer.valueOf;
+import static java.lang.String.format;
+
+/**
+ * Gzips content at finalization when it is likely to shrink, and decodes it again while it is streamed back.
+ * Content starting with the magic bytes of a compressed format, or whose leading bytes look random, is stored as is.
+ *
+ * Created by luisoliveira on 11/23/17.
+ */
+@Slf4j
+@Component
+public class ContentCompressor {
+
+    private static final String COULD_NOT_COMPRESS_CONTENT_ERROR = "Could not compress content from %s. Exception: %s";
+    private static final String COULD_NOT_DECODE_CONTENT_ERROR = "Could not decode %s content. Exception: %s";
+
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final double MAX_SAMPLE_ENTROPY_BITS = 7.5;
+    private static final double MAX_COMPRESSION_RATIO = 0.9;
+
+    private static final int[][] COMPRESSED_MAGIC_BYTES = {
+            {0x1F, 0x8B},                           // gzip
+            {0x50, 0x4B, 0x03, 0x04},               // zip, docx, xlsx, jar
+            {0x42, 0x5A, 0x68},                     // bzip2
+            {0xFD, 0x37, 0x7A, 0x58, 0x5A, 0x00},   // xz
+            {0x28, 0xB5, 0x2F, 0xFD},               // zstd
+            {0x37, 0x7A, 0xBC, 0xAF, 0x27, 0x1C},   // 7z
+            {0x52, 0x61, 0x72, 0x21},               // rar
+            {0x89, 0x50, 0x4E, 0x47},               // png
+            {0xFF, 0xD8, 0xFF},                     // jpeg
+            {0x47, 0x49, 0x46, 0x38},               // gif
+            {0x49, 0x44, 0x33},                     // mp3
+            {0x1A, 0x45, 0xDF, 0xA3}                // mkv, webm
+    };
+
+    @Value("${storage.compression.enabled}")
+    private boolean enabled;
+    @Value("${storage.compression.level}")
+    private String level;
+    @Value("${storage.compression.min.size.bytes}")
+    private String minSize;
+
+    /**
+     * Returns the file to be stored: a gzipped sibling of {@code file}, or {@code file} itself when compression is
+     * disabled or not worth it. The caller remains responsible for deleting {@code file}.
+     * Content is sampled even when it is not going to be compressed, so whoever serves it later knows whether
+     * compressing it on the fly is worth it.
+     */
+    public EncodedContent encode(Path file, long size) {
+        boolean compressible = isCompressible(file);
+        if (!enabled || size < valueOf(minSize) || !compressible) {
+            return new EncodedContent(file, ContentCodec.IDENTITY, size, compressible);
+        }
+
+        Path compressed = file.resolveSibling(file.getFileName() + ".gz");
+        try {
+            try (OutputStream outputStream = new LeveledGZIPOutputStream(Files.newOutputStream(compressed), valueOf(level))) {
+                Files.copy(file, outputStream);
+            }
+
+            long compressedSize = Files.size(compressed);
+            if (compressedSize > size * MAX_COMPRESSION_RATIO) {
+                Files.delete(compressed);
+                return new EncodedContent(file, ContentCodec.IDENTITY, size, false);
+            }
+            return new EncodedContent(compressed, ContentCodec.GZIP, compressedSize, true);
+        } catch (IOException e) {
+            deleteQuietly(compressed);
+            String err = format(COULD_NOT_COMPRESS_CONTENT_ERROR, file, e.getMessage());
+            log.error("[ContentCompressor.encode] " + err);
+            throw new StorageException(err);
+        }
+    }
+
+    /**
+     * Decodes stored content on the fly, returning {@code length} bytes of the original content from {@code offset}.
+     */
+    public InputStream decode(InputStream stored, ContentCodec codec, long offset, long length) {
+        try {
+            InputStream decoded = new GZIPInputStream(stored, BUFFER_SIZE);
+            long skipped = 0;
+            while (skipped < offset) {
+                long n = decoded.skip(offset - skipped);
+                if (n <= 0) {
+                    break;
+                }
+                skipped += n;
+            }
+            return new BoundedInputStream(decoded, length);
+        } catch (IOException e) {
+            closeQuietly(stored);
+            String err = format(COULD_NOT_DECODE_CONTENT_ERROR, codec, e.getMessage());
+            log.error("[ContentCompressor.decode] " + err);
+            throw new StorageException(err);
+        }
+    }
+
+    /**
+     * Tells from a sample of at most {@link #SAMPLE_SIZE} leading bytes whether the file is worth compressing, that is,
+     * whether it is neither of an already compressed format nor close to random.
+     */
+    boolean isCompressible(Path file) {
+        byte[] sample = new byte[SAMPLE_SIZE];
+        int read;
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            read = readFully(inputStream, sample);
+        } catch (IOException e) {
+            return false;
+        }
+
+        return !hasCompressedMagicBytes(sample, read) && entropy(sample, read) <= MAX_SAMPLE_ENTROPY_BITS;
+    }
+
+    private static boolean hasCompressedMagicBytes(byte[] sample, int length) {
+        for (int[] magic : COMPRESSED_MAGIC_BYTES) {
+            if (startsWith(sample, length, magic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] sample, int length, int[] magic) {
+        if (length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((sample[i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Shannon entropy of the sample in bits per byte: close to 8 for encrypted or already compressed data.
+     */
+    private static double entropy(byte[] sample, int length) {
+        if (length == 0) {
+            return 0;
+        }
+
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[sample[i] & 0xFF]++;
+        }
+
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p) / Math.log(2);
+            }
+        }
+        return entropy;
+    }
+
+    private static int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+        int total = 0;
+        int read;
+        while (total < buffer.length && (read = inputStream.read(buffer, total, buffer.length - total)) >= 0) {
+            total += read;
+        }
+        return total;
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("[ContentCompressor.deleteQuietly] could not delete {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            log.warn("[ContentCompressor.closeQuietly] {}", e.getMessage());
+        }
+    }
+
+    /**
+     * {@link GZIPOutputStream} does not expose the deflate level, so it is set on its deflater.
+     */
+    private static class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+        LeveledGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+
+    }
+
+}
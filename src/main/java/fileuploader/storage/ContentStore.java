@@ -0,0 +1,33 @@
+package fileuploader.storage;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Created by luisoliveira on 11/12/17.
+ */
+public interface ContentStore {
+
+    /**
+     * Moves the given file into the store and returns the key under which its content can be read back.
+     */
+    String put(Path source);
+
+    /**
+     * Opens a stream over {@code length} bytes of the stored content starting at {@code offset}.
+     */
+    InputStream get(String key, long offset, long length);
+
+    void delete(String key);
+
+    boolean exists(String key);
+
+    /**
+     * Returns the local file holding the content, so it can be served with zero-copy transfers, or {@code null} when
+     * the content does not live on the local filesystem.
+     */
+    default Path getLocalPath(String key) {
+        return null;
+    }
+
+}
@@ -0,0 +1,151 @@
+package fileuploader.storage;
+
+import fileuploader.domain.ContentBlob;
+import fileuploader.exceptions.StorageException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+import static java.lang.String.format;
+
+/**
+ * Stores content as LOBs in the application database, next to the metadata. Convenient for a single node, at the cost
+ * of database space and of a connection held for as long as a download is being read.
+ *
+ * Created by luisoliveira on 11/24/17.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "storage.backend", havingValue = "database")
+public class DatabaseContentStore implements ContentStore {
+
+    private static final String COULD_NOT_STORE_CONTENT_ERROR = "Could not store content from %s. Exception: %s";
+    private static final String COULD_NOT_READ_CONTENT_ERROR = "Could not read content %s. Exception: %s";
+    private static final String COULD_NOT_DELETE_CONTENT_ERROR = "Could not delete content %s. Exception: %s";
+    private static final String CONTENT_NOT_FOUND_ERROR = "Content not found";
+
+    private static final String INSERT_SQL = "INSERT INTO " + ContentBlob.TABLE_NAME + " (storage_key, content) VALUES (?, ?)";
+    private static final String SELECT_SQL = "SELECT content FROM " + ContentBlob.TABLE_NAME + " WHERE storage_key = ?";
+    private static final String DELETE_SQL = "DELETE FROM " + ContentBlob.TABLE_NAME + " WHERE storage_key = ?";
+    private static final String COUNT_SQL = "SELECT COUNT(*) FROM " + ContentBlob.TABLE_NAME + " WHERE storage_key = ?";
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public String put(Path source) {
+        String key = UUID.randomUUID().toString().replace("-", "");
+        try (InputStream inputStream = Files.newInputStream(source)) {
+            long size = Files.size(source);
+            // the driver copies the stream into LOB storage as it reads it, so the file is never held in memory
+            jdbcTemplate.update(INSERT_SQL, statement -> {
+                statement.setString(1, key);
+                statement.setBinaryStream(2, inputStream, size);
+            });
+            Files.delete(source);
+            return key;
+        } catch (IOException | DataAccessException e) {
+            String err = format(COULD_NOT_STORE_CONTENT_ERROR, source, e.getMessage());
+            log.error("[DatabaseContentStore.put] " + err);
+            throw new StorageException(err);
+        }
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = dataSource.getConnection();
+            statement = connection.prepareStatement(SELECT_SQL);
+            statement.setString(1, key);
+            resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                throw new SQLException(CONTENT_NOT_FOUND_ERROR);
+            }
+
+            InputStream content = resultSet.getBinaryStream(1);
+            IOUtils.skipFully(content, offset);
+            // the LOB is only readable while its result set is open, so the connection goes back with the stream
+            return new ReleasingInputStream(new BoundedInputStream(content, length), resultSet, statement, connection);
+        } catch (SQLException | IOException e) {
+            closeQuietly(resultSet, statement, connection);
+
+            String err = format(COULD_NOT_READ_CONTENT_ERROR, key, e.getMessage());
+            log.error("[DatabaseContentStore.get] " + err);
+            throw new StorageException(err);
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        try {
+            jdbcTemplate.update(DELETE_SQL, key);
+        } catch (DataAccessException e) {
+            String err = format(COULD_NOT_DELETE_CONTENT_ERROR, key, e.getMessage());
+            log.error("[DatabaseContentStore.delete] " + err);
+            throw new StorageException(err);
+        }
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return jdbcTemplate.queryForObject(COUNT_SQL, Integer.class, key) > 0;
+    }
+
+    private static void closeQuietly(AutoCloseable... resources) {
+        for (AutoCloseable resource : resources) {
+            if (resource == null) {
+                continue;
+            }
+
+            try {
+                resource.close();
+            } catch (Exception e) {
+                log.warn("[DatabaseContentStore.closeQuietly] could not close {}: {}", resource, e.getMessage());
+            }
+        }
+    }
+
+    private static class ReleasingInputStream extends ProxyInputStream {
+
+        private final AutoCloseable[] resources;
+
+        ReleasingInputStream(InputStream content, AutoCloseable... resources) {
+            super(content);
+            this.resources = resources;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                closeQuietly(resources);
+            }
+        }
+
+    }
+
+}
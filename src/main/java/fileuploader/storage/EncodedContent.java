@@ -0,0 +1,24 @@
+package fileuploader.storage;
+
+import fileuploader.enums.ContentCodec;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.file.Path;
+
+/**
+ * A file ready to be put into the content store, with the codec it is encoded with, its encoded size and whether the
+ * original content looked worth compressing.
+ *
+ * Created by luisoliveira on 11/23/17.
+ */
+@Getter
+@AllArgsConstructor
+public class EncodedContent {
+
+    private final Path file;
+    private final ContentCodec codec;
+    private final long size;
+    private final boolean compressible;
+
+}
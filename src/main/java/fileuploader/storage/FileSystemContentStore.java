@@ -0,0 +1,131 @@
+package fileuploader.storage;
+
+import fileuploader.exceptions.StorageException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+import static java.lang.String.format;
+
+/**
+ * Stores content as plain files under a two-level sharded directory layout ({@code ab/cd/abcd...}), so no single
+ * directory grows beyond a few thousand entries.
+ *
+ * Created by luisoliveira on 11/12/17.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "storage.backend", havingValue = "filesystem", matchIfMissing = true)
+public class FileSystemContentStore implements ContentStore {
+
+    private static final String COULD_NOT_STORE_CONTENT_ERROR = "Could not store content from %s. Exception: %s";
+    private static final String COULD_NOT_READ_CONTENT_ERROR = "Could not read content %s. Exception: %s";
+    private static final String COULD_NOT_DELETE_CONTENT_ERROR = "Could not delete content %s. Exception: %s";
+
+    private static final int SHARD_LENGTH = 2;
+
+    @Value("${storage.filesystem.directory}")
+    private String storageDirectory;
+
+    @Override
+    public String put(Path source) {
+        String key = UUID.randomUUID().toString().replace("-", "");
+        Path target = resolve(key);
+        try {
+            Files.createDirectories(target.getParent());
+            move(source, target);
+            return key;
+        } catch (IOException e) {
+            String err = format(COULD_NOT_STORE_CONTENT_ERROR, source, e.getMessage());
+            log.error("[FileSystemContentStore.put] " + err);
+            throw new StorageException(err);
+        }
+    }
+
+    private void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // source lives on another file system: stage a copy next to the target so the final rename is still atomic
+            Path staging = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            try {
+                Files.copy(source, staging, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(staging);
+            }
+            Files.delete(source);
+        }
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(resolve(key), StandardOpenOption.READ);
+            channel.position(offset);
+            return new BoundedInputStream(Channels.newInputStream(channel), length);
+        } catch (IOException e) {
+            closeQuietly(channel);
+
+            String err = format(COULD_NOT_READ_CONTENT_ERROR, key, e.getMessage());
+            log.error("[FileSystemContentStore.get] " + err);
+            throw new StorageException(err);
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        try {
+            Files.deleteIfExists(resolve(key));
+        } catch (IOException e) {
+            String err = format(COULD_NOT_DELETE_CONTENT_ERROR, key, e.getMessage());
+            log.error("[FileSystemContentStore.delete] " + err);
+            throw new StorageException(err);
+        }
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(resolve(key));
+    }
+
+    @Override
+    public Path getLocalPath(String key) {
+        return resolve(key);
+    }
+
+    Path resolve(String key) {
+        Path root = Paths.get(System.getProperty("user.home"), storageDirectory);
+        return root.resolve(key.substring(0, SHARD_LENGTH))
+                .resolve(key.substring(SHARD_LENGTH, 2 * SHARD_LENGTH))
+                .resolve(key);
+    }
+
+    private void closeQuietly(FileChannel channel) {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("[FileSystemContentStore.closeQuietly] could not close channel: {}", e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+package fileuploader.storage;
+
+import fileuploader.exceptions.StorageException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static java.lang.String.format;
+
+/**
+ * Stores content as objects of a bucket on an S3-compatible object store, such as S3 itself or MinIO, through the
+ * plain S3 REST API with path-style addressing ({@code endpoint/bucket/key}). Content is streamed both ways, never
+ * held in memory.
+ *
+ * Created by luisoliveira on 11/24/17.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "storage.backend", havingValue = "s3")
+public class S3ContentStore implements ContentStore {
+
+    private static final String COULD_NOT_STORE_CONTENT_ERROR = "Could not store content from %s. Exception: %s";
+    private static final String COULD_NOT_READ_CONTENT_ERROR = "Could not read content %s. Exception: %s";
+    private static final String COULD_NOT_DELETE_CONTENT_ERROR = "Could not delete content %s. Exception: %s";
+    private static final String COULD_NOT_CHECK_CONTENT_ERROR = "Could not check content %s. Exception: %s";
+    private static final String UNEXPECTED_STATUS_ERROR = "Unexpected status %s from %s %s";
+
+    private static final String HOST_HEADER = "Host";
+    private static final String RANGE_HEADER = "Range";
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int READ_TIMEOUT_MILLIS = 60000;
+
+    @Value("${storage.s3.endpoint}")
+    private String endpoint;
+    @Value("${storage.s3.region}")
+    private String region;
+    @Value("${storage.s3.bucket}")
+    private String bucket;
+    @Value("${storage.s3.access.key}")
+    private String accessKey;
+    @Value("${storage.s3.secret.key}")
+    private String secretKey;
+
+    private S3RequestSigner signer;
+
+    @PostConstruct
+    public void init() {
+        signer = new S3RequestSigner(accessKey, secretKey, region);
+    }
+
+    @Override
+    public String put(Path source) {
+        String key = UUID.randomUUID().toString().replace("-", "");
+        try {
+            long size = Files.size(source);
+            // the payload is left unsigned, so the file is read once, straight into the request body
+            HttpURLConnection connection = open("PUT", key, new HashMap<>(), S3RequestSigner.UNSIGNED_PAYLOAD);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(size);
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                Files.copy(source, outputStream);
+            }
+            checkStatus(connection, "PUT", key);
+            connection.getInputStream().close();
+
+            Files.delete(source);
+            return key;
+        } catch (IOException e) {
+            String err = format(COULD_NOT_STORE_CONTENT_ERROR, source, e.getMessage());
+            log.error("[S3ContentStore.put] " + err);
+            throw new StorageException(err);
+        }
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) {
+        if (length == 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        try {
+            Map<String, String> headers = new HashMap<>();
+            headers.put(RANGE_HEADER, "bytes=" + offset + "-" + (offset + length - 1));
+            HttpURLConnection connection = open("GET", key, headers, S3RequestSigner.EMPTY_PAYLOAD_HASH);
+            checkStatus(connection, "GET", key);
+            return new ProxyInputStream(connection.getInputStream()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        connection.disconnect();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            String err = format(COULD_NOT_READ_CONTENT_ERROR, key, e.getMessage());
+            log.error("[S3ContentStore.get] " + err);
+            throw new StorageException(err);
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        try {
+            HttpURLConnection connection = open("DELETE", key, new HashMap<>(), S3RequestSigner.EMPTY_PAYLOAD_HASH);
+            checkStatus(connection, "DELETE", key);
+            connection.getInputStream().close();
+        } catch (IOException e) {
+            String err = format(COULD_NOT_DELETE_CONTENT_ERROR, key, e.getMessage());
+            log.error("[S3ContentStore.delete] " + err);
+            throw new StorageException(err);
+        }
+    }
+
+    @Override
+    public boolean exists(String key) {
+        try {
+            HttpURLConnection connection = open("HEAD", key, new HashMap<>(), S3RequestSigner.EMPTY_PAYLOAD_HASH);
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                return false;
+            }
+            checkStatus(connection, "HEAD", key);
+            return true;
+        } catch (IOException e) {
+            String err = format(COULD_NOT_CHECK_CONTENT_ERROR, key, e.getMessage());
+            log.error("[S3ContentStore.exists] " + err);
+            throw new StorageException(err);
+        }
+    }
+
+    private HttpURLConnection open(String method, String key, Map<String, String> headers, String payloadHash)
+            throws IOException {
+        URL url = new URL(endpoint.replaceAll("/+$", "") + "/" + bucket + "/" + key);
+        // signed as the connection will send it, which leaves the default port out
+        boolean defaultPort = url.getPort() < 0 || url.getPort() == url.getDefaultPort();
+        headers.put(HOST_HEADER, defaultPort ? url.getHost() : url.getHost() + ":" + url.getPort());
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        signer.sign(method, url.getPath(), headers, payloadHash, Instant.now()).forEach((name, value) -> {
+            if (!HOST_HEADER.equalsIgnoreCase(name)) {
+                connection.setRequestProperty(name, value);
+            }
+        });
+        return connection;
+    }
+
+    private void checkStatus(HttpURLConnection connection, String method, String key) throws IOException {
+        int status = connection.getResponseCode();
+        if (status / 100 != 2) {
+            InputStream error = connection.getErrorStream();
+            String detail = error == null ? "" : ": " + IOUtils.toString(error, "UTF-8");
+            connection.disconnect();
+            throw new IOException(format(UNEXPECTED_STATUS_ERROR, status, method, key) + detail);
+        }
+    }
+
+}
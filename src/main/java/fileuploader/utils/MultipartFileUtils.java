@@ -30,7 +30,18 @@ public abstract class MultipartFileUtils {
             throw new StorageException(err);
         }
 
-        String filename = StringUtils.cleanPath(multipartFile.getOriginalFilename());
+        validateFilename(multipartFile.getOriginalFilename());
+    }
+
+    /**
+     * Strips the prefix clients put in front of the original filename, up to the last underscore.
+     */
+    public static String extractOriginalFilename(String filename) {
+        return filename.contains("_") ? filename.substring(filename.lastIndexOf("_") + 1) : filename;
+    }
+
+    public static void validateFilename(String originalFilename) {
+        String filename = StringUtils.cleanPath(originalFilename);
         if (filename.contains("..")) {
             String err = String.format(SECURITY_CHECK_MSG, filename);
             log.error(PREFIX + err);
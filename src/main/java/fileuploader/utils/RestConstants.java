@@ -7,12 +7,26 @@ public final class RestConstants {
 
     public static final String FILE_UPLOAD_URL_SERVICE = "/api/files";
     public static final String ID_PATH_VARIABLE = "/{id}";
+    public static final String EXPORT_PATH = "/export";
+    public static final String ARCHIVE_PATH = "/archive";
+    public static final String USER_ID_PATH_VARIABLE = "/{userId}";
+    public static final String USER_FILE_PATH_VARIABLES = "/{userId}/{filename:.+}";
 
     public static final String ID_PARAM = "id";
+    public static final String IDS_PARAM = "ids";
     public static final String USER_ID_PARAM = "userId";
     public static final String FILE_PARAM = "file";
+    public static final String FILENAME_PARAM = "filename";
+    public static final String STATUS_PARAM = "status";
+    public static final String AFTER_PARAM = "after";
+    public static final String LIMIT_PARAM = "limit";
 
     public static final String CONTENT_RANGE_HEADER = "Content-Range";
+    public static final String RANGE_HEADER = "Range";
+    public static final String IF_RANGE_HEADER = "If-Range";
+    public static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+    public static final String UPLOAD_OFFSET_HEADER = "Upload-Offset";
+    public static final String UPLOAD_LENGTH_HEADER = "Upload-Length";
 
     private RestConstants() {
         throw new IllegalStateException("Utility class");
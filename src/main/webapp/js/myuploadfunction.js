@@ -22,7 +22,8 @@ $(document).ready(function () {
 
 $(function () {
     $('#fileupload').bind('fileuploadsubmit', function (e, data) {
-        data.formData = {userId: $('#userId').val()};
+        // in the query string rather than the form, so admission control can tell whose upload it is
+        data.url = '/api/files?userId=' + encodeURIComponent($('#userId').val());
     });
 
     $('#fileupload').fileupload({
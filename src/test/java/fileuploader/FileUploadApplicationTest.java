@@ -1,7 +1,17 @@
 package fileuploader;
 
+import fileuploader.domain.StoredContent;
 import fileuploader.domain.UploadedFile;
+import fileuploader.enums.ContentCodec;
+import fileuploader.enums.FileUploadStatus;
+import fileuploader.projection.UploadedFileInfo;
+import fileuploader.repositories.StoredContentRepository;
 import fileuploader.repositories.UploadedFileRepository;
+import fileuploader.services.StorageService;
+import fileuploader.services.UploadAdmissionControl;
+import fileuploader.services.UploadJanitor;
+import fileuploader.storage.ContentStore;
+import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -9,49 +19,118 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import static fileuploader.enums.FileUploadStatus.COMPLETED;
+import static fileuploader.enums.FileUploadStatus.FAILED;
+import static fileuploader.enums.FileUploadStatus.FINALIZING;
+import static fileuploader.enums.FileUploadStatus.PENDING;
+import static fileuploader.utils.RestConstants.ACCEPT_ENCODING_HEADER;
+import static fileuploader.utils.RestConstants.ARCHIVE_PATH;
 import static fileuploader.utils.RestConstants.CONTENT_RANGE_HEADER;
+import static fileuploader.utils.RestConstants.EXPORT_PATH;
 import static fileuploader.utils.RestConstants.FILE_UPLOAD_URL_SERVICE;
+import static fileuploader.utils.RestConstants.ID_PATH_VARIABLE;
+import static fileuploader.utils.RestConstants.RANGE_HEADER;
+import static fileuploader.utils.RestConstants.UPLOAD_LENGTH_HEADER;
+import static fileuploader.utils.RestConstants.UPLOAD_OFFSET_HEADER;
+import static fileuploader.utils.RestConstants.USER_FILE_PATH_VARIABLES;
 import static fileuploader.utils.RestConstants.USER_ID_PARAM;
+import static fileuploader.utils.RestConstants.USER_ID_PATH_VARIABLE;
 import static java.lang.Integer.valueOf;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.fileUpload;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, classes = FileUploadApplication.class)
 @AutoConfigureMockMvc
-@TestPropertySource(properties = {"upload.tmp.directory=fileuploader_test", "upload.max.chunk.size.bytes=1"})
+@TestPropertySource(properties = {"upload.tmp.directory=fileuploader_test", "upload.max.chunk.size.bytes=1",
+        "storage.filesystem.directory=fileuploader_test_store", "download.sendfile.min.size.bytes=0",
+        "upload.finalization.async.enabled=false"})
 public class FileUploadApplicationTest {
 
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private StorageService storageService;
+
     @Autowired
     private UploadedFileRepository repository;
 
+    @Autowired
+    private StoredContentRepository storedContentRepository;
+
+    @Autowired
+    private ContentStore contentStore;
+
+    @Autowired
+    private UploadJanitor uploadJanitor;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private UploadAdmissionControl admissionControl;
+
     @Value("${upload.max.chunk.size.bytes}")
     private String maxChunkSize;
 
     @Before
     public void setup() throws IOException {
         repository.deleteAll();
+        storedContentRepository.deleteAll();
     }
 
     @Test
@@ -89,11 +168,186 @@ public class FileUploadApplicationTest {
         assertEquals(result.get(0).getFilename(), filename);
         assertEquals(result.get(0).getUserId(), "userId");
         assertEquals(result.get(0).getStatus(), COMPLETED);
-        assertTrue(Arrays.equals(result.get(0).getContent(), bytes));
+        assertTrue(Arrays.equals(readContent(result.get(0)), bytes));
         assertEquals(result.get(0).getChunks().intValue(), chunks.intValue());
 
     }
 
+    @Test
+    public void uploadShouldReturnSuccessfullyForOutOfOrderAndRetriedChunks() throws Exception {
+        //given
+        byte[] bytes = "1234".getBytes();
+        String filename = "123456_shuffled.pdf";
+
+        //when
+        for (int i : new int[]{3, 1, 0, 1, 2}) {
+            MockMultipartFile file = dummyMultipartFile(filename, Arrays.copyOfRange(bytes, i, i + 1));
+
+            mockMvc.perform(
+                    fileUpload(FILE_UPLOAD_URL_SERVICE)
+                            .file(file)
+                            .header(CONTENT_RANGE_HEADER, "bytes " + i + "-" + i + "/" + bytes.length)
+                            .param(USER_ID_PARAM, "userId"))
+                    .andExpect(status().isOk());
+        }
+
+        //then
+        List<UploadedFile> result = new ArrayList<>();
+        repository.findAll().forEach(result::add);
+
+        assertEquals(result.size(), 1);
+        assertEquals(result.get(0).getStatus(), COMPLETED);
+        assertTrue(Arrays.equals(readContent(result.get(0)), bytes));
+    }
+
+    @Test
+    public void uploadShouldKeepASingleRecordWhenChunksArriveConcurrently() throws Exception {
+        //given
+        byte[] bytes = "0123456789abcdef".getBytes();
+        String filename = "123456_concurrent.pdf";
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        //when
+        List<Future<?>> uploads = new ArrayList<>();
+        for (int i = 0; i < bytes.length; i++) {
+            int offset = i;
+            uploads.add(executor.submit(() -> mockMvc.perform(
+                    fileUpload(FILE_UPLOAD_URL_SERVICE)
+                            .file(dummyMultipartFile(filename, Arrays.copyOfRange(bytes, offset, offset + 1)))
+                            .header(CONTENT_RANGE_HEADER, "bytes " + offset + "-" + offset + "/" + bytes.length)
+                            .param(USER_ID_PARAM, "userId"))
+                    .andExpect(status().isOk())));
+        }
+        for (Future<?> upload : uploads) {
+            upload.get();
+        }
+        executor.shutdown();
+
+        //then
+        List<UploadedFile> result = new ArrayList<>();
+        repository.findAll().forEach(result::add);
+
+        assertEquals(result.size(), 1);
+        assertEquals(result.get(0).getStatus(), COMPLETED);
+        assertTrue(Arrays.equals(readContent(result.get(0)), bytes));
+    }
+
+    @Test
+    public void uploadShouldUpdateExistingRecordWhenFileIsUploadedAgain() throws Exception {
+        //given
+        String filename = "123456_again.pdf";
+        mockMvc.perform(
+                fileUpload(FILE_UPLOAD_URL_SERVICE)
+                        .file(dummyMultipartFile(filename, "1234".getBytes()))
+                        .param(USER_ID_PARAM, "userId"))
+                .andExpect(status().isOk());
+        UploadedFile first = repository.findAll().iterator().next();
+
+        //when
+        mockMvc.perform(
+                fileUpload(FILE_UPLOAD_URL_SERVICE)
+                        .file(dummyMultipartFile(filename, "567".getBytes()))
+                        .param(USER_ID_PARAM, "userId"))
+                .andExpect(status().isOk());
+
+        //then
+        List<UploadedFile> result = new ArrayList<>();
+        repository.findAll().forEach(result::add);
+
+        assertEquals(result.size(), 1);
+        assertEquals(result.get(0).getId(), first.getId());
+        assertEquals(result.get(0).getCreatedAt(), first.getCreatedAt());
+        assertEquals(result.get(0).getSize().longValue(), 3L);
+        assertTrue(Arrays.equals(readContent(result.get(0)), "567".getBytes()));
+    }
+
+    @Test
+    public void uploadShouldShareStoredContentBetweenIdenticalFiles() throws Exception {
+        //given
+        mockMvc.perform(
+                fileUpload(FILE_UPLOAD_URL_SERVICE)
+                        .file(dummyMultipartFile("1_first.pdf", "1234".getBytes()))
+                        .param(USER_ID_PARAM, "userA"))
+                .andExpect(status().isOk());
+
+        //when
+        mockMvc.perform(
+                fileUpload(FILE_UPLOAD_URL_SERVICE)
+                        .file(dummyMultipartFile("2_second.pdf", "1234".getBytes()))
+                        .param(USER_ID_PARAM, "userB"))
+                .andExpect(status().isOk());
+
+        //then
+        List<UploadedFile> result = new ArrayList<>();
+        repository.findAll().forEach(result::add);
+        List<StoredContent> contents = new ArrayList<>();
+        storedContentRepository.findAll().forEach(contents::add);
+
+        assertEquals(result.size(), 2);
+        assertEquals(result.get(0).getStorageKey(), result.get(1).getStorageKey());
+        assertEquals(result.get(0).getContentHash(), result.get(1).getContentHash());
+        assertEquals(contents.size(), 1);
+        assertEquals(contents.get(0).getStorageKey(), result.get(0).getStorageKey());
+        assertEquals(contents.get(0).getReferenceCount().intValue(), 2);
+        assertTrue(Arrays.equals(readContent(result.get(1)), "1234".getBytes()));
+    }
+
+    @Test
+    public void uploadShouldFinalizeInBackgroundWhenAsyncFinalizationIsEnabled() throws Exception {
+        //given
+        byte[] bytes = "1234".getBytes();
+        String filename = "123456_async.pdf";
+        Object service = AopTestUtils.getTargetObject(storageService);
+        ReflectionTestUtils.setField(service, "asyncFinalization", true);
+
+        try {
+            //when
+            mockMvc.perform(
+                    fileUpload(FILE_UPLOAD_URL_SERVICE)
+                            .file(dummyMultipartFile(filename, bytes))
+                            .param(USER_ID_PARAM, "userId"))
+                    .andExpect(status().isAccepted());
+
+            //then
+            UploadedFile uploadedFile = repository.findAll().iterator().next();
+            for (int i = 0; i < 100 && uploadedFile.getStatus() != COMPLETED; i++) {
+                Thread.sleep(50);
+                uploadedFile = repository.findOne(uploadedFile.getId());
+            }
+
+            assertEquals(uploadedFile.getStatus(), COMPLETED);
+            assertTrue(Arrays.equals(readContent(uploadedFile), bytes));
+        } finally {
+            ReflectionTestUtils.setField(service, "asyncFinalization", false);
+        }
+    }
+
+    @Test
+    public void uploadContentShouldAssembleRawBodyChunks() throws Exception {
+        //given
+        byte[] bytes = "1234".getBytes();
+        String filename = "123456_raw.pdf";
+
+        //when
+        for (int i : new int[]{2, 0, 3, 1}) {
+            mockMvc.perform(
+                    put(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, "userId", filename)
+                            .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                            .header(CONTENT_RANGE_HEADER, "bytes " + i + "-" + i + "/" + bytes.length)
+                            .content(Arrays.copyOfRange(bytes, i, i + 1)))
+                    .andExpect(status().isOk());
+        }
+
+        //then
+        List<UploadedFile> result = new ArrayList<>();
+        repository.findAll().forEach(result::add);
+
+        assertEquals(result.size(), 1);
+        assertEquals(result.get(0).getFilename(), filename);
+        assertEquals(result.get(0).getStatus(), COMPLETED);
+        assertTrue(Arrays.equals(readContent(result.get(0)), bytes));
+    }
+
     @Test
     public void uploadShouldReturnSuccessfullyForMultipartTransfer() throws Exception {
         //given
@@ -118,7 +372,7 @@ public class FileUploadApplicationTest {
         assertEquals(result.get(0).getFilename(), filename);
         assertEquals(result.get(0).getUserId(), "userId");
         assertEquals(result.get(0).getStatus(), COMPLETED);
-        assertTrue(Arrays.equals(result.get(0).getContent(), bytes));
+        assertTrue(Arrays.equals(readContent(result.get(0)), bytes));
         assertEquals(result.get(0).getChunks().intValue(), 1);
 
     }
@@ -133,7 +387,7 @@ public class FileUploadApplicationTest {
                 .createdAt(Instant.now())
                 .lastModifiedAt(Instant.now().plusMillis(1000))
                 .chunks(1)
-                .content("bytes".getBytes())
+                .size(4L)
                 .build();
 
         repository.save(uploadedFile);
@@ -151,14 +405,523 @@ public class FileUploadApplicationTest {
                 .andExpect(jsonPath("$[0].status").value("Completed"))
                 .andExpect(jsonPath("$[0].uploadedTimeInMilliseconds").exists())
                 .andExpect(jsonPath("$[0].chunks").value("1"))
+                .andExpect(jsonPath("$[0].size").value(4))
                 .andExpect(jsonPath("$[0].inputStream").doesNotExist())
                 .andExpect(jsonPath("$[0].links.rel").value("uploadedFile"))
                 .andExpect(jsonPath("$[0].links.href").exists());
 
     }
 
+    @Test
+    public void getUploadedFilesShouldWalkPagesInOrderAndApplyFilters() throws Exception {
+        //given
+        saveUploadedFile("userB", "1_b.pdf", COMPLETED);
+        saveUploadedFile("userA", "2_c.pdf", PENDING);
+        saveUploadedFile("userA", "1_a.pdf", COMPLETED);
+        saveUploadedFile("userB", "2_a.pdf", COMPLETED);
+
+        //when
+        MvcResult firstPage = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE)
+                        .param("limit", "3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].filename").value("a.pdf"))
+                .andExpect(jsonPath("$[1].filename").value("c.pdf"))
+                .andExpect(jsonPath("$[2].userId").value("userB"))
+                .andExpect(jsonPath("$[2].filename").value("b.pdf"))
+                .andReturn();
+
+        String nextPage = firstPage.getResponse().getHeader(HttpHeaders.LINK);
+        nextPage = nextPage.substring(nextPage.indexOf('<') + 1, nextPage.indexOf('>'));
+
+        //then
+        mockMvc.perform(get(nextPage))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].userId").value("userB"))
+                .andExpect(jsonPath("$[0].filename").value("a.pdf"))
+                .andExpect(header().doesNotExist(HttpHeaders.LINK));
+
+        mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE)
+                        .param("userId", "userA")
+                        .param("status", "completed"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].userId").value("userA"))
+                .andExpect(jsonPath("$[0].filename").value("a.pdf"));
+    }
+
+    @Test
+    public void exportUploadedFilesShouldStreamEveryMatchingFileInOrder() throws Exception {
+        //given
+        saveUploadedFile("userB", "1_b.pdf", COMPLETED);
+        saveUploadedFile("userA", "2_c.pdf", PENDING);
+        saveUploadedFile("userA", "1_a.pdf", COMPLETED);
+
+        //when
+        mockMvc.perform(get(FILE_UPLOAD_URL_SERVICE + EXPORT_PATH))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].userId").value("userA"))
+                .andExpect(jsonPath("$[0].filename").value("a.pdf"))
+                .andExpect(jsonPath("$[1].filename").value("c.pdf"))
+                .andExpect(jsonPath("$[1].status").value("Pending"))
+                .andExpect(jsonPath("$[2].userId").value("userB"))
+                .andExpect(jsonPath("$[2].links.href").exists());
+
+        //then
+        mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + EXPORT_PATH)
+                        .param("status", "completed"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].filename").value("a.pdf"))
+                .andExpect(jsonPath("$[1].filename").value("b.pdf"));
+    }
+
+    @Test
+    public void getUploadedFileShouldStreamRequestedRange() throws Exception {
+        //given
+        UploadedFile uploadedFile = UploadedFile.builder()
+                .userId("userId")
+                .filename("123_test.txt")
+                .status(COMPLETED)
+                .createdAt(Instant.now())
+                .lastModifiedAt(Instant.now())
+                .chunks(1)
+                .size(10L)
+                .storageKey(storeContent("0123456789".getBytes()))
+                .build();
+
+        uploadedFile = repository.save(uploadedFile);
+
+        //when
+        final ResultActions resultActions = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, uploadedFile.getId())
+                        .header(RANGE_HEADER, "bytes=2-5"))
+                .andExpect(status().isPartialContent());
+
+        //then
+        resultActions
+                .andExpect(header().string("Content-Range", "bytes 2-5/10"))
+                .andExpect(content().string("2345"));
+
+    }
+
+    @Test
+    public void getUploadedFileShouldServeContentThroughTheContainer() throws Exception {
+        //given
+        UploadedFile uploadedFile = UploadedFile.builder()
+                .userId("userId")
+                .filename("123_test.txt")
+                .status(COMPLETED)
+                .createdAt(Instant.now())
+                .lastModifiedAt(Instant.now())
+                .chunks(1)
+                .size(10L)
+                .storageKey(storeContent("0123456789".getBytes()))
+                .build();
+
+        uploadedFile = repository.save(uploadedFile);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(RANGE_HEADER, "bytes=3-");
+
+        //when
+        ResponseEntity<String> whole = restTemplate.getForEntity(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE,
+                String.class, uploadedFile.getId());
+        ResponseEntity<String> partial = restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE,
+                HttpMethod.GET, new HttpEntity<>(headers), String.class, uploadedFile.getId());
+
+        //then
+        assertEquals(whole.getStatusCode(), HttpStatus.OK);
+        assertEquals(whole.getBody(), "0123456789");
+        assertEquals(partial.getStatusCode(), HttpStatus.PARTIAL_CONTENT);
+        assertEquals(partial.getBody(), "3456789");
+    }
+
+    @Test
+    public void uploadShouldCompressTextContentAndDecodeItOnDownload() throws Exception {
+        //given
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("2017-11-23 10:00:00 INFO line ").append(i).append('\n');
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, HttpMethod.PUT,
+                new HttpEntity<>(text.toString().getBytes(), headers), String.class, "userId", "app.log");
+        UploadedFile uploadedFile = repository.findAll().iterator().next();
+
+        HttpHeaders rangeHeaders = new HttpHeaders();
+        rangeHeaders.set(RANGE_HEADER, "bytes=30-59");
+
+        //when
+        ResponseEntity<String> whole = restTemplate.getForEntity(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE,
+                String.class, uploadedFile.getId());
+        ResponseEntity<String> partial = restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE,
+                HttpMethod.GET, new HttpEntity<>(rangeHeaders), String.class, uploadedFile.getId());
+
+        //then
+        assertEquals(uploadedFile.getCodec(), ContentCodec.GZIP);
+        assertEquals(uploadedFile.getSize().longValue(), text.length());
+        assertTrue(uploadedFile.getStoredSize() < text.length() / 4);
+        assertEquals(whole.getBody(), text.toString());
+        assertEquals(partial.getBody(), text.substring(30, 60));
+    }
+
+    @Test
+    public void getArchiveShouldZipEveryCompletedFileOfUser() throws Exception {
+        //given
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("2017-11-23 10:00:00 INFO line ").append(i).append('\n');
+        }
+        byte[] jpeg = new byte[4096];
+        new Random(1).nextBytes(jpeg);
+        jpeg[0] = (byte) 0xFF;
+        jpeg[1] = (byte) 0xD8;
+        jpeg[2] = (byte) 0xFF;
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, HttpMethod.PUT,
+                new HttpEntity<>(text.toString().getBytes(), headers), String.class, "userId", "app.log");
+        restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, HttpMethod.PUT,
+                new HttpEntity<>(jpeg, headers), String.class, "userId", "photo.jpg");
+        saveUploadedFile("userId", "pending.txt", PENDING);
+
+        //when
+        ResponseEntity<byte[]> response = restTemplate.getForEntity(FILE_UPLOAD_URL_SERVICE + ARCHIVE_PATH + "?userId={userId}",
+                byte[].class, "userId");
+
+        //then
+        assertEquals(response.getStatusCode(), HttpStatus.OK);
+        assertEquals(response.getHeaders().getContentType().toString(), "application/zip");
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(response.getBody()))) {
+            ZipEntry entry = zip.getNextEntry();
+            assertEquals(entry.getName(), "app.log");
+            assertEquals(entry.getMethod(), ZipEntry.DEFLATED);
+            assertEquals(IOUtils.toString(zip, "UTF-8"), text.toString());
+
+            entry = zip.getNextEntry();
+            assertEquals(entry.getName(), "photo.jpg");
+            assertEquals(entry.getMethod(), ZipEntry.STORED);
+            assertTrue(Arrays.equals(IOUtils.toByteArray(zip), jpeg));
+
+            assertNull(zip.getNextEntry());
+        }
+    }
+
+    @Test
+    public void downloadShouldSendCompressedContentAsIsWhenClientAcceptsGzip() throws Exception {
+        //given
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("2017-11-23 10:00:00 INFO line ").append(i).append('\n');
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, HttpMethod.PUT,
+                new HttpEntity<>(text.toString().getBytes(), headers), String.class, "userId", "app.log");
+        UploadedFile uploadedFile = repository.findAll().iterator().next();
+
+        HttpHeaders gzipHeaders = new HttpHeaders();
+        gzipHeaders.set(ACCEPT_ENCODING_HEADER, "gzip");
+
+        //when
+        ResponseEntity<byte[]> response = restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE,
+                HttpMethod.GET, new HttpEntity<>(gzipHeaders), byte[].class, uploadedFile.getId());
+
+        //then
+        assertEquals(response.getStatusCode(), HttpStatus.OK);
+        assertEquals(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING), "gzip");
+        assertEquals(response.getBody().length, uploadedFile.getStoredSize().intValue());
+        assertEquals(IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(response.getBody())), "UTF-8"),
+                text.toString());
+    }
+
+    @Test
+    public void downloadShouldBeConditionalOnContentHash() throws Exception {
+        //given
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, HttpMethod.PUT,
+                new HttpEntity<>("test".getBytes(), headers), String.class, "userId", "etag.txt");
+        UploadedFile uploadedFile = repository.findAll().iterator().next();
+
+        HttpHeaders conditionalHeaders = new HttpHeaders();
+        conditionalHeaders.setIfNoneMatch("\"" + uploadedFile.getContentHash() + "\"");
+
+        //when
+        ResponseEntity<Void> head = restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE,
+                HttpMethod.HEAD, null, Void.class, uploadedFile.getId());
+        ResponseEntity<String> conditional = restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE,
+                HttpMethod.GET, new HttpEntity<>(conditionalHeaders), String.class, uploadedFile.getId());
+
+        //then
+        assertEquals(head.getStatusCode(), HttpStatus.OK);
+        assertEquals(head.getHeaders().getContentLength(), 4L);
+        assertEquals(head.getHeaders().getETag(), "\"" + uploadedFile.getContentHash() + "\"");
+        assertEquals(head.getHeaders().getLastModified() / 1000, uploadedFile.getLastModifiedAt().getEpochSecond());
+        assertEquals(conditional.getStatusCode(), HttpStatus.NOT_MODIFIED);
+        assertNull(conditional.getBody());
+    }
+
+    @Test
+    public void getUploadedFilesShouldBeModifiedSinceLastListingWhenAnUploadStarts() throws Exception {
+        //given
+        repository.save(UploadedFile.builder()
+                .userId("userId")
+                .filename("listed.txt")
+                .status(COMPLETED)
+                .createdAt(Instant.now().minusSeconds(20))
+                .lastModifiedAt(Instant.now().minusSeconds(10))
+                .chunks(1)
+                .build());
+        ResponseEntity<String> listing = restTemplate.getForEntity(FILE_UPLOAD_URL_SERVICE, String.class);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.set(CONTENT_RANGE_HEADER, "bytes 0-0/2");
+        restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, HttpMethod.PUT,
+                new HttpEntity<>("1".getBytes(), headers), String.class, "userId", "started.txt");
+
+        HttpHeaders conditionalHeaders = new HttpHeaders();
+        conditionalHeaders.setIfModifiedSince(listing.getHeaders().getLastModified());
+
+        //when
+        ResponseEntity<String> conditional = restTemplate.exchange(FILE_UPLOAD_URL_SERVICE, HttpMethod.GET,
+                new HttpEntity<>(conditionalHeaders), String.class);
+
+        //then
+        assertEquals(listing.getStatusCode(), HttpStatus.OK);
+        assertEquals(conditional.getStatusCode(), HttpStatus.OK);
+        assertTrue(conditional.getHeaders().getLastModified() > listing.getHeaders().getLastModified());
+        assertTrue(conditional.getBody().contains("started.txt"));
+    }
+
+    @Test
+    public void unfinishedUploadsCreatedBeforeCutoffShouldBeFoundOldestFirst() throws Exception {
+        //given
+        Instant now = Instant.now();
+        Instant oldest = now.minusSeconds(7 * 24 * 3600);
+        saveUploadedFile("recent.txt", PENDING, now.minusSeconds(60));
+        saveUploadedFile("oldest.txt", PENDING, oldest);
+        saveUploadedFile("older.txt", FINALIZING, now.minusSeconds(3 * 3600));
+        saveUploadedFile("failed.txt", FAILED, now.minusSeconds(5 * 3600));
+        saveUploadedFile("new.txt", PENDING, now.plusSeconds(60));
+
+        //when
+        List<UploadedFileInfo> unfinished = repository.findByStatusInAndCreatedAtBeforeOrderByCreatedAtAsc(
+                Arrays.asList(PENDING, FINALIZING), now, new PageRequest(0, 2));
+
+        //then
+        assertEquals(unfinished.size(), 2);
+        assertEquals(unfinished.get(0).getFilename(), "oldest.txt");
+        assertEquals(unfinished.get(1).getFilename(), "older.txt");
+        assertEquals(jdbcTemplate.queryForObject("SELECT created_at FROM " + UploadedFile.TABLE_NAME +
+                " WHERE filename = 'oldest.txt'", Timestamp.class), Timestamp.from(oldest));
+    }
+
+    @Test
+    public void janitorShouldFailAbandonedUploadsAndDeleteTheirTempFiles() throws Exception {
+        //given
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.set(CONTENT_RANGE_HEADER, "bytes 0-0/2");
+        restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, HttpMethod.PUT,
+                new HttpEntity<>("1".getBytes(), headers), String.class, "userId", "abandoned.txt");
+        Path tempFile = Paths.get(System.getProperty("user.home"), "fileuploader_test", "userId_abandoned.txt");
+        assertTrue(Files.exists(tempFile));
+
+        ReflectionTestUtils.setField(uploadJanitor, "idleTimeoutSeconds", "0");
+        Thread.sleep(10);
+
+        //when
+        try {
+            uploadJanitor.sweep();
+        } finally {
+            ReflectionTestUtils.setField(uploadJanitor, "idleTimeoutSeconds", "3600");
+        }
+
+        //then
+        UploadedFile uploadedFile = repository.findAll().iterator().next();
+        assertEquals(uploadedFile.getStatus(), FileUploadStatus.FAILED);
+        assertEquals(uploadedFile.getRootCause(), "Upload abandoned: no chunk received for 0 seconds");
+        assertFalse(Files.exists(tempFile));
+    }
+
+    @Test
+    public void uploadShouldReturnHttpStatus429WhenNotAdmitted() throws Exception {
+        //given
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        ReflectionTestUtils.setField(admissionControl, "maxUploads", "0");
+
+        //when
+        ResponseEntity<String> response;
+        try {
+            response = restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, HttpMethod.PUT,
+                    new HttpEntity<>("1".getBytes(), headers), String.class, "userId", "rejected.txt");
+        } finally {
+            ReflectionTestUtils.setField(admissionControl, "maxUploads", "64");
+        }
+
+        //then
+        assertEquals(response.getStatusCode(), HttpStatus.TOO_MANY_REQUESTS);
+        assertEquals(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER), "1");
+        assertFalse(repository.findAll().iterator().hasNext());
+        assertEquals(admissionControl.getUploads(), 0);
+    }
+
+    @Test
+    public void uploadShouldReturnHttpStatus429WhenUploadsWithUserIdInFormAreOverUserLimit() throws Exception {
+        //given
+        MultiValueMap<String, Object> parts = new LinkedMultiValueMap<>();
+        parts.add(USER_ID_PARAM, "userId");
+        parts.add("file", namedResource("form.txt", "form"));
+        ReflectionTestUtils.setField(admissionControl, "maxUserUploads", "0");
+
+        //when
+        ResponseEntity<String> response;
+        try {
+            response = restTemplate.postForEntity(FILE_UPLOAD_URL_SERVICE, new HttpEntity<>(parts), String.class);
+        } finally {
+            ReflectionTestUtils.setField(admissionControl, "maxUserUploads", "8");
+        }
+
+        //then
+        assertEquals(response.getStatusCode(), HttpStatus.TOO_MANY_REQUESTS);
+        assertEquals(response.getBody(), "Too many uploads in progress for uploads without userId. " +
+                "Max uploads in progress: 0");
+        assertFalse(repository.findAll().iterator().hasNext());
+        assertEquals(admissionControl.getUploads(), 0);
+    }
+
+    @Test
+    public void uploadShouldBeResumedFromOffsetReturnedByHead() throws Exception {
+        //given
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.set(CONTENT_RANGE_HEADER, "bytes 0-0/2");
+        restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, HttpMethod.PUT,
+                new HttpEntity<>("1".getBytes(), headers), String.class, "userId", "resumed.txt");
+
+        //when
+        ResponseEntity<Void> progress = restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES,
+                HttpMethod.HEAD, null, Void.class, "userId", "resumed.txt");
+        long offset = Long.valueOf(progress.getHeaders().getFirst(UPLOAD_OFFSET_HEADER));
+        headers.set(CONTENT_RANGE_HEADER, "bytes " + offset + "-1/2");
+        ResponseEntity<String> resumed = restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES,
+                HttpMethod.PUT, new HttpEntity<>("2".getBytes(), headers), String.class, "userId", "resumed.txt");
+        ResponseEntity<Void> finished = restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES,
+                HttpMethod.HEAD, null, Void.class, "userId", "resumed.txt");
+
+        //then
+        assertEquals(progress.getStatusCode(), HttpStatus.OK);
+        assertEquals(offset, 1L);
+        assertEquals(progress.getHeaders().getFirst(UPLOAD_LENGTH_HEADER), "2");
+        assertEquals(resumed.getStatusCode(), HttpStatus.OK);
+        assertEquals(finished.getStatusCode(), HttpStatus.NOT_FOUND);
+
+        UploadedFile uploadedFile = repository.findAll().iterator().next();
+        assertEquals(uploadedFile.getStatus(), COMPLETED);
+        assertEquals(new String(readContent(uploadedFile)), "12");
+    }
+
+    @Test
+    public void uploadBatchShouldStoreEveryFilePartInOneRequest() throws Exception {
+        //given
+        MultiValueMap<String, Object> parts = new LinkedMultiValueMap<>();
+        parts.add("file", namedResource("first.txt", "first"));
+        parts.add("file", namedResource("second.txt", "second"));
+        parts.add("file", namedResource("..bad.txt", "bad"));
+
+        //when
+        ResponseEntity<String> response = restTemplate.postForEntity(FILE_UPLOAD_URL_SERVICE + USER_ID_PATH_VARIABLE,
+                new HttpEntity<>(parts), String.class, "userId");
+
+        //then
+        assertEquals(response.getStatusCode(), HttpStatus.OK);
+        assertTrue(response.getBody().startsWith("[{\"filename\":\"first.txt\",\"status\":\"Completed\",\"size\":5}," +
+                "{\"filename\":\"second.txt\",\"status\":\"Completed\",\"size\":6}," +
+                "{\"filename\":\"..bad.txt\",\"status\":\"Failed\""));
+
+        List<UploadedFile> uploadedFiles = new ArrayList<>();
+        repository.findAll().forEach(uploadedFiles::add);
+        assertEquals(uploadedFiles.size(), 2);
+        for (UploadedFile uploadedFile : uploadedFiles) {
+            assertEquals(uploadedFile.getStatus(), COMPLETED);
+            assertNotNull(uploadedFile.getCreatedAt());
+            assertEquals(new String(readContent(uploadedFile)),
+                    uploadedFile.getFilename().equals("first.txt") ? "first" : "second");
+        }
+    }
+
+    @Test
+    public void prometheusEndpointShouldExposeUploadMetrics() throws Exception {
+        //given
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        restTemplate.exchange(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, HttpMethod.PUT,
+                new HttpEntity<>("1".getBytes(), headers), String.class, "userId", "metrics.txt");
+
+        //when
+        ResponseEntity<String> response = restTemplate.getForEntity("/prometheus", String.class);
+
+        //then
+        assertEquals(response.getStatusCode(), HttpStatus.OK);
+        assertTrue(response.getBody().contains("upload_stage_seconds_bucket{stage=\"temp_write\""));
+        assertTrue(response.getBody().contains("upload_requests_seconds_count{outcome=\"completed\",}"));
+        assertTrue(response.getBody().contains("upload_bytes_in_bytes_total"));
+        assertTrue(response.getBody().contains("upload_in_flight"));
+        assertTrue(response.getBody().contains("upload_tmp_bytes"));
+    }
+
+    private String storeContent(byte[] bytes) throws IOException {
+        Path source = Files.createTempFile("fileuploader", ".tmp");
+        Files.write(source, bytes);
+        return contentStore.put(source);
+    }
+
+    private byte[] readContent(UploadedFile uploadedFile) throws IOException {
+        try (InputStream inputStream = contentStore.get(uploadedFile.getStorageKey(), 0, uploadedFile.getSize())) {
+            return IOUtils.toByteArray(inputStream);
+        }
+    }
+
+    private ByteArrayResource namedResource(String filename, String content) {
+        return new ByteArrayResource(content.getBytes()) {
+            @Override
+            public String getFilename() {
+                return filename;
+            }
+        };
+    }
+
     private MockMultipartFile dummyMultipartFile(String filename, byte[] bytes) {
         return new MockMultipartFile("file", filename, "image/jpeg", bytes);
     }
 
-}
\ No newline at end of file
+    private void saveUploadedFile(String userId, String filename, FileUploadStatus status) {
+        repository.save(UploadedFile.builder()
+                .userId(userId)
+                .filename(filename)
+                .status(status)
+                .createdAt(Instant.now())
+                .chunks(1)
+                .build());
+    }
+
+    private void saveUploadedFile(String filename, FileUploadStatus status, Instant createdAt) {
+        repository.save(UploadedFile.builder()
+                .userId("userId")
+                .filename(filename)
+                .status(status)
+                .createdAt(createdAt)
+                .build());
+    }
+
+}
@@ -1,8 +1,16 @@
 package fileuploader.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fileuploader.controller.resources.BatchUploadResultResource;
 import fileuploader.controller.resources.DownloadableFileResource;
+import fileuploader.controller.resources.UploadProgressResource;
+import fileuploader.controller.resources.UploadedFilePageResource;
 import fileuploader.controller.resources.UploadedFileResource;
+import fileuploader.domain.ContentRange;
+import fileuploader.domain.UploadPart;
+import fileuploader.domain.UploadedFileCursor;
 import fileuploader.exceptions.ResourceNotFoundException;
+import fileuploader.metrics.UploadMetrics;
 import fileuploader.services.StorageService;
 import org.apache.commons.io.IOUtils;
 import org.junit.Before;
@@ -11,6 +19,10 @@ import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.util.ReflectionTestUtils;
@@ -19,24 +31,61 @@ import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import static fileuploader.enums.FileUploadStatus.COMPLETED;
+import static fileuploader.enums.FileUploadStatus.FINALIZING;
+import static fileuploader.enums.FileUploadStatus.PENDING;
+import static fileuploader.utils.RestConstants.ACCEPT_ENCODING_HEADER;
+import static fileuploader.utils.RestConstants.AFTER_PARAM;
+import static fileuploader.utils.RestConstants.ARCHIVE_PATH;
 import static fileuploader.utils.RestConstants.CONTENT_RANGE_HEADER;
+import static fileuploader.utils.RestConstants.EXPORT_PATH;
 import static fileuploader.utils.RestConstants.FILE_UPLOAD_URL_SERVICE;
+import static fileuploader.utils.RestConstants.IDS_PARAM;
 import static fileuploader.utils.RestConstants.ID_PATH_VARIABLE;
+import static fileuploader.utils.RestConstants.IF_RANGE_HEADER;
+import static fileuploader.utils.RestConstants.LIMIT_PARAM;
+import static fileuploader.utils.RestConstants.RANGE_HEADER;
+import static fileuploader.utils.RestConstants.STATUS_PARAM;
+import static fileuploader.utils.RestConstants.UPLOAD_LENGTH_HEADER;
+import static fileuploader.utils.RestConstants.UPLOAD_OFFSET_HEADER;
+import static fileuploader.utils.RestConstants.USER_FILE_PATH_VARIABLES;
 import static fileuploader.utils.RestConstants.USER_ID_PARAM;
+import static fileuploader.utils.RestConstants.USER_ID_PATH_VARIABLE;
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
-import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.fileUpload;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -49,6 +98,12 @@ public class FileUploadControllerTest {
     @Mock
     private StorageService service;
 
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
+    @Mock
+    private UploadMetrics metrics;
+
     @InjectMocks
     private FileUploadController controller;
 
@@ -61,89 +116,778 @@ public class FileUploadControllerTest {
                 .standaloneSetup(controller)
                 .setControllerAdvice(new ControllerExceptionHandler())
                 .build();
+
+        ReflectionTestUtils.setField(controller, "defaultListLimit", "100");
+        ReflectionTestUtils.setField(controller, "maxListLimit", "1000");
+    }
+
+    @Test
+    public void getUploadedFilesShouldReturnSuccessfully() throws Exception {
+        //given
+        UploadedFileResource dummyUploadedFileResource = UploadedFileResource.builder()
+                .id(1L)
+                .userId("userId")
+                .filename("test.pdf")
+                .status(COMPLETED.getDescription())
+                .size(1024L)
+                .build();
+        when(service.findAll(null, null, null, 100)).thenReturn(dummyUploadedFilePageResource(dummyUploadedFileResource, null));
+
+        //when
+        final ResultActions resultActions = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE))
+                .andExpect(status().isOk());
+
+        //then
+        resultActions
+                .andExpect(jsonPath("$[0].id").value("1"))
+                .andExpect(jsonPath("$[0].userId").value("userId"))
+                .andExpect(jsonPath("$[0].filename").value("test.pdf"))
+                .andExpect(jsonPath("$[0].status").value("Completed"))
+                .andExpect(jsonPath("$[0].uploadedTimeInMilliseconds").doesNotExist())
+                .andExpect(jsonPath("$[0].chunks").doesNotExist())
+                .andExpect(jsonPath("$[0].size").value(1024))
+                .andExpect(jsonPath("$[0].inputStream").doesNotExist())
+                .andExpect(jsonPath("$[0].links.rel").value("uploadedFile"))
+                .andExpect(jsonPath("$[0].links.href").value("http://localhost/api/files/1"))
+                .andExpect(header().doesNotExist(HttpHeaders.LINK));
+
+        verify(service).findAll(null, null, null, 100);
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFilesShouldFilterAndLinkNextPage() throws Exception {
+        //given
+        UploadedFileResource dummyUploadedFileResource = UploadedFileResource.builder()
+                .id(1L)
+                .userId("userId")
+                .filename("test.pdf")
+                .status(COMPLETED.getDescription())
+                .build();
+        UploadedFileCursor after = new UploadedFileCursor("userId", "1_a.pdf");
+        String nextCursor = new UploadedFileCursor("userId", "2_test.pdf").encode();
+
+        when(service.findAll("userId", COMPLETED, after, 1))
+                .thenReturn(dummyUploadedFilePageResource(dummyUploadedFileResource, nextCursor));
+
+        //when
+        final ResultActions resultActions = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE)
+                        .param(USER_ID_PARAM, "userId")
+                        .param(STATUS_PARAM, "completed")
+                        .param(AFTER_PARAM, after.encode())
+                        .param(LIMIT_PARAM, "1"))
+                .andExpect(status().isOk());
+
+        //then
+        resultActions
+                .andExpect(jsonPath("$[0].id").value("1"))
+                .andExpect(header().string(HttpHeaders.LINK, "<http://localhost/api/files?userId=userId&status=completed" +
+                        "&after=" + nextCursor + "&limit=1>;rel=\"next\""));
+
+        verify(service).findAll("userId", COMPLETED, after, 1);
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFilesReturnHttpStatus304WhenPageIsNotModified() throws Exception {
+        //given
+        Instant lastModifiedAt = Instant.parse("2017-11-24T10:15:30Z");
+        UploadedFileResource dummyUploadedFileResource = UploadedFileResource.builder()
+                .id(1L)
+                .userId("userId")
+                .filename("test.pdf")
+                .status(COMPLETED.getDescription())
+                .lastModifiedAt(lastModifiedAt)
+                .build();
+        when(service.findAll(null, null, null, 100)).thenReturn(dummyUploadedFilePageResource(dummyUploadedFileResource, null));
+
+        String eTag = mockMvc.perform(get(FILE_UPLOAD_URL_SERVICE))
+                .andExpect(status().isOk())
+                .andExpect(header().dateValue(HttpHeaders.LAST_MODIFIED, lastModifiedAt.toEpochMilli()))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE)
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified())
+                .andReturn();
+
+        //then
+        assertNotNull(eTag);
+        assertEquals(mvcResult.getResponse().getHeader(HttpHeaders.ETAG), eTag);
+        assertEquals(mvcResult.getResponse().getContentAsString(), "");
+
+        verify(service, times(2)).findAll(null, null, null, 100);
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFilesShouldReturnPageWhenETagDoesNotMatch() throws Exception {
+        //given
+        UploadedFileResource dummyUploadedFileResource = UploadedFileResource.builder()
+                .id(1L)
+                .userId("userId")
+                .filename("test.pdf")
+                .status(COMPLETED.getDescription())
+                .lastModifiedAt(Instant.now())
+                .build();
+        when(service.findAll(null, null, null, 100)).thenReturn(dummyUploadedFilePageResource(dummyUploadedFileResource, null));
+
+        //when
+        final ResultActions resultActions = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE)
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"stale\""))
+                .andExpect(status().isOk());
+
+        //then
+        resultActions.andExpect(jsonPath("$[0].id").value("1"));
+
+        verify(service).findAll(null, null, null, 100);
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void exportUploadedFilesShouldStreamEveryFileWithItsLink() throws Exception {
+        //given
+        doAnswer(invocation -> {
+            Consumer<UploadedFileResource> consumer = argumentAt(invocation, 2);
+            consumer.accept(UploadedFileResource.builder().id(1L).userId("userId").filename("a.pdf").build());
+            consumer.accept(UploadedFileResource.builder().id(2L).userId("userId").filename("b.pdf").build());
+            return null;
+        }).when(service).exportAll(eq("userId"), eq(COMPLETED), any());
+
+        //when
+        final ResultActions resultActions = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + EXPORT_PATH)
+                        .param(USER_ID_PARAM, "userId")
+                        .param(STATUS_PARAM, "COMPLETED"))
+                .andExpect(status().isOk());
+
+        //then
+        resultActions
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].filename").value("a.pdf"))
+                .andExpect(jsonPath("$[0].links.href").value("http://localhost/api/files/1"))
+                .andExpect(jsonPath("$[1].filename").value("b.pdf"))
+                .andExpect(jsonPath("$[1].links.href").value("http://localhost/api/files/2"));
+
+        verify(service).exportAll(eq("userId"), eq(COMPLETED), any());
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getArchiveShouldStreamZipWithStoredAndDeflatedEntries() throws Exception {
+        //given
+        AtomicInteger photoReads = new AtomicInteger();
+        doAnswer(invocation -> {
+            BiConsumer<DownloadableFileResource, Supplier<InputStream>> consumer = argumentAt(invocation, 2);
+            consumer.accept(dummyDownloadableFileResource("photo.jpg", "jpeg data", true), () -> {
+                photoReads.incrementAndGet();
+                return new ByteArrayInputStream("jpeg data".getBytes());
+            });
+            consumer.accept(dummyDownloadableFileResource("test.pdf", "test data", false),
+                    () -> new ByteArrayInputStream("test data".getBytes()));
+            consumer.accept(dummyDownloadableFileResource("test.pdf", "more data", false),
+                    () -> new ByteArrayInputStream("more data".getBytes()));
+            return null;
+        }).when(service).exportContent(eq(Arrays.asList(1L, 2L, 3L)), eq(null), any());
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ARCHIVE_PATH)
+                        .param(IDS_PARAM, "1,2,3"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/zip"))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"files.zip\""))
+                .andReturn();
+
+        //then
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(mvcResult.getResponse().getContentAsByteArray()))) {
+            ZipEntry entry = zip.getNextEntry();
+            assertEquals(entry.getName(), "photo.jpg");
+            assertEquals(entry.getMethod(), ZipEntry.STORED);
+            assertEquals(IOUtils.toString(zip, "UTF-8"), "jpeg data");
+            assertEquals(photoReads.get(), 1);
+
+            entry = zip.getNextEntry();
+            assertEquals(entry.getName(), "test.pdf");
+            assertEquals(entry.getMethod(), ZipEntry.DEFLATED);
+            assertEquals(IOUtils.toString(zip, "UTF-8"), "test data");
+
+            entry = zip.getNextEntry();
+            assertEquals(entry.getName(), "test (1).pdf");
+            assertEquals(IOUtils.toString(zip, "UTF-8"), "more data");
+
+            assertNull(zip.getNextEntry());
+        }
+
+        verify(service).exportContent(eq(Arrays.asList(1L, 2L, 3L)), eq(null), any());
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getArchiveReturnHttpStatus404WhenFileDoesNotExist() throws Exception {
+        //given
+        doThrow(new ResourceNotFoundException("Resource not found for id: 2"))
+                .when(service).exportContent(eq(Arrays.asList(1L, 2L)), eq(null), any());
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ARCHIVE_PATH)
+                        .param(IDS_PARAM, "1,2"))
+                .andExpect(status().isNotFound())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getContentAsByteArray().length, 0);
+
+        verify(service).exportContent(eq(Arrays.asList(1L, 2L)), eq(null), any());
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getArchiveReturnHttpStatus422WhenIdsAndUserIdAreMissing() throws Exception {
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ARCHIVE_PATH))
+                .andExpect(status().isUnprocessableEntity())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getContentAsString(), "Either ids or userId required");
+
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getArchiveReturnHttpStatus422WhenIdIsInvalid() throws Exception {
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ARCHIVE_PATH)
+                        .param(IDS_PARAM, "1,abc"))
+                .andExpect(status().isUnprocessableEntity())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getContentAsString(), "Id not allowed: abc");
+
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFilesReturnHttpStatus422WhenLimitIsNotAllowed() throws Exception {
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE)
+                        .param(LIMIT_PARAM, "1001"))
+                .andExpect(status().isUnprocessableEntity())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getContentAsString(), "Limit not allowed: 1001. Limit must be between 1 and 1000");
+
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFilesReturnHttpStatus422WhenStatusIsUnknown() throws Exception {
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE)
+                        .param(STATUS_PARAM, "unknown"))
+                .andExpect(status().isUnprocessableEntity())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getContentAsString(), "Status not allowed: unknown");
+
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFilesReturnHttpStatus422WhenCursorIsInvalid() throws Exception {
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE)
+                        .param(AFTER_PARAM, "not-a-cursor"))
+                .andExpect(status().isUnprocessableEntity())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getContentAsString(), "Cursor not allowed: not-a-cursor");
+
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFileReturnHttpStatus422WhenIdParameterIsMissing() throws Exception {
+        //when
+        mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, "   "))
+                .andExpect(status().isUnprocessableEntity());
+
+        //then
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFileReturnHttpStatus404WhenResourceDoesNotExist() throws Exception {
+        //given
+        Long id = 1L;
+
+        doThrow(ResourceNotFoundException.class).when(service).findById(id);
+
+        //when
+        mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id))
+                .andExpect(status().isNotFound());
+
+        //then
+        verify(service).findById(id);
+
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFileShouldReturnSuccessfully() throws Exception {
+        //given
+        Long id = 1L;
+
+        DownloadableFileResource dummyDownloadableFileResource = dummyDownloadableFileResource();
+
+        when(service.findById(id)).thenReturn(dummyDownloadableFileResource);
+        when(service.openContent(id, 0, 9)).thenReturn(IOUtils.toInputStream("test data", "UTF-8"));
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getHeader("Content-Disposition"), "attachment; filename=" + "test.pdf");
+        assertEquals(mvcResult.getResponse().getHeader("Accept-Ranges"), "bytes");
+        assertEquals(mvcResult.getResponse().getContentLength(), 9);
+        assertEquals(mvcResult.getResponse().getContentAsString(), "test data");
+
+        verify(service).findById(id);
+        verify(service).openContent(id, 0, 9);
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFileShouldReturnPartialContentWhenRangeIsRequested() throws Exception {
+        //given
+        Long id = 1L;
+
+        DownloadableFileResource dummyDownloadableFileResource = dummyDownloadableFileResource();
+
+        when(service.findById(id)).thenReturn(dummyDownloadableFileResource);
+        when(service.openContent(id, 5, 4)).thenReturn(IOUtils.toInputStream("data", "UTF-8"));
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id)
+                        .header(RANGE_HEADER, "bytes=5-"))
+                .andExpect(status().isPartialContent())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getHeader("Content-Range"), "bytes 5-8/9");
+        assertEquals(mvcResult.getResponse().getContentLength(), 4);
+        assertEquals(mvcResult.getResponse().getContentAsString(), "data");
+
+        verify(service).findById(id);
+        verify(service).openContent(id, 5, 4);
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFileShouldReturnWholeFileWhenIfRangeDoesNotMatch() throws Exception {
+        //given
+        Long id = 1L;
+
+        DownloadableFileResource dummyDownloadableFileResource = dummyDownloadableFileResource();
+
+        when(service.findById(id)).thenReturn(dummyDownloadableFileResource);
+        when(service.openContent(id, 0, 9)).thenReturn(IOUtils.toInputStream("test data", "UTF-8"));
+
+        //when
+        mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id)
+                        .header(RANGE_HEADER, "bytes=5-")
+                        .header(IF_RANGE_HEADER, "Wed, 21 Oct 2015 07:28:00 GMT"))
+                .andExpect(status().isOk());
+
+        //then
+        verify(service).findById(id);
+        verify(service).openContent(id, 0, 9);
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFileShouldDelegateToSendfileWhenContainerSupportsIt() throws Exception {
+        //given
+        ReflectionTestUtils.setField(controller, "sendfileEnabled", true);
+        ReflectionTestUtils.setField(controller, "sendfileMinSize", "0");
+
+        Long id = 1L;
+        Path contentPath = Paths.get("/data/ab/cd/abcd");
+
+        DownloadableFileResource dummyDownloadableFileResource = dummyDownloadableFileResource();
+        dummyDownloadableFileResource.setContentPath(contentPath);
+
+        when(service.findById(id)).thenReturn(dummyDownloadableFileResource);
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id)
+                        .requestAttr("org.apache.tomcat.sendfile.support", Boolean.TRUE)
+                        .header(RANGE_HEADER, "bytes=2-5"))
+                .andExpect(status().isPartialContent())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getRequest().getAttribute("org.apache.tomcat.sendfile.filename"), contentPath.toString());
+        assertEquals(mvcResult.getRequest().getAttribute("org.apache.tomcat.sendfile.start"), 2L);
+        assertEquals(mvcResult.getRequest().getAttribute("org.apache.tomcat.sendfile.end"), 6L);
+        assertEquals(mvcResult.getResponse().getContentLength(), 4);
+
+        verify(service).findById(id);
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFileShouldStreamContentWhenSendfileIsNotSupported() throws Exception {
+        //given
+        ReflectionTestUtils.setField(controller, "sendfileEnabled", true);
+        ReflectionTestUtils.setField(controller, "sendfileMinSize", "0");
+
+        Long id = 1L;
+
+        DownloadableFileResource dummyDownloadableFileResource = dummyDownloadableFileResource();
+        dummyDownloadableFileResource.setContentPath(Paths.get("/data/ab/cd/abcd"));
+
+        when(service.findById(id)).thenReturn(dummyDownloadableFileResource);
+        when(service.openContent(id, 0, 9)).thenReturn(IOUtils.toInputStream("test data", "UTF-8"));
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getContentAsString(), "test data");
+
+        verify(service).findById(id);
+        verify(service).openContent(id, 0, 9);
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFileShouldSendCompressedContentAsIsWhenClientAcceptsGzip() throws Exception {
+        //given
+        Long id = 1L;
+
+        when(service.findById(id)).thenReturn(dummyCompressedDownloadableFileResource());
+        when(service.openStoredContent(id, 0, 7)).thenReturn(IOUtils.toInputStream("gzipped", "UTF-8"));
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id)
+                        .header(ACCEPT_ENCODING_HEADER, "deflate, gzip;q=0.8"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getHeader("Content-Encoding"), "gzip");
+        assertEquals(mvcResult.getResponse().getHeader("Vary"), "Accept-Encoding");
+        assertEquals(mvcResult.getResponse().getContentLength(), 7);
+        assertEquals(mvcResult.getResponse().getContentAsString(), "gzipped");
+
+        verify(service).findById(id);
+        verify(service).openStoredContent(id, 0, 7);
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFileShouldDelegateCompressedContentToSendfileWhenClientAcceptsGzip() throws Exception {
+        //given
+        ReflectionTestUtils.setField(controller, "sendfileEnabled", true);
+        ReflectionTestUtils.setField(controller, "sendfileMinSize", "0");
+
+        Long id = 1L;
+        Path contentPath = Paths.get("/data/ab/cd/abcd");
+
+        DownloadableFileResource dummyDownloadableFileResource = dummyCompressedDownloadableFileResource();
+        dummyDownloadableFileResource.setContentPath(contentPath);
+
+        when(service.findById(id)).thenReturn(dummyDownloadableFileResource);
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id)
+                        .requestAttr("org.apache.tomcat.sendfile.support", Boolean.TRUE)
+                        .header(ACCEPT_ENCODING_HEADER, "*"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getRequest().getAttribute("org.apache.tomcat.sendfile.filename"), contentPath.toString());
+        assertEquals(mvcResult.getRequest().getAttribute("org.apache.tomcat.sendfile.start"), 0L);
+        assertEquals(mvcResult.getRequest().getAttribute("org.apache.tomcat.sendfile.end"), 7L);
+        assertEquals(mvcResult.getResponse().getHeader("Content-Encoding"), "gzip");
+        assertEquals(mvcResult.getResponse().getContentLength(), 7);
+
+        verify(service).findById(id);
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFileShouldDecodeCompressedContentWhenClientRejectsGzip() throws Exception {
+        //given
+        ReflectionTestUtils.setField(controller, "sendfileEnabled", true);
+        ReflectionTestUtils.setField(controller, "sendfileMinSize", "0");
+
+        Long id = 1L;
+
+        DownloadableFileResource dummyDownloadableFileResource = dummyCompressedDownloadableFileResource();
+        dummyDownloadableFileResource.setContentPath(Paths.get("/data/ab/cd/abcd"));
+
+        when(service.findById(id)).thenReturn(dummyDownloadableFileResource);
+        when(service.openContent(id, 0, 9)).thenReturn(IOUtils.toInputStream("test data", "UTF-8"));
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id)
+                        .requestAttr("org.apache.tomcat.sendfile.support", Boolean.TRUE)
+                        .header(ACCEPT_ENCODING_HEADER, "*, gzip;q=0"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        //then
+        assertNull(mvcResult.getResponse().getHeader("Content-Encoding"));
+        assertNull(mvcResult.getRequest().getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertEquals(mvcResult.getResponse().getHeader("Vary"), "Accept-Encoding");
+        assertEquals(mvcResult.getResponse().getContentAsString(), "test data");
+
+        verify(service).findById(id);
+        verify(service).openContent(id, 0, 9);
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFileShouldDecodeRangeOfCompressedContentEvenWhenClientAcceptsGzip() throws Exception {
+        //given
+        Long id = 1L;
+
+        when(service.findById(id)).thenReturn(dummyCompressedDownloadableFileResource());
+        when(service.openContent(id, 5, 4)).thenReturn(IOUtils.toInputStream("data", "UTF-8"));
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id)
+                        .header(ACCEPT_ENCODING_HEADER, "gzip")
+                        .header(RANGE_HEADER, "bytes=5-"))
+                .andExpect(status().isPartialContent())
+                .andReturn();
+
+        //then
+        assertNull(mvcResult.getResponse().getHeader("Content-Encoding"));
+        assertEquals(mvcResult.getResponse().getHeader("Content-Range"), "bytes 5-8/9");
+        assertEquals(mvcResult.getResponse().getContentAsString(), "data");
+
+        verify(service).findById(id);
+        verify(service).openContent(id, 5, 4);
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFileShouldSendValidators() throws Exception {
+        //given
+        Long id = 1L;
+
+        DownloadableFileResource dummyDownloadableFileResource = dummyDownloadableFileResource();
+
+        when(service.findById(id)).thenReturn(dummyDownloadableFileResource);
+        when(service.openContent(id, 0, 9)).thenReturn(IOUtils.toInputStream("test data", "UTF-8"));
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getHeader(HttpHeaders.ETAG), "\"contentHash\"");
+        assertEquals(mvcResult.getResponse().getDateHeader(HttpHeaders.LAST_MODIFIED) / 1000,
+                dummyDownloadableFileResource.getLastModifiedAt().getEpochSecond());
+
+        verify(service).findById(id);
+        verify(service).openContent(id, 0, 9);
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFileReturnHttpStatus304WhenETagMatches() throws Exception {
+        //given
+        Long id = 1L;
+
+        when(service.findById(id)).thenReturn(dummyDownloadableFileResource());
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id)
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"other\", \"contentHash\""))
+                .andExpect(status().isNotModified())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getHeader(HttpHeaders.ETAG), "\"contentHash\"");
+        assertEquals(mvcResult.getResponse().getContentAsString(), "");
+
+        verify(service).findById(id);
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFileReturnHttpStatus304WhenNotModifiedSince() throws Exception {
+        //given
+        Long id = 1L;
+
+        DownloadableFileResource dummyDownloadableFileResource = dummyDownloadableFileResource();
+        dummyDownloadableFileResource.setContentHash(null);
+
+        when(service.findById(id)).thenReturn(dummyDownloadableFileResource);
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id)
+                        .header(HttpHeaders.IF_MODIFIED_SINCE,
+                                dummyDownloadableFileResource.getLastModifiedAt().plusSeconds(60).toEpochMilli()))
+                .andExpect(status().isNotModified())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getHeader(HttpHeaders.ETAG),
+                "\"1-" + dummyDownloadableFileResource.getLastModifiedAt().toEpochMilli() + "\"");
+
+        verify(service).findById(id);
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void getUploadedFileShouldTagCompressedContentWithItsEncoding() throws Exception {
+        //given
+        Long id = 1L;
+
+        when(service.findById(id)).thenReturn(dummyCompressedDownloadableFileResource());
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id)
+                        .header(ACCEPT_ENCODING_HEADER, "gzip")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"contentHash-gzip\""))
+                .andExpect(status().isNotModified())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getHeader(HttpHeaders.ETAG), "\"contentHash-gzip\"");
+
+        verify(service).findById(id);
+        verifyNoMoreInteractions(service);
     }
 
     @Test
-    public void getUploadedFilesShouldReturnSuccessfully() throws Exception {
+    public void getUploadedFileShouldReturnPartialContentWhenIfRangeETagMatches() throws Exception {
         //given
-        UploadedFileResource dummyUploadedFileResource = UploadedFileResource.builder()
-                .id(1L)
-                .userId("userId")
-                .filename("test.pdf")
-                .status(COMPLETED.getDescription())
-                .build();
-        when(service.findAll()).thenReturn(singletonList(dummyUploadedFileResource));
+        Long id = 1L;
+
+        when(service.findById(id)).thenReturn(dummyDownloadableFileResource());
+        when(service.openContent(id, 5, 4)).thenReturn(IOUtils.toInputStream("data", "UTF-8"));
 
         //when
-        final ResultActions resultActions = mockMvc.perform(
-                get(FILE_UPLOAD_URL_SERVICE))
-                .andExpect(status().isOk());
+        mockMvc.perform(
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id)
+                        .header(RANGE_HEADER, "bytes=5-")
+                        .header(IF_RANGE_HEADER, "\"contentHash\""))
+                .andExpect(status().isPartialContent());
 
         //then
-        resultActions
-                .andExpect(jsonPath("$[0].id").value("1"))
-                .andExpect(jsonPath("$[0].userId").value("userId"))
-                .andExpect(jsonPath("$[0].filename").value("test.pdf"))
-                .andExpect(jsonPath("$[0].status").value("Completed"))
-                .andExpect(jsonPath("$[0].uploadedTimeInMilliseconds").doesNotExist())
-                .andExpect(jsonPath("$[0].chunks").doesNotExist())
-                .andExpect(jsonPath("$[0].inputStream").doesNotExist())
-                .andExpect(jsonPath("$[0].links.rel").value("uploadedFile"))
-                .andExpect(jsonPath("$[0].links.href").value("http://localhost/api/files/1"));
-
-        verify(service).findAll();
+        verify(service).findById(id);
+        verify(service).openContent(id, 5, 4);
         verifyNoMoreInteractions(service);
     }
 
     @Test
-    public void getUploadedFileReturnHttpStatus422WhenIdParameterIsMissing() throws Exception {
+    public void headUploadedFileShouldReturnSizeAndValidatorsOnly() throws Exception {
+        //given
+        Long id = 1L;
+
+        when(service.findById(id)).thenReturn(dummyDownloadableFileResource());
+
         //when
-        mockMvc.perform(
-                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, "   "))
-                .andExpect(status().isUnprocessableEntity());
+        MvcResult mvcResult = mockMvc.perform(
+                head(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id))
+                .andExpect(status().isOk())
+                .andReturn();
 
         //then
+        assertEquals(mvcResult.getResponse().getContentLength(), 9);
+        assertEquals(mvcResult.getResponse().getHeader(HttpHeaders.ETAG), "\"contentHash\"");
+        assertNotNull(mvcResult.getResponse().getHeader(HttpHeaders.LAST_MODIFIED));
+        assertEquals(mvcResult.getResponse().getHeader("Accept-Ranges"), "bytes");
+        assertEquals(mvcResult.getResponse().getContentAsString(), "");
+
+        verify(service).findById(id);
         verifyNoMoreInteractions(service);
     }
 
     @Test
-    public void getUploadedFileReturnHttpStatus404WhenResourceDoesNotExist() throws Exception {
+    public void headUploadedFileShouldReturnStoredSizeWhenClientAcceptsGzip() throws Exception {
         //given
         Long id = 1L;
 
-        doThrow(ResourceNotFoundException.class).when(service).findById(id);
+        when(service.findById(id)).thenReturn(dummyCompressedDownloadableFileResource());
 
         //when
-        mockMvc.perform(
-                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id))
-                .andExpect(status().isNotFound());
+        MvcResult mvcResult = mockMvc.perform(
+                head(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id)
+                        .header(ACCEPT_ENCODING_HEADER, "gzip"))
+                .andExpect(status().isOk())
+                .andReturn();
 
         //then
-        verify(service).findById(id);
+        assertEquals(mvcResult.getResponse().getContentLength(), 7);
+        assertEquals(mvcResult.getResponse().getHeader("Content-Encoding"), "gzip");
+        assertEquals(mvcResult.getResponse().getHeader(HttpHeaders.ETAG), "\"contentHash-gzip\"");
 
+        verify(service).findById(id);
         verifyNoMoreInteractions(service);
     }
 
     @Test
-    public void getUploadedFileShouldReturnSuccessfully() throws Exception {
+    public void getUploadedFileReturnHttpStatus416WhenRangeIsNotSatisfiable() throws Exception {
         //given
         Long id = 1L;
 
-        DownloadableFileResource dummyDownloadableFileResource = DownloadableFileResource.builder()
-                .filename("test.pdf")
-                .inputStream(IOUtils.toInputStream("test data", "UTF-8"))
-                .build();
+        DownloadableFileResource dummyDownloadableFileResource = dummyDownloadableFileResource();
 
         when(service.findById(id)).thenReturn(dummyDownloadableFileResource);
 
         //when
         MvcResult mvcResult = mockMvc.perform(
-                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id))
-                .andExpect(status().isOk())
+                get(FILE_UPLOAD_URL_SERVICE + ID_PATH_VARIABLE, id)
+                        .header(RANGE_HEADER, "bytes=20-30"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
                 .andReturn();
 
         //then
-        assertEquals(mvcResult.getResponse().getHeader("Content-Disposition"), "attachment; filename=" + "test.pdf");
+        assertEquals(mvcResult.getResponse().getHeader("Content-Range"), "bytes */9");
 
         verify(service).findById(id);
         verifyNoMoreInteractions(service);
@@ -259,6 +1003,46 @@ public class FileUploadControllerTest {
         verifyNoMoreInteractions(service);
     }
 
+    @Test
+    public void uploadReturnHttpStatus422WhenChunkSizeDoesNotMatchContentRange() throws Exception {
+        //given
+        ReflectionTestUtils.setField(controller, "maxFileSize", "100");
+        ReflectionTestUtils.setField(controller, "maxChunkSize", "5");
+
+        MockMultipartFile file = dummyMultipartFile("test.pdf", "test".getBytes());
+
+        //when
+        mockMvc.perform(
+                fileUpload(FILE_UPLOAD_URL_SERVICE)
+                        .file(file)
+                        .header(CONTENT_RANGE_HEADER, "bytes 0-4/10")
+                        .param(USER_ID_PARAM, "userId"))
+                .andExpect(status().isUnprocessableEntity());
+
+        //then
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void uploadReturnHttpStatus422WhenContentRangeExceedsTotalSize() throws Exception {
+        //given
+        ReflectionTestUtils.setField(controller, "maxFileSize", "100");
+        ReflectionTestUtils.setField(controller, "maxChunkSize", "5");
+
+        MockMultipartFile file = dummyMultipartFile("test.pdf", "test".getBytes());
+
+        //when
+        mockMvc.perform(
+                fileUpload(FILE_UPLOAD_URL_SERVICE)
+                        .file(file)
+                        .header(CONTENT_RANGE_HEADER, "bytes 8-11/10")
+                        .param(USER_ID_PARAM, "userId"))
+                .andExpect(status().isUnprocessableEntity());
+
+        //then
+        verifyNoMoreInteractions(service);
+    }
+
     @Test
     public void uploadReturnHttpStatus422WhenFileSizeIsGreaterThanMaxFileSizeForMultipartTransfer() throws Exception {
         //given
@@ -284,7 +1068,7 @@ public class FileUploadControllerTest {
 
         MockMultipartFile file = dummyMultipartFile("test.pdf", "test".getBytes());
 
-        doNothing().when(service).store(eq("userId"), eq(file), eq(null), eq(true), any(Instant.class));
+        when(service.store(eq("userId"), eq(file), eq(ContentRange.whole(4)), eq(null), any(Instant.class))).thenReturn(COMPLETED);
 
         //when
         mockMvc.perform(
@@ -294,7 +1078,7 @@ public class FileUploadControllerTest {
                 .andExpect(status().isOk());
 
         //then
-        verify(service).store(eq("userId"), eq(file), eq(null), eq(true), any(Instant.class));
+        verify(service).store(eq("userId"), eq(file), eq(ContentRange.whole(4)), eq(null), any(Instant.class));
 
         verifyNoMoreInteractions(service);
     }
@@ -307,18 +1091,42 @@ public class FileUploadControllerTest {
 
         MockMultipartFile file = dummyMultipartFile("test.pdf", "test".getBytes());
 
-        doNothing().when(service).store(eq("userId"), eq(file), eq(null), eq(false), any(Instant.class));
+        when(service.store(eq("userId"), eq(file), eq(new ContentRange(0, 4, 10)), eq(2), any(Instant.class))).thenReturn(PENDING);
 
         //when
         mockMvc.perform(
                 fileUpload(FILE_UPLOAD_URL_SERVICE)
                         .file(file)
-                        .header(CONTENT_RANGE_HEADER, "bytes 0-4/10")
+                        .header(CONTENT_RANGE_HEADER, "bytes 0-3/10")
+                        .param(USER_ID_PARAM, "userId"))
+                .andExpect(status().isOk());
+
+        //then
+        verify(service).store(eq("userId"), eq(file), eq(new ContentRange(0, 4, 10)), eq(2), any(Instant.class));
+
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void uploadShouldReturnSuccessfullyForOutOfOrderChunkedTransfer() throws Exception {
+        //given
+        ReflectionTestUtils.setField(controller, "maxFileSize", "100");
+        ReflectionTestUtils.setField(controller, "maxChunkSize", "5");
+
+        MockMultipartFile file = dummyMultipartFile("test.pdf", "test".getBytes());
+
+        when(service.store(eq("userId"), eq(file), eq(new ContentRange(20, 24, 50)), eq(10), any(Instant.class))).thenReturn(PENDING);
+
+        //when
+        mockMvc.perform(
+                fileUpload(FILE_UPLOAD_URL_SERVICE)
+                        .file(file)
+                        .header(CONTENT_RANGE_HEADER, "bytes 20-23/50")
                         .param(USER_ID_PARAM, "userId"))
                 .andExpect(status().isOk());
 
         //then
-        verify(service).store(eq("userId"), eq(file), eq(null), eq(false), any(Instant.class));
+        verify(service).store(eq("userId"), eq(file), eq(new ContentRange(20, 24, 50)), eq(10), any(Instant.class));
 
         verifyNoMoreInteractions(service);
     }
@@ -331,24 +1139,276 @@ public class FileUploadControllerTest {
 
         MockMultipartFile file = dummyMultipartFile("test.pdf", "test".getBytes());
 
-        doNothing().when(service).store(eq("userId"), eq(file), eq(10), eq(true), any(Instant.class));
+        when(service.store(eq("userId"), eq(file), eq(new ContentRange(46, 50, 50)), eq(10), any(Instant.class))).thenReturn(COMPLETED);
+
+        //when
+        mockMvc.perform(
+                fileUpload(FILE_UPLOAD_URL_SERVICE)
+                        .file(file)
+                        .header(CONTENT_RANGE_HEADER, "bytes 46-49/50")
+                        .param(USER_ID_PARAM, "userId"))
+                .andExpect(status().isOk());
+
+        //then
+        verify(service).store(eq("userId"), eq(file), eq(new ContentRange(46, 50, 50)), eq(10), any(Instant.class));
+
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void uploadShouldReturnHttpStatus202WhenFinalizationRunsInBackground() throws Exception {
+        //given
+        ReflectionTestUtils.setField(controller, "maxFileSize", "100");
+        ReflectionTestUtils.setField(controller, "maxChunkSize", "5");
+
+        MockMultipartFile file = dummyMultipartFile("test.pdf", "test".getBytes());
+
+        when(service.store(eq("userId"), eq(file), eq(new ContentRange(46, 50, 50)), eq(10), any(Instant.class))).thenReturn(FINALIZING);
 
         //when
         mockMvc.perform(
                 fileUpload(FILE_UPLOAD_URL_SERVICE)
                         .file(file)
-                        .header(CONTENT_RANGE_HEADER, "bytes 45-49/50")
+                        .header(CONTENT_RANGE_HEADER, "bytes 46-49/50")
                         .param(USER_ID_PARAM, "userId"))
+                .andExpect(status().isAccepted());
+
+        //then
+        verify(service).store(eq("userId"), eq(file), eq(new ContentRange(46, 50, 50)), eq(10), any(Instant.class));
+
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void uploadContentShouldStreamRequestBodyForWholeFile() throws Exception {
+        //given
+        ReflectionTestUtils.setField(controller, "maxFileSize", "100");
+
+        when(service.store(eq("userId"), eq("test.pdf"), any(InputStream.class), eq(ContentRange.whole(4)), eq(null),
+                any(Instant.class))).thenReturn(COMPLETED);
+
+        //when
+        mockMvc.perform(
+                put(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, "userId", "test.pdf")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content("test".getBytes()))
                 .andExpect(status().isOk());
 
         //then
-        verify(service).store(eq("userId"), eq(file), eq(10), eq(true), any(Instant.class));
+        verify(service).store(eq("userId"), eq("test.pdf"), any(InputStream.class), eq(ContentRange.whole(4)), eq(null),
+                any(Instant.class));
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void uploadContentShouldStreamRequestBodyForChunkedTransfer() throws Exception {
+        //given
+        ReflectionTestUtils.setField(controller, "maxFileSize", "100");
+        ReflectionTestUtils.setField(controller, "maxChunkSize", "5");
+
+        when(service.store(eq("userId"), eq("test.pdf"), any(InputStream.class), eq(new ContentRange(46, 50, 50)), eq(10),
+                any(Instant.class))).thenReturn(FINALIZING);
+
+        //when
+        mockMvc.perform(
+                put(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, "userId", "test.pdf")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .header(CONTENT_RANGE_HEADER, "bytes 46-49/50")
+                        .content("test".getBytes()))
+                .andExpect(status().isAccepted());
+
+        //then
+        verify(service).store(eq("userId"), eq("test.pdf"), any(InputStream.class), eq(new ContentRange(46, 50, 50)), eq(10),
+                any(Instant.class));
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void uploadContentReturnHttpStatus422WhenBodyDoesNotMatchContentRange() throws Exception {
+        //given
+        ReflectionTestUtils.setField(controller, "maxFileSize", "100");
+        ReflectionTestUtils.setField(controller, "maxChunkSize", "5");
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                put(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, "userId", "test.pdf")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .header(CONTENT_RANGE_HEADER, "bytes 0-4/10")
+                        .content("test".getBytes()))
+                .andExpect(status().isUnprocessableEntity())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getContentAsString(),
+                "Content-Range not allowed for bytes 0-4/10. Received chunk size: 4 bytes");
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void uploadContentReturnHttpStatus422WhenBodyIsEmpty() throws Exception {
+        //given
+        ReflectionTestUtils.setField(controller, "maxFileSize", "100");
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                put(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, "userId", "test.pdf")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM))
+                .andExpect(status().isUnprocessableEntity())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getContentAsString(), "Content-Length or Content-Range required for test.pdf");
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void uploadContentReturnHttpStatus422WhenFilenameMayRiskSystemSecurity() throws Exception {
+        //when
+        mockMvc.perform(
+                put(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, "userId", "..test.pdf")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content("test".getBytes()))
+                .andExpect(status().isUnprocessableEntity());
+
+        //then
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void headUploadShouldReturnUploadOffsetAndLength() throws Exception {
+        //given
+        when(service.findUploadProgress("userId", "test.pdf")).thenReturn(UploadProgressResource.builder()
+                .offset(4L)
+                .receivedBytes(6L)
+                .totalBytes(10L)
+                .build());
+
+        //when
+        MvcResult mvcResult = mockMvc.perform(
+                head(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, "userId", "test.pdf"))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        //then
+        assertEquals(mvcResult.getResponse().getHeader(UPLOAD_OFFSET_HEADER), "4");
+        assertEquals(mvcResult.getResponse().getHeader(UPLOAD_LENGTH_HEADER), "10");
+        assertEquals(mvcResult.getResponse().getHeader(HttpHeaders.CACHE_CONTROL), "no-store");
+
+        verify(service).findUploadProgress("userId", "test.pdf");
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void headUploadReturnHttpStatus404WhenUploadIsNotInProgress() throws Exception {
+        //given
+        doThrow(ResourceNotFoundException.class).when(service).findUploadProgress("userId", "test.pdf");
+
+        //when
+        mockMvc.perform(
+                head(FILE_UPLOAD_URL_SERVICE + USER_FILE_PATH_VARIABLES, "userId", "test.pdf"))
+                .andExpect(status().isNotFound());
+
+        //then
+        verify(service).findUploadProgress("userId", "test.pdf");
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void uploadBatchShouldHandFilePartsToStorageAsTheyAreRead() throws Exception {
+        //given
+        String body = "--boundary\r\n" +
+                "Content-Disposition: form-data; name=\"description\"\r\n\r\n" +
+                "ignored\r\n" +
+                "--boundary\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"first.txt\"\r\n\r\n" +
+                "first\r\n" +
+                "--boundary\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"second.txt\"\r\n\r\n" +
+                "second\r\n" +
+                "--boundary--\r\n";
+
+        List<String> received = new ArrayList<>();
+        doAnswer(invocationOnMock -> {
+            Iterator<UploadPart> parts = argumentAt(invocationOnMock, 1);
+            while (parts.hasNext()) {
+                UploadPart part = parts.next();
+                received.add(part.getFilename() + ":" + IOUtils.toString(part.getContent(), StandardCharsets.UTF_8));
+            }
+            return singletonList(BatchUploadResultResource.builder()
+                    .filename("first.txt")
+                    .status("Completed")
+                    .size(5L)
+                    .build());
+        }).when(service).storeBatch(eq("userId"), any(), any(Instant.class));
+
+        //when
+        mockMvc.perform(
+                post(FILE_UPLOAD_URL_SERVICE + USER_ID_PATH_VARIABLE, "userId")
+                        .contentType("multipart/form-data; boundary=boundary")
+                        .content(body.getBytes()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].filename").value("first.txt"))
+                .andExpect(jsonPath("$[0].status").value("Completed"))
+                .andExpect(jsonPath("$[0].size").value(5));
+
+        //then
+        assertEquals(received, Arrays.asList("first.txt:first", "second.txt:second"));
+        verify(service).storeBatch(eq("userId"), any(), any(Instant.class));
+        verifyNoMoreInteractions(service);
+    }
+
+    @Test
+    public void uploadBatchReturnHttpStatus422WhenMultipartBoundaryIsMissing() throws Exception {
+        //when
+        mockMvc.perform(
+                post(FILE_UPLOAD_URL_SERVICE + USER_ID_PATH_VARIABLE, "userId")
+                        .contentType(MediaType.MULTIPART_FORM_DATA)
+                        .content("test".getBytes()))
+                .andExpect(status().isUnprocessableEntity());
 
+        //then
         verifyNoMoreInteractions(service);
     }
 
+    private UploadedFilePageResource dummyUploadedFilePageResource(UploadedFileResource uploadedFileResource, String nextCursor) {
+        return UploadedFilePageResource.builder()
+                .files(singletonList(uploadedFileResource))
+                .nextCursor(nextCursor)
+                .build();
+    }
+
+    private DownloadableFileResource dummyDownloadableFileResource() {
+        return DownloadableFileResource.builder()
+                .filename("test.pdf")
+                .size(9L)
+                .lastModifiedAt(Instant.now())
+                .contentHash("contentHash")
+                .build();
+    }
+
+    private DownloadableFileResource dummyCompressedDownloadableFileResource() {
+        DownloadableFileResource downloadableFileResource = dummyDownloadableFileResource();
+        downloadableFileResource.setContentEncoding("gzip");
+        downloadableFileResource.setStoredSize(7L);
+        return downloadableFileResource;
+    }
+
+    private DownloadableFileResource dummyDownloadableFileResource(String filename, String content, boolean incompressible) {
+        return DownloadableFileResource.builder()
+                .filename(filename)
+                .size((long) content.length())
+                .lastModifiedAt(Instant.now())
+                .incompressible(incompressible)
+                .build();
+    }
+
     private MockMultipartFile dummyMultipartFile(String filename, byte[] bytes) {
         return new MockMultipartFile("file", filename, "image/jpeg", bytes);
     }
 
-}
\ No newline at end of file
+    @SuppressWarnings("unchecked")
+    private static <T> T argumentAt(InvocationOnMock invocation, int index) {
+        return (T) invocation.getArguments()[index];
+    }
+
+}
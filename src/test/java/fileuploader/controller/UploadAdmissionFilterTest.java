@@ -0,0 +1,111 @@
+package fileuploader.controller;
+
+import fileuploader.exceptions.TooManyRequestsException;
+import fileuploader.services.UploadAdmissionControl;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class UploadAdmissionFilterTest {
+
+    @Mock
+    private UploadAdmissionControl admissionControl;
+
+    private UploadAdmissionFilter filter;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+        filter = new UploadAdmissionFilter(admissionControl, 300, 2);
+    }
+
+    @Test
+    public void filterShouldAdmitRawUploadByUserIdInPath() throws Exception {
+        //given
+        MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/api/files/user%20id/test.pdf");
+        request.setContent(new byte[4]);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+
+        UploadAdmissionControl.Admission admission = mock(UploadAdmissionControl.Admission.class);
+        when(admissionControl.admit("user id", 4)).thenReturn(admission);
+
+        //when
+        filter.doFilter(request, response, chain);
+
+        //then
+        assertNotNull(chain.getRequest());
+        verify(admissionControl).admit("user id", 4);
+        verify(admission).close();
+        verifyNoMoreInteractions(admissionControl);
+    }
+
+    @Test
+    public void filterShouldAdmitMultipartUploadByUserIdInQueryString() throws Exception {
+        //given
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/files");
+        request.setQueryString("userId=userId");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+
+        UploadAdmissionControl.Admission admission = mock(UploadAdmissionControl.Admission.class);
+        when(admissionControl.admit("userId", 300)).thenReturn(admission);
+
+        //when
+        filter.doFilter(request, response, chain);
+
+        //then
+        assertNotNull(chain.getRequest());
+        verify(admissionControl).admit("userId", 300);
+        verify(admission).close();
+        verifyNoMoreInteractions(admissionControl);
+    }
+
+    @Test
+    public void filterShouldReturnHttpStatus429WhenUploadIsNotAdmitted() throws Exception {
+        //given
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/files");
+        request.setContent(new byte[4]);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+
+        when(admissionControl.admit(null, 4)).thenThrow(new TooManyRequestsException("Too many uploads"));
+
+        //when
+        filter.doFilter(request, response, chain);
+
+        //then
+        assertNull(chain.getRequest());
+        assertEquals(response.getStatus(), 429);
+        assertEquals(response.getHeader("Retry-After"), "2");
+        assertEquals(response.getContentAsString(), "Too many uploads");
+    }
+
+    @Test
+    public void filterShouldNotApplyToDownloads() throws Exception {
+        //given
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/files/1");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+
+        //when
+        filter.doFilter(request, response, chain);
+
+        //then
+        assertNotNull(chain.getRequest());
+        verifyNoMoreInteractions(admissionControl);
+    }
+
+}
@@ -0,0 +1,63 @@
+package fileuploader.services;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPoolTest {
+
+    private BufferPool bufferPool;
+
+    @Before
+    public void setup() {
+        bufferPool = new BufferPool();
+        ReflectionTestUtils.setField(bufferPool, "bufferSize", "16");
+        ReflectionTestUtils.setField(bufferPool, "poolSize", "2");
+    }
+
+    @Test
+    public void acquireShouldReuseReleasedBuffer() {
+        //given
+        ByteBuffer buffer = bufferPool.acquire();
+        buffer.put((byte) 1);
+        bufferPool.release(buffer);
+
+        //when
+        ByteBuffer reused = bufferPool.acquire();
+
+        //then
+        assertSame(reused, buffer);
+        assertTrue(reused.isDirect());
+        assertEquals(reused.position(), 0);
+        assertEquals(reused.remaining(), 16);
+    }
+
+    @Test
+    public void acquireShouldFallBackToHeapBufferWhenPoolIsExhausted() {
+        //given
+        ByteBuffer first = bufferPool.acquire();
+        ByteBuffer second = bufferPool.acquire();
+
+        //when
+        ByteBuffer third = bufferPool.acquire();
+        bufferPool.release(third);
+        bufferPool.release(first);
+
+        //then
+        assertTrue(first.isDirect());
+        assertTrue(second.isDirect());
+        assertFalse(third.isDirect());
+        assertEquals(third.capacity(), 16);
+        assertSame(bufferPool.acquire(), first);
+        assertNotSame(bufferPool.acquire(), third);
+    }
+
+}
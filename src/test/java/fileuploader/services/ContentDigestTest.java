@@ -0,0 +1,78 @@
+package fileuploader.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContentDigestTest {
+
+    private static final String CONTENT_HASH = "84d89877f0d4041efb6bf91a16f0248f2fd573e6af05c19f96bedb9f882f7882";
+
+    private Path file;
+
+    @Before
+    public void setup() throws IOException {
+        file = Files.write(Files.createTempFile("fileuploader", ".tmp"), "0123456789".getBytes());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void finishShouldHashChunksDigestedInOrder() {
+        //given
+        ContentDigest digest = new ContentDigest();
+
+        //when
+        digestChunk(digest, 0, "01234");
+        digestChunk(digest, 5, "56789");
+
+        //then
+        assertEquals(digest.finish(file), CONTENT_HASH);
+    }
+
+    @Test
+    public void finishShouldReadBackChunksReceivedOutOfOrder() {
+        //given
+        ContentDigest digest = new ContentDigest();
+
+        //when
+        assertFalse(digest.claim(5));
+        digestChunk(digest, 0, "01234");
+
+        //then
+        assertEquals(digest.finish(file), CONTENT_HASH);
+    }
+
+    @Test
+    public void claimShouldBeHeldByOneChunkAtATime() {
+        //given
+        ContentDigest digest = new ContentDigest();
+
+        //when
+        boolean first = digest.claim(0);
+        boolean second = digest.claim(0);
+
+        //then
+        assertTrue(first);
+        assertFalse(second);
+    }
+
+    private void digestChunk(ContentDigest digest, long offset, String content) {
+        assertTrue(digest.claim(offset));
+        digest.update(ByteBuffer.wrap(content.getBytes()));
+        digest.release(offset + content.length());
+    }
+
+}
@@ -0,0 +1,69 @@
+package fileuploader.services;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReceivedRangesTest {
+
+    @Test
+    public void addShouldCompleteOnlyWhenEveryRangeIsReceived() {
+        ReceivedRanges ranges = new ReceivedRanges(10);
+
+        assertFalse(ranges.add(8, 10));
+        assertFalse(ranges.add(0, 4));
+        assertFalse(ranges.isComplete());
+        assertTrue(ranges.add(4, 8));
+        assertTrue(ranges.isComplete());
+        assertEquals(ranges.getReceivedBytes(), 10L);
+    }
+
+    @Test
+    public void addShouldCountRetriedAndOverlappingRangesOnce() {
+        ReceivedRanges ranges = new ReceivedRanges(10);
+
+        ranges.add(0, 4);
+        ranges.add(0, 4);
+        ranges.add(2, 6);
+
+        assertEquals(ranges.getReceivedBytes(), 6L);
+        assertFalse(ranges.isComplete());
+    }
+
+    @Test
+    public void addShouldMergeRangesSpanningSeveralPreviousOnes() {
+        ReceivedRanges ranges = new ReceivedRanges(10);
+
+        ranges.add(1, 2);
+        ranges.add(4, 5);
+        ranges.add(7, 8);
+        ranges.add(0, 10);
+
+        assertEquals(ranges.getReceivedBytes(), 10L);
+        assertTrue(ranges.isComplete());
+    }
+
+    @Test
+    public void addShouldNotReportCompletionTwice() {
+        ReceivedRanges ranges = new ReceivedRanges(4);
+
+        assertTrue(ranges.add(0, 4));
+        assertFalse(ranges.add(0, 4));
+    }
+
+    @Test
+    public void getContiguousBytesShouldStopAtFirstGap() {
+        ReceivedRanges ranges = new ReceivedRanges(10);
+
+        assertEquals(ranges.getContiguousBytes(), 0L);
+        ranges.add(4, 6);
+        assertEquals(ranges.getContiguousBytes(), 0L);
+        ranges.add(0, 2);
+        assertEquals(ranges.getContiguousBytes(), 2L);
+        ranges.add(2, 4);
+        assertEquals(ranges.getContiguousBytes(), 6L);
+    }
+
+}
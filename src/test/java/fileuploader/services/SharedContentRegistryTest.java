@@ -0,0 +1,170 @@
+package fileuploader.services;
+
+import fileuploader.domain.StoredContent;
+import fileuploader.enums.ContentCodec;
+import fileuploader.exceptions.StorageException;
+import fileuploader.repositories.StoredContentRepository;
+import fileuploader.storage.ContentCache;
+import fileuploader.storage.ContentCompressor;
+import fileuploader.storage.ContentStore;
+import fileuploader.storage.EncodedContent;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class SharedContentRegistryTest {
+
+    @Mock
+    private StoredContentRepository repository;
+
+    @Mock
+    private ContentStore contentStore;
+
+    @Mock
+    private ContentCompressor compressor;
+
+    @Mock
+    private ContentCache contentCache;
+
+    @InjectMocks
+    private SharedContentRegistry registry;
+
+    private Path file = Paths.get("assembled");
+
+    @Before
+    public void setup() {
+        initMocks(this);
+    }
+
+    @Test
+    public void acquireShouldShareContentAlreadyStored() {
+        //given
+        StoredContent existing = dummyStoredContent("storageKey", ContentCodec.GZIP, 2L);
+        when(repository.incrementReferences("hash")).thenReturn(1);
+        when(repository.findOne("hash")).thenReturn(existing);
+
+        //when
+        StoredContent storedContent = registry.acquire("hash", 4L, file);
+
+        //then
+        assertEquals(storedContent, existing);
+        verify(repository).incrementReferences("hash");
+        verify(repository).findOne("hash");
+        verifyNoMoreInteractions(repository, contentStore, compressor);
+    }
+
+    @Test
+    public void acquireShouldEncodeAndStoreNewContent() {
+        //given
+        Path compressed = Paths.get("assembled.gz");
+        when(compressor.encode(file, 4L)).thenReturn(new EncodedContent(compressed, ContentCodec.GZIP, 2L, true));
+        when(contentStore.put(compressed)).thenReturn("storageKey");
+        when(repository.insertIfAbsent("hash", "storageKey", 4L, "GZIP", 2L, true)).thenReturn(1);
+
+        //when
+        StoredContent storedContent = registry.acquire("hash", 4L, file);
+
+        //then
+        assertEquals(storedContent.getStorageKey(), "storageKey");
+        assertEquals(storedContent.getCodec(), ContentCodec.GZIP);
+        assertEquals(storedContent.getStoredSize().longValue(), 2L);
+        assertTrue(storedContent.getCompressible());
+        verify(repository).incrementReferences("hash");
+        verify(repository).insertIfAbsent("hash", "storageKey", 4L, "GZIP", 2L, true);
+        verify(contentStore).put(compressed);
+        verifyNoMoreInteractions(repository, contentStore);
+    }
+
+    @Test
+    public void acquireShouldShareContentStoredConcurrently() {
+        //given
+        StoredContent existing = dummyStoredContent("storageKey", ContentCodec.IDENTITY, 4L);
+        when(compressor.encode(file, 4L)).thenReturn(new EncodedContent(file, ContentCodec.IDENTITY, 4L, false));
+        when(contentStore.put(file)).thenReturn("newStorageKey");
+        when(repository.incrementReferences("hash")).thenReturn(0, 1);
+        when(repository.insertIfAbsent("hash", "newStorageKey", 4L, "IDENTITY", 4L, false))
+                .thenThrow(new DataIntegrityViolationException("pk"));
+        when(repository.findOne("hash")).thenReturn(existing);
+
+        //when
+        StoredContent storedContent = registry.acquire("hash", 4L, file);
+
+        //then
+        assertEquals(storedContent, existing);
+        verify(contentStore).put(file);
+        verify(contentStore).delete("newStorageKey");
+    }
+
+    @Test(expected = StorageException.class)
+    public void acquireShouldThrowStorageExceptionWhenSharedContentVanishes() {
+        //given
+        when(compressor.encode(file, 4L)).thenReturn(new EncodedContent(file, ContentCodec.IDENTITY, 4L, false));
+        when(contentStore.put(file)).thenReturn("newStorageKey");
+
+        //when
+        registry.acquire("hash", 4L, file);
+    }
+
+    @Test
+    public void releaseShouldKeepContentStillReferenced() {
+        //given
+        when(repository.decrementReferences("storageKey")).thenReturn(1);
+
+        //when
+        registry.release("storageKey");
+
+        //then
+        verify(repository).decrementReferences("storageKey");
+        verify(repository).deleteIfUnreferenced("storageKey");
+        verifyNoMoreInteractions(repository, contentStore);
+    }
+
+    @Test
+    public void releaseShouldDeleteContentWhenLastReferenceIsGone() {
+        //given
+        when(repository.decrementReferences("storageKey")).thenReturn(1);
+        when(repository.deleteIfUnreferenced("storageKey")).thenReturn(1);
+
+        //when
+        registry.release("storageKey");
+
+        //then
+        verify(contentCache).invalidate("storageKey");
+        verify(contentStore).delete("storageKey");
+    }
+
+    @Test
+    public void releaseShouldDeleteContentWithoutReferenceCount() {
+        //when
+        registry.release("storageKey");
+
+        //then
+        verify(repository).decrementReferences("storageKey");
+        verify(contentStore).delete("storageKey");
+        verifyNoMoreInteractions(repository, contentStore);
+    }
+
+    private StoredContent dummyStoredContent(String storageKey, ContentCodec codec, Long storedSize) {
+        return StoredContent.builder()
+                .contentHash("hash")
+                .storageKey(storageKey)
+                .size(4L)
+                .codec(codec)
+                .storedSize(storedSize)
+                .referenceCount(2)
+                .build();
+    }
+
+}
@@ -1,39 +1,74 @@
 package fileuploader.services;
 
+import fileuploader.controller.resources.BatchUploadResultResource;
 import fileuploader.controller.resources.DownloadableFileResource;
+import fileuploader.controller.resources.UploadProgressResource;
+import fileuploader.controller.resources.UploadedFilePageResource;
 import fileuploader.controller.resources.UploadedFileResource;
+import fileuploader.domain.ContentRange;
+import fileuploader.domain.StoredContent;
+import fileuploader.domain.UploadPart;
 import fileuploader.domain.UploadedFile;
+import fileuploader.domain.UploadedFileCursor;
+import fileuploader.enums.ContentCodec;
+import fileuploader.enums.FileUploadStatus;
 import fileuploader.exceptions.ResourceNotFoundException;
 import fileuploader.exceptions.StorageException;
+import fileuploader.metrics.UploadMetrics;
 import fileuploader.projection.UploadedFileInfo;
 import fileuploader.repositories.UploadedFileRepository;
+import fileuploader.storage.ContentCache;
+import fileuploader.storage.ContentCompressor;
+import fileuploader.storage.ContentStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 import static fileuploader.enums.FileUploadStatus.COMPLETED;
 import static fileuploader.enums.FileUploadStatus.FAILED;
+import static fileuploader.enums.FileUploadStatus.FINALIZING;
 import static fileuploader.enums.FileUploadStatus.PENDING;
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.times;
@@ -44,18 +79,50 @@ import static org.mockito.MockitoAnnotations.initMocks;
 
 public class StorageServiceImplTest {
 
+    private static final String DIGITS_CONTENT_HASH = "84d89877f0d4041efb6bf91a16f0248f2fd573e6af05c19f96bedb9f882f7882";
+    private static final String TEST_CONTENT_HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
     @Mock
     private UploadedFileRepository repository;
 
-    @InjectMocks
-    private StorageServiceImpl service;
+    @Mock
+    private ContentStore contentStore;
+
+    @Mock
+    private SharedContentRegistry sharedContent;
+
+    @Mock
+    private ContentCompressor compressor;
+
+    @Spy
+    private ContentCache contentCache = new ContentCache();
+
+    @Spy
+    private BufferPool bufferPool = new BufferPool();
+
+    @Spy
+    private UploadSessionRegistry sessionRegistry = new UploadSessionRegistry();
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
 
     private String tmpDirectory = "fileuploader_test";
 
+    @Spy
+    private UploadMetrics metrics = new UploadMetrics(meterRegistry, () -> 0, () -> 0);
+
+    @InjectMocks
+    private StorageServiceImpl service;
+
     @Before
     public void setup() throws IOException {
         initMocks(this);
         ReflectionTestUtils.setField(service, "tmpDirectory", tmpDirectory);
+        ReflectionTestUtils.setField(service, "maxFileSize", "10");
+        ReflectionTestUtils.setField(contentCache, "contentStore", contentStore);
+        ReflectionTestUtils.setField(bufferPool, "bufferSize", "4");
+        ReflectionTestUtils.setField(bufferPool, "poolSize", "1");
+        ReflectionTestUtils.setField(sessionRegistry, "maxSessions", "10");
+        ReflectionTestUtils.setField(sessionRegistry, "maxTmpBytes", "1000000");
     }
 
     @After
@@ -96,11 +163,13 @@ public class StorageServiceImplTest {
         Instant lastModifiedAt = Instant.now().plusMillis(1532);
         when(uploadedFileInfo.getLastModifiedAt()).thenReturn(lastModifiedAt);
         when(uploadedFileInfo.getChunks()).thenReturn(5);
+        when(uploadedFileInfo.getSize()).thenReturn(1024L);
 
-        when(repository.findAllByOrderByUserIdAscFilenameAsc()).thenReturn(singletonList(uploadedFileInfo));
+        when(repository.findPage(null, null, null, 11)).thenReturn(singletonList(uploadedFileInfo));
 
         //when
-        List<UploadedFileResource> result = service.findAll();
+        UploadedFilePageResource page = service.findAll(null, null, null, 10);
+        List<UploadedFileResource> result = page.getFiles();
 
         //then
         assertNotNull(result);
@@ -110,9 +179,12 @@ public class StorageServiceImplTest {
         assertEquals(result.get(0).getStatus(), COMPLETED.getDescription());
         assertEquals(result.get(0).getUploadedTimeInMilliseconds().longValue(), lastModifiedAt.toEpochMilli() - createdAt.toEpochMilli());
         assertEquals(result.get(0).getChunks().intValue(), 5);
+        assertEquals(result.get(0).getSize().longValue(), 1024L);
         assertNull(result.get(0).getInputStream());
 
-        verify(repository).findAllByOrderByUserIdAscFilenameAsc();
+        assertNull(page.getNextCursor());
+
+        verify(repository).findPage(null, null, null, 11);
         verifyNoMoreInteractions(repository);
     }
 
@@ -129,10 +201,11 @@ public class StorageServiceImplTest {
         when(uploadedFileInfo.getLastModifiedAt()).thenReturn(null);
         when(uploadedFileInfo.getChunks()).thenReturn(1);
 
-        when(repository.findAllByOrderByUserIdAscFilenameAsc()).thenReturn(singletonList(uploadedFileInfo));
+        when(repository.findPage(null, null, null, 11)).thenReturn(singletonList(uploadedFileInfo));
 
         //when
-        List<UploadedFileResource> result = service.findAll();
+        UploadedFilePageResource page = service.findAll(null, null, null, 10);
+        List<UploadedFileResource> result = page.getFiles();
 
         //then
         assertNotNull(result);
@@ -144,7 +217,53 @@ public class StorageServiceImplTest {
         assertEquals(result.get(0).getChunks().intValue(), 1);
         assertNull(result.get(0).getInputStream());
 
-        verify(repository).findAllByOrderByUserIdAscFilenameAsc();
+        assertNull(page.getNextCursor());
+
+        verify(repository).findPage(null, null, null, 11);
+        verifyNoMoreInteractions(repository);
+    }
+
+    @Test
+    public void findAllShouldReturnCursorOfLastFileWhenThereAreMoreFiles() {
+        //given
+        UploadedFileCursor after = new UploadedFileCursor("userId", "1_a.pdf");
+        UploadedFileInfo first = dummyUploadedFileInfo(2L, "2_b.pdf");
+        UploadedFileInfo second = dummyUploadedFileInfo(3L, "3_c.pdf");
+
+        when(repository.findPage("userId", COMPLETED, after, 2)).thenReturn(Arrays.asList(first, second));
+
+        //when
+        UploadedFilePageResource page = service.findAll("userId", COMPLETED, after, 1);
+
+        //then
+        assertEquals(page.getFiles().size(), 1);
+        assertEquals(page.getFiles().get(0).getId().longValue(), 2L);
+        assertEquals(UploadedFileCursor.decode(page.getNextCursor()), new UploadedFileCursor("userId", "2_b.pdf"));
+
+        verify(repository).findPage("userId", COMPLETED, after, 2);
+        verifyNoMoreInteractions(repository);
+    }
+
+    @Test
+    public void exportAllShouldHandEveryFileToConsumerAndCloseTheStream() {
+        //given
+        AtomicBoolean closed = new AtomicBoolean();
+        Stream<UploadedFileInfo> uploadedFiles = Stream.of(dummyUploadedFileInfo(1L, "1_a.pdf"), dummyUploadedFileInfo(2L, "2_b.pdf"))
+                .onClose(() -> closed.set(true));
+
+        when(repository.streamAll("userId", COMPLETED)).thenReturn(uploadedFiles);
+
+        //when
+        List<UploadedFileResource> result = new ArrayList<>();
+        service.exportAll("userId", COMPLETED, result::add);
+
+        //then
+        assertEquals(result.size(), 2);
+        assertEquals(result.get(0).getFilename(), "a.pdf");
+        assertEquals(result.get(1).getFilename(), "b.pdf");
+        assertTrue(closed.get());
+
+        verify(repository).streamAll("userId", COMPLETED);
         verifyNoMoreInteractions(repository);
     }
 
@@ -153,14 +272,9 @@ public class StorageServiceImplTest {
         //given
         Long id = 1L;
 
-        UploadedFile uploadedFile = UploadedFile.builder()
-                .id(1L)
-                .filename("test.pdf")
-                .content("test data".getBytes())
-                .status(COMPLETED)
-                .build();
+        UploadedFileInfo uploadedFileInfo = dummyUploadedFileInfo(COMPLETED);
 
-        when(repository.findOne(id)).thenReturn(uploadedFile);
+        when(repository.findInfoById(id)).thenReturn(uploadedFileInfo);
 
         //when
         DownloadableFileResource downloadableFileResource = service.findById(id);
@@ -168,9 +282,12 @@ public class StorageServiceImplTest {
         //then
         assertNotNull(downloadableFileResource);
         assertEquals(downloadableFileResource.getFilename(), "test.pdf");
-        assertNotNull(downloadableFileResource.getInputStream());
+        assertEquals(downloadableFileResource.getSize().longValue(), 9L);
+        assertNotNull(downloadableFileResource.getLastModifiedAt());
+        assertEquals(downloadableFileResource.getContentHash(), TEST_CONTENT_HASH);
+        assertNull(downloadableFileResource.getContentEncoding());
 
-        verify(repository).findOne(id);
+        verify(repository).findInfoById(id);
         verifyNoMoreInteractions(repository);
     }
 
@@ -179,14 +296,14 @@ public class StorageServiceImplTest {
         //given
         Long id = 1L;
 
-        when(repository.findOne(id)).thenReturn(null);
+        when(repository.findInfoById(id)).thenReturn(null);
 
         //when
         try {
             service.findById(id);
         } finally {
             //then
-            verify(repository).findOne(id);
+            verify(repository).findInfoById(id);
             verifyNoMoreInteractions(repository);
         }
     }
@@ -196,21 +313,16 @@ public class StorageServiceImplTest {
         //given
         Long id = 1L;
 
-        UploadedFile uploadedFile = UploadedFile.builder()
-                .id(1L)
-                .filename("test.pdf")
-                .content("test data".getBytes())
-                .status(PENDING)
-                .build();
+        UploadedFileInfo uploadedFileInfo = dummyUploadedFileInfo(PENDING);
 
-        when(repository.findOne(id)).thenReturn(uploadedFile);
+        when(repository.findInfoById(id)).thenReturn(uploadedFileInfo);
 
         //when
         try {
             service.findById(id);
         } finally {
             //then
-            verify(repository).findOne(id);
+            verify(repository).findInfoById(id);
             verifyNoMoreInteractions(repository);
         }
     }
@@ -220,25 +332,201 @@ public class StorageServiceImplTest {
         //given
         Long id = 1L;
 
-        UploadedFile uploadedFile = UploadedFile.builder()
-                .id(1L)
-                .filename("test.pdf")
-                .content("test data".getBytes())
-                .status(FAILED)
-                .build();
+        UploadedFileInfo uploadedFileInfo = dummyUploadedFileInfo(FAILED);
 
-        when(repository.findOne(id)).thenReturn(uploadedFile);
+        when(repository.findInfoById(id)).thenReturn(uploadedFileInfo);
 
         //when
         try {
             service.findById(id);
         } finally {
             //then
-            verify(repository).findOne(id);
+            verify(repository).findInfoById(id);
             verifyNoMoreInteractions(repository);
         }
     }
 
+    @Test
+    public void openContentShouldReturnSuccessfully() throws Exception {
+        //given
+        Long id = 1L;
+
+        UploadedFileInfo uploadedFileInfo = dummyUploadedFileInfo(COMPLETED);
+
+        when(repository.findInfoById(id)).thenReturn(uploadedFileInfo);
+        when(contentStore.get("storageKey", 5, 4)).thenReturn(new ByteArrayInputStream("data".getBytes()));
+
+        //when
+        InputStream inputStream = service.openContent(id, 5, 4);
+
+        //then
+        assertEquals(IOUtils.toString(inputStream, "UTF-8"), "data");
+
+        verify(repository).findInfoById(id);
+        verify(contentStore).get("storageKey", 5, 4);
+        verifyNoMoreInteractions(repository, contentStore, sharedContent);
+    }
+
+    @Test
+    public void openContentShouldDecodeCompressedContent() throws Exception {
+        //given
+        Long id = 1L;
+
+        UploadedFileInfo uploadedFileInfo = dummyUploadedFileInfo(COMPLETED);
+        when(uploadedFileInfo.getCodec()).thenReturn(ContentCodec.GZIP);
+        when(uploadedFileInfo.getStoredSize()).thenReturn(7L);
+        InputStream stored = new ByteArrayInputStream("gzipped".getBytes());
+
+        when(repository.findInfoById(id)).thenReturn(uploadedFileInfo);
+        when(contentStore.get("storageKey", 0, 7)).thenReturn(stored);
+        when(compressor.decode(stored, ContentCodec.GZIP, 5, 4)).thenReturn(new ByteArrayInputStream("data".getBytes()));
+
+        //when
+        InputStream inputStream = service.openContent(id, 5, 4);
+        DownloadableFileResource resource = service.findById(id);
+
+        //then
+        assertEquals(IOUtils.toString(inputStream, "UTF-8"), "data");
+        assertEquals(resource.getContentEncoding(), "gzip");
+        assertEquals(resource.getStoredSize().longValue(), 7L);
+
+        verify(contentStore).get("storageKey", 0, 7);
+        verify(contentStore).getLocalPath("storageKey");
+        verify(compressor).decode(stored, ContentCodec.GZIP, 5, 4);
+        verifyNoMoreInteractions(contentStore, compressor);
+    }
+
+    @Test
+    public void openStoredContentShouldNotDecodeCompressedContent() throws Exception {
+        //given
+        Long id = 1L;
+
+        UploadedFileInfo uploadedFileInfo = dummyUploadedFileInfo(COMPLETED);
+        when(uploadedFileInfo.getCodec()).thenReturn(ContentCodec.GZIP);
+        when(uploadedFileInfo.getStoredSize()).thenReturn(7L);
+
+        when(repository.findInfoById(id)).thenReturn(uploadedFileInfo);
+        when(contentStore.get("storageKey", 0, 7)).thenReturn(new ByteArrayInputStream("gzipped".getBytes()));
+
+        //when
+        InputStream inputStream = service.openStoredContent(id, 0, 7);
+
+        //then
+        assertEquals(IOUtils.toString(inputStream, "UTF-8"), "gzipped");
+
+        verify(repository).findInfoById(id);
+        verify(contentStore).get("storageKey", 0, 7);
+        verifyNoMoreInteractions(repository, contentStore, compressor);
+    }
+
+    @Test(expected = ResourceNotFoundException.class)
+    public void openContentShouldThrowResourceNotFoundExceptionWhenUploadedFileDoesNotExist() {
+        //given
+        Long id = 1L;
+
+        when(repository.findInfoById(id)).thenReturn(null);
+
+        //when
+        try {
+            service.openContent(id, 0, 4);
+        } finally {
+            //then
+            verify(repository).findInfoById(id);
+            verifyNoMoreInteractions(repository, contentStore, sharedContent);
+        }
+    }
+
+    @Test
+    public void exportContentShouldHandOverFilesWithGivenIdsInOrder() throws Exception {
+        //given
+        UploadedFileInfo first = dummyUploadedFileInfo(COMPLETED);
+        UploadedFileInfo second = dummyUploadedFileInfo(COMPLETED);
+        when(second.getId()).thenReturn(2L);
+        when(second.getFilename()).thenReturn("photo.jpg");
+        when(second.getStorageKey()).thenReturn("photoKey");
+        when(first.getCompressible()).thenReturn(true);
+        when(second.getCompressible()).thenReturn(false);
+
+        when(repository.findInfoByIdIn(Arrays.asList(2L, 1L))).thenReturn(Arrays.asList(first, second));
+        when(contentStore.get("storageKey", 0, 9)).thenReturn(new ByteArrayInputStream("test data".getBytes()));
+        when(contentStore.get("photoKey", 0, 9)).thenReturn(new ByteArrayInputStream("jpeg data".getBytes()));
+
+        List<DownloadableFileResource> files = new ArrayList<>();
+        List<String> contents = new ArrayList<>();
+
+        //when
+        service.exportContent(Arrays.asList(2L, 1L), null, (file, content) -> {
+            files.add(file);
+            try (InputStream inputStream = content.get()) {
+                contents.add(IOUtils.toString(inputStream, "UTF-8"));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        //then
+        assertEquals(files.size(), 2);
+        assertEquals(files.get(0).getFilename(), "photo.jpg");
+        assertTrue(files.get(0).isIncompressible());
+        assertEquals(files.get(1).getFilename(), "test.pdf");
+        assertFalse(files.get(1).isIncompressible());
+        assertEquals(contents, Arrays.asList("jpeg data", "test data"));
+
+        verify(repository).findInfoByIdIn(Arrays.asList(2L, 1L));
+        verify(contentStore).get("photoKey", 0, 9);
+        verify(contentStore).get("storageKey", 0, 9);
+        verifyNoMoreInteractions(repository, compressor);
+    }
+
+    @Test
+    public void exportContentShouldPageThroughCompletedFilesOfUser() {
+        //given
+        String userId = "userId";
+        List<UploadedFileInfo> firstPage = new ArrayList<>();
+        for (long id = 1; id <= 100; id++) {
+            firstPage.add(dummyUploadedFileInfo(id, "file" + id));
+        }
+        List<UploadedFileInfo> lastPage = singletonList(dummyUploadedFileInfo(101L, "file101"));
+        UploadedFileCursor cursor = new UploadedFileCursor(userId, "file100");
+
+        when(repository.findPage(userId, COMPLETED, null, 100)).thenReturn(firstPage);
+        when(repository.findPage(userId, COMPLETED, cursor, 100)).thenReturn(lastPage);
+
+        List<String> filenames = new ArrayList<>();
+
+        //when
+        service.exportContent(null, userId, (file, content) -> filenames.add(file.getFilename()));
+
+        //then
+        assertEquals(filenames.size(), 101);
+        assertEquals(filenames.get(100), "file101");
+
+        verify(repository).findPage(userId, COMPLETED, null, 100);
+        verify(repository).findPage(userId, COMPLETED, cursor, 100);
+        verifyNoMoreInteractions(repository);
+    }
+
+    @Test(expected = ResourceNotFoundException.class)
+    public void exportContentShouldThrowResourceNotFoundExceptionBeforeHandingOverAnyFile() {
+        //given
+        UploadedFileInfo uploadedFileInfo = dummyUploadedFileInfo(COMPLETED);
+
+        when(repository.findInfoByIdIn(Arrays.asList(1L, 2L))).thenReturn(singletonList(uploadedFileInfo));
+
+        List<DownloadableFileResource> files = new ArrayList<>();
+
+        //when
+        try {
+            service.exportContent(Arrays.asList(1L, 2L), null, (file, content) -> files.add(file));
+        } finally {
+            //then
+            assertTrue(files.isEmpty());
+
+            verify(repository).findInfoByIdIn(Arrays.asList(1L, 2L));
+            verifyNoMoreInteractions(repository, contentStore);
+        }
+    }
+
     @Test
     public void storeShouldReturnSuccessfullyWhenTransferIsNotChunked() throws Exception {
         //given
@@ -247,15 +535,18 @@ public class StorageServiceImplTest {
         Instant uploadedTime = Instant.now();
         MockMultipartFile multipartFile = dummyMultipartFile(filename);
 
-        when(repository.existsByUserIdAndFilename(userId, filename)).thenReturn(false);
+        when(sharedContent.acquire(anyString(), anyLong(), any(Path.class))).thenReturn(dummyStoredContent(4L));
 
         //when
-        service.store(userId, multipartFile, null, true, uploadedTime);
+        service.store(userId, multipartFile, ContentRange.whole(4), null, uploadedTime);
 
         //then
-        verify(repository).existsByUserIdAndFilename(userId, filename);
-        verify(repository).save(any(UploadedFile.class));
-        verifyNoMoreInteractions(repository);
+        verify(repository).findStorageKeyByUserIdAndFilename(userId, filename);
+        verify(repository).upsertCompleted(eq(userId), eq(filename), eq(Timestamp.from(uploadedTime)), any(Timestamp.class),
+                eq(1), eq(4L), eq("storageKey"), eq(TEST_CONTENT_HASH), eq("IDENTITY"),
+                eq(4L), eq(true));
+        verify(sharedContent).acquire(eq(TEST_CONTENT_HASH), eq(4L), any(Path.class));
+        verifyNoMoreInteractions(repository, contentStore, sharedContent);
     }
 
     @Test
@@ -264,17 +555,14 @@ public class StorageServiceImplTest {
         String userId = "userId";
         String filename = "test.pdf";
         Instant uploadedTime = Instant.now();
-        Integer totalChunks = 1;
+        Integer totalChunks = 2;
         MockMultipartFile multipartFile = dummyMultipartFile(filename);
 
-        when(repository.existsByUserIdAndFilename(userId, filename)).thenReturn(false);
-
         //when
-        service.store(userId, multipartFile, totalChunks, false, uploadedTime);
+        service.store(userId, multipartFile, new ContentRange(0, 4, 8), totalChunks, uploadedTime);
 
         //then
-        verify(repository).existsByUserIdAndFilename(userId, filename);
-        verify(repository).save(any(UploadedFile.class));
+        verify(repository).insertPendingIfAbsent(eq(userId), eq(filename), eq(Timestamp.from(uploadedTime)), any(Timestamp.class));
         verifyNoMoreInteractions(repository);
     }
 
@@ -287,42 +575,349 @@ public class StorageServiceImplTest {
         Integer totalChunks = 10;
         MockMultipartFile multipartFile = dummyMultipartFile(filename);
 
-        when(repository.existsByUserIdAndFilename(userId, filename)).thenReturn(true);
+        when(repository.findStorageKeyByUserIdAndFilename(userId, filename)).thenReturn("previousStorageKey");
+        when(sharedContent.acquire(anyString(), anyLong(), any(Path.class))).thenReturn(dummyStoredContent(4L));
 
         //when
-        service.store(userId, multipartFile, totalChunks, true, uploadedTime);
+        service.store(userId, multipartFile, ContentRange.whole(4), totalChunks, uploadedTime);
 
         //then
-        verify(repository).existsByUserIdAndFilename(userId, filename);
-        verify(repository).updateByUserIdAndFilename(userId, filename, uploadedTime, COMPLETED, totalChunks, multipartFile.getBytes());
+        verify(repository).findStorageKeyByUserIdAndFilename(userId, filename);
+        verify(repository).upsertCompleted(eq(userId), eq(filename), eq(Timestamp.from(uploadedTime)), any(Timestamp.class),
+                eq(totalChunks), eq(4L), eq("storageKey"), eq(TEST_CONTENT_HASH), eq("IDENTITY"),
+                eq(4L), eq(true));
+        verify(sharedContent).acquire(eq(TEST_CONTENT_HASH), eq(4L), any(Path.class));
+        verify(sharedContent).release("previousStorageKey");
+        verifyNoMoreInteractions(repository, contentStore, sharedContent);
+        assertEquals(sessionRegistry.getTmpBytesInUse(), 0L);
+        assertFalse(sessionRegistry.isFinalizing(userId, filename));
+    }
+
+    @Test
+    public void storeShouldAssembleOutOfOrderAndRetriedChunksAndFinalizeOnce() throws Exception {
+        //given
+        String userId = "userId";
+        String filename = "test.txt";
+        Instant uploadedTime = Instant.now();
+        Integer totalChunks = 3;
+
+        List<String> storedContents = new ArrayList<>();
+        doAnswer(invocationOnMock -> {
+            storedContents.add(new String(Files.readAllBytes(invocationOnMock.getArgumentAt(2, Path.class))));
+            return dummyStoredContent(invocationOnMock.getArgumentAt(1, Long.class));
+        }).when(sharedContent).acquire(anyString(), anyLong(), any(Path.class));
+
+        //when
+        service.store(userId, dummyMultipartFile(filename, "89"), new ContentRange(8, 10, 10), totalChunks, uploadedTime);
+        service.store(userId, dummyMultipartFile(filename, "0123"), new ContentRange(0, 4, 10), totalChunks, uploadedTime);
+        service.store(userId, dummyMultipartFile(filename, "89"), new ContentRange(8, 10, 10), totalChunks, uploadedTime);
+        service.store(userId, dummyMultipartFile(filename, "4567"), new ContentRange(4, 8, 10), totalChunks, uploadedTime);
+
+        //then
+        assertEquals(storedContents, singletonList("0123456789"));
+
+        verify(repository).insertPendingIfAbsent(eq(userId), eq(filename), eq(Timestamp.from(uploadedTime)), any(Timestamp.class));
+        verify(repository).findStorageKeyByUserIdAndFilename(userId, filename);
+        verify(repository).upsertCompleted(eq(userId), eq(filename), eq(Timestamp.from(uploadedTime)), any(Timestamp.class),
+                eq(totalChunks), eq(10L), eq("storageKey"),
+                eq(DIGITS_CONTENT_HASH), eq("IDENTITY"), eq(10L), eq(true));
+        verify(sharedContent).acquire(eq(DIGITS_CONTENT_HASH), eq(10L), any(Path.class));
+        verifyNoMoreInteractions(repository, contentStore, sharedContent);
+    }
+
+    @Test
+    public void storeShouldNotTouchDatabaseForIntermediateChunks() throws Exception {
+        //given
+        String userId = "userId";
+        String filename = "test.pdf";
+        Instant uploadedTime = Instant.now();
+
+        //when
+        service.store(userId, dummyMultipartFile(filename), new ContentRange(0, 4, 16), 4, uploadedTime);
+        service.store(userId, dummyMultipartFile(filename), new ContentRange(4, 8, 16), 4, uploadedTime);
+        service.store(userId, dummyMultipartFile(filename), new ContentRange(8, 12, 16), 4, uploadedTime);
+
+        //then
+        verify(repository).insertPendingIfAbsent(eq(userId), eq(filename), eq(Timestamp.from(uploadedTime)), any(Timestamp.class));
         verifyNoMoreInteractions(repository);
+        assertEquals(sessionRegistry.size(), 1);
     }
 
-    @Test(expected = StorageException.class)
-    public void storeShouldThrowStorageExceptionWhenSomethingGoesWrongWhileCreatingRecord() throws Exception {
+    @Test
+    public void storeShouldRecordStageTimingsAndReceivedBytes() throws Exception {
         //given
         String userId = "userId";
         String filename = "test.pdf";
         Instant uploadedTime = Instant.now();
-        Integer totalChunks = 1;
-        MockMultipartFile multipartFile = dummyMultipartFile(filename);
 
-        when(repository.existsByUserIdAndFilename(userId, filename)).thenReturn(false).thenReturn(false);
-        doThrow(IOException.class).doReturn(null).when(repository).save(any(UploadedFile.class));
+        when(sharedContent.acquire(anyString(), anyLong(), any(Path.class))).thenReturn(dummyStoredContent(4L));
+
+        //when
+        service.store(userId, dummyMultipartFile(filename), new ContentRange(0, 4, 8), 2, uploadedTime);
+        service.store(userId, dummyMultipartFile(filename), new ContentRange(4, 8, 8), 2, uploadedTime);
+
+        //then
+        assertEquals(meterRegistry.get("upload.stage").tag("stage", "session_open").timer().count(), 2L);
+        assertEquals(meterRegistry.get("upload.stage").tag("stage", "temp_write").timer().count(), 2L);
+        assertEquals(meterRegistry.get("upload.stage").tag("stage", "pending_insert").timer().count(), 1L);
+        assertEquals(meterRegistry.get("upload.stage").tag("stage", "content_put").timer().count(), 1L);
+        assertEquals(meterRegistry.get("upload.stage").tag("stage", "metadata_upsert").timer().count(), 1L);
+        assertEquals(meterRegistry.get("upload.requests").tag("outcome", "pending").timer().count(), 1L);
+        assertEquals(meterRegistry.get("upload.requests").tag("outcome", "completed").timer().count(), 1L);
+        assertEquals(meterRegistry.get("upload.bytes.in").counter().count(), 8.0, 0);
+    }
+
+    @Test
+    public void storeShouldFinalizeOnRequestThreadWithoutInterferenceFromNewUploadOfSameFile() throws Exception {
+        //given
+        String userId = "userId";
+        String filename = "test.txt";
+        Instant uploadedTime = Instant.now();
+
+        List<String> storedContents = new ArrayList<>();
+        doAnswer(invocationOnMock -> {
+            // the same file is uploaded again while the previous upload is being finalized
+            service.store(userId, filename, new ByteArrayInputStream("abcd".getBytes()), new ContentRange(0, 4, 8), 2,
+                    uploadedTime);
+            storedContents.add(new String(Files.readAllBytes(invocationOnMock.getArgumentAt(2, Path.class))));
+            return dummyStoredContent(4L);
+        }).when(sharedContent).acquire(anyString(), anyLong(), any(Path.class));
+
+        //when
+        FileUploadStatus status = service.store(userId, filename, new ByteArrayInputStream("0123".getBytes()),
+                ContentRange.whole(4), null, uploadedTime);
+
+        //then
+        assertEquals(status, COMPLETED);
+        assertEquals(storedContents, singletonList("0123"));
+        assertEquals(service.findUploadProgress(userId, filename).getOffset(), 4L);
+    }
+
+    @Test
+    public void storeShouldFinalizeInBackgroundWhenAsyncFinalizationIsEnabled() throws Exception {
+        //given
+        String userId = "userId";
+        String filename = "test.pdf";
+        Instant uploadedTime = Instant.now();
+        List<Runnable> tasks = new ArrayList<>();
+
+        ReflectionTestUtils.setField(service, "asyncFinalization", true);
+        ReflectionTestUtils.setField(service, "finalizationExecutor", (TaskExecutor) tasks::add);
+        when(sharedContent.acquire(anyString(), anyLong(), any(Path.class))).thenReturn(dummyStoredContent(4L));
+
+        //when
+        FileUploadStatus status = service.store(userId, dummyMultipartFile(filename), ContentRange.whole(4), null, uploadedTime);
+
+        //then
+        assertEquals(status, FINALIZING);
+        assertEquals(tasks.size(), 1);
+        assertFalse(Files.exists(getTemporaryDirectory().resolve(userId + "_" + filename)));
+        verify(repository).upsertFinalizing(eq(userId), eq(filename), eq(Timestamp.from(uploadedTime)), any(Timestamp.class), eq(1));
+        verifyNoMoreInteractions(repository, contentStore, sharedContent);
+
+        tasks.get(0).run();
+
+        verify(repository).findStorageKeyByUserIdAndFilename(userId, filename);
+        verify(repository).upsertCompleted(eq(userId), eq(filename), eq(Timestamp.from(uploadedTime)), any(Timestamp.class),
+                eq(1), eq(4L), eq("storageKey"), eq(TEST_CONTENT_HASH), eq("IDENTITY"),
+                eq(4L), eq(true));
+        verify(sharedContent).acquire(eq(TEST_CONTENT_HASH), eq(4L), any(Path.class));
+        verifyNoMoreInteractions(repository, contentStore, sharedContent);
+        try (Stream<Path> leftovers = Files.list(getTemporaryDirectory())) {
+            assertEquals(leftovers.count(), 0L);
+        }
+    }
+
+    @Test
+    public void storeShouldFinalizeOnRequestThreadWhenFinalizationQueueIsFull() throws Exception {
+        //given
+        String userId = "userId";
+        String filename = "test.pdf";
+        Instant uploadedTime = Instant.now();
+
+        ReflectionTestUtils.setField(service, "asyncFinalization", true);
+        ReflectionTestUtils.setField(service, "finalizationExecutor", (TaskExecutor) task -> {
+            throw new TaskRejectedException("queue is full");
+        });
+        when(sharedContent.acquire(anyString(), anyLong(), any(Path.class))).thenReturn(dummyStoredContent(4L));
+
+        //when
+        FileUploadStatus status = service.store(userId, dummyMultipartFile(filename), ContentRange.whole(4), null, uploadedTime);
+
+        //then
+        assertEquals(status, COMPLETED);
+        verify(repository).upsertFinalizing(eq(userId), eq(filename), eq(Timestamp.from(uploadedTime)), any(Timestamp.class), eq(1));
+        verify(repository).findStorageKeyByUserIdAndFilename(userId, filename);
+        verify(repository).upsertCompleted(eq(userId), eq(filename), eq(Timestamp.from(uploadedTime)), any(Timestamp.class),
+                eq(1), eq(4L), eq("storageKey"), eq(TEST_CONTENT_HASH), eq("IDENTITY"),
+                eq(4L), eq(true));
+        verify(sharedContent).acquire(eq(TEST_CONTENT_HASH), eq(4L), any(Path.class));
+        verifyNoMoreInteractions(repository, contentStore, sharedContent);
+    }
+
+    @Test
+    public void storeShouldMarkUploadAsFailedWhenBackgroundFinalizationFails() throws Exception {
+        //given
+        String userId = "userId";
+        String filename = "test.pdf";
+        Instant uploadedTime = Instant.now();
+
+        ReflectionTestUtils.setField(service, "asyncFinalization", true);
+        ReflectionTestUtils.setField(service, "finalizationExecutor", (TaskExecutor) Runnable::run);
+        doThrow(new StorageException("disk full")).when(sharedContent).acquire(anyString(), anyLong(), any(Path.class));
+
+        //when
+        FileUploadStatus status = service.store(userId, dummyMultipartFile(filename), ContentRange.whole(4), null, uploadedTime);
+
+        //then
+        assertEquals(status, FINALIZING);
+        verify(repository).upsertFailed(eq(userId), eq(filename), eq(Timestamp.from(uploadedTime)), any(Timestamp.class), eq(1),
+                eq("Could not process given file: userId userId, filename test.pdf. Exception: disk full"));
+        try (Stream<Path> leftovers = Files.list(getTemporaryDirectory())) {
+            assertEquals(leftovers.count(), 0L);
+        }
+    }
+
+    @Test
+    public void storeShouldStreamContentToItsOffset() throws Exception {
+        //given
+        String userId = "userId";
+        String filename = "test.txt";
+        Instant uploadedTime = Instant.now();
+
+        List<String> storedContents = new ArrayList<>();
+        doAnswer(invocationOnMock -> {
+            storedContents.add(new String(Files.readAllBytes(invocationOnMock.getArgumentAt(2, Path.class))));
+            return dummyStoredContent(invocationOnMock.getArgumentAt(1, Long.class));
+        }).when(sharedContent).acquire(anyString(), anyLong(), any(Path.class));
+
+        //when
+        FileUploadStatus first = service.store(userId, filename, new ByteArrayInputStream("4567".getBytes()),
+                new ContentRange(4, 8, 8), 2, uploadedTime);
+        FileUploadStatus second = service.store(userId, filename, new ByteArrayInputStream("0123".getBytes()),
+                new ContentRange(0, 4, 8), 2, uploadedTime);
+
+        //then
+        assertEquals(first, PENDING);
+        assertEquals(second, COMPLETED);
+        assertEquals(storedContents, singletonList("01234567"));
+    }
+
+    @Test(expected = StorageException.class)
+    public void storeShouldThrowStorageExceptionWhenContentIsShorterThanContentRange() throws Exception {
+        //when
+        service.store("userId", "test.txt", new ByteArrayInputStream("012".getBytes()),
+                new ContentRange(0, 4, 8), 2, Instant.now());
+    }
+
+    @Test(expected = StorageException.class)
+    public void storeShouldThrowStorageExceptionWhenContentIsLongerThanContentRange() throws Exception {
+        //when
+        service.store("userId", "test.txt", new ByteArrayInputStream("01234".getBytes()),
+                new ContentRange(0, 4, 8), 2, Instant.now());
+    }
+
+    @Test
+    public void storeShouldRejectCompletingChunkLongerThanContentRangeWithoutFinalizingUpload() throws Exception {
+        //given
+        String userId = "userId";
+        String filename = "test.txt";
 
         //when
         try {
-            service.store(userId, multipartFile, totalChunks, true, uploadedTime);
-        } finally {
-            //then
-            verify(repository, times(2)).existsByUserIdAndFilename(userId, filename);
-            verify(repository, times(2)).save(any(UploadedFile.class));
-            verifyNoMoreInteractions(repository);
+            service.store(userId, filename, new ByteArrayInputStream("01234".getBytes()), ContentRange.whole(4), null,
+                    Instant.now());
+            fail();
+        } catch (StorageException e) {
+            assertEquals(e.getMessage(), "Could not process given file: userId userId, filename test.txt. " +
+                    "Exception: Received content does not match the declared chunk size of 4 bytes. Upload offset: 0");
+        }
+        UploadProgressResource progress = service.findUploadProgress(userId, filename);
+
+        //then
+        assertEquals(progress.getOffset(), 0L);
+        verify(sharedContent, times(0)).acquire(anyString(), anyLong(), any(Path.class));
+        verify(repository, times(0)).upsertCompleted(anyString(), anyString(), any(Timestamp.class), any(Timestamp.class),
+                any(Integer.class), anyLong(), anyString(), anyString(), anyString(), anyLong(), anyBoolean());
+    }
+
+    @Test
+    public void storeShouldKeepBytesOfInterruptedChunkSoUploadCanBeResumed() throws Exception {
+        //given
+        String userId = "userId";
+        String filename = "test.txt";
+        Instant uploadedTime = Instant.now();
+
+        List<String> storedContents = new ArrayList<>();
+        doAnswer(invocationOnMock -> {
+            storedContents.add(new String(Files.readAllBytes(invocationOnMock.getArgumentAt(2, Path.class))));
+            return dummyStoredContent(invocationOnMock.getArgumentAt(1, Long.class));
+        }).when(sharedContent).acquire(anyString(), anyLong(), any(Path.class));
+
+        //when
+        try {
+            service.store(userId, filename, interruptedStream("012345"), ContentRange.whole(10), null, uploadedTime);
+        } catch (StorageException e) {
+            assertEquals(e.getMessage(), "Could not process given file: userId userId, filename test.txt. " +
+                    "Exception: Received content does not match the declared chunk size of 10 bytes. Upload offset: 6");
         }
+        UploadProgressResource progress = service.findUploadProgress(userId, filename);
+        FileUploadStatus status = service.store(userId, filename, new ByteArrayInputStream("6789".getBytes()),
+                new ContentRange(6, 10, 10), null, uploadedTime);
+
+        //then
+        assertEquals(progress.getOffset(), 6L);
+        assertEquals(progress.getTotalBytes(), 10L);
+        assertEquals(status, COMPLETED);
+        assertEquals(storedContents, singletonList("0123456789"));
+        verify(repository).insertPendingIfAbsent(eq(userId), eq(filename), eq(Timestamp.from(uploadedTime)), any(Timestamp.class));
+        verify(repository, times(0)).upsertFailed(anyString(), anyString(), any(Timestamp.class), any(Timestamp.class),
+                any(Integer.class), anyString());
+        verify(sharedContent).acquire(eq(DIGITS_CONTENT_HASH), eq(10L), any(Path.class));
+    }
+
+    @Test
+    public void findUploadProgressShouldCountOnlyBytesWithoutGapAsOffset() throws Exception {
+        //given
+        String userId = "userId";
+        String filename = "test.txt";
+        Instant uploadedTime = Instant.now();
+
+        service.store(userId, filename, new ByteArrayInputStream("0123".getBytes()), new ContentRange(0, 4, 10), 3,
+                uploadedTime);
+        service.store(userId, filename, new ByteArrayInputStream("89".getBytes()), new ContentRange(8, 10, 10), 3,
+                uploadedTime);
+
+        //when
+        UploadProgressResource progress = service.findUploadProgress(userId, filename);
+
+        //then
+        assertEquals(progress.getOffset(), 4L);
+        assertEquals(progress.getReceivedBytes(), 6L);
+        assertEquals(progress.getTotalBytes(), 10L);
+    }
+
+    @Test(expected = ResourceNotFoundException.class)
+    public void findUploadProgressShouldThrowResourceNotFoundExceptionWhenUploadIsNotInProgress() {
+        //when
+        service.findUploadProgress("userId", "test.txt");
+    }
+
+    @Test(expected = StorageException.class)
+    public void storeShouldThrowStorageExceptionWhenDeclaredTotalChangesDuringUpload() throws Exception {
+        //given
+        String userId = "userId";
+        String filename = "test.pdf";
+        Instant uploadedTime = Instant.now();
+
+        service.store(userId, dummyMultipartFile(filename), new ContentRange(0, 4, 8), 2, uploadedTime);
+
+        //when
+        service.store(userId, dummyMultipartFile(filename), new ContentRange(4, 8, 12), 3, uploadedTime);
     }
 
     @Test(expected = StorageException.class)
-    public void storeShouldThrowStorageExceptionWhenSomethingGoesWrongWhileUpdatingRecord() throws Exception {
+    public void storeShouldThrowStorageExceptionWhenSomethingGoesWrongWhileSavingRecord() throws Exception {
         //given
         String userId = "userId";
         String filename = "test.pdf";
@@ -330,26 +925,154 @@ public class StorageServiceImplTest {
         Integer totalChunks = 10;
         MockMultipartFile multipartFile = dummyMultipartFile(filename);
 
-        when(repository.existsByUserIdAndFilename(userId, filename)).thenReturn(true).thenReturn(true);
+        when(repository.findStorageKeyByUserIdAndFilename(userId, filename)).thenReturn("previousStorageKey");
+        when(sharedContent.acquire(anyString(), anyLong(), any(Path.class))).thenReturn(dummyStoredContent(4L));
         doAnswer(invocationOnMock -> {
             throw new IOException("error");
-        }).when(repository)
-                .updateByUserIdAndFilename(userId, filename, uploadedTime, COMPLETED, totalChunks, multipartFile.getBytes());
+        }).when(repository).upsertCompleted(eq(userId), eq(filename), eq(Timestamp.from(uploadedTime)), any(Timestamp.class),
+                eq(totalChunks), eq(4L), eq("storageKey"), eq(TEST_CONTENT_HASH), eq("IDENTITY"),
+                eq(4L), eq(true));
 
         //when
         try {
-            service.store(userId, multipartFile, totalChunks, true, uploadedTime);
+            service.store(userId, multipartFile, ContentRange.whole(4), totalChunks, uploadedTime);
         } finally {
             //then
-            verify(repository, times(2)).existsByUserIdAndFilename(userId, filename);
-            verify(repository).updateByUserIdAndFilename(userId, filename, uploadedTime, COMPLETED, totalChunks, multipartFile.getBytes());
-            verify(repository).updateByUserIdAndFilename(userId, filename, uploadedTime, FAILED, totalChunks, "Could not process given file: userId userId, filename test.pdf. Exception: error");
-            verifyNoMoreInteractions(repository);
+            verify(repository).findStorageKeyByUserIdAndFilename(userId, filename);
+            verify(repository).upsertCompleted(eq(userId), eq(filename), eq(Timestamp.from(uploadedTime)), any(Timestamp.class),
+                    eq(totalChunks), eq(4L), eq("storageKey"), eq(TEST_CONTENT_HASH), eq("IDENTITY"), eq(4L), eq(true));
+            verify(repository).upsertFailed(eq(userId), eq(filename), eq(Timestamp.from(uploadedTime)), any(Timestamp.class),
+                    eq(totalChunks), eq("Could not process given file: userId userId, filename test.pdf. Exception: error"));
+            verify(sharedContent).acquire(eq(TEST_CONTENT_HASH), eq(4L), any(Path.class));
+            verify(sharedContent).release("storageKey");
+            verifyNoMoreInteractions(repository, contentStore, sharedContent);
+        }
+    }
+
+    private InputStream interruptedStream(String content) {
+        return new SequenceInputStream(new ByteArrayInputStream(content.getBytes()), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        });
+    }
+
+    @Test
+    public void storeBatchShouldStoreEveryPartAndRecordThemInOneBatch() throws Exception {
+        //given
+        String userId = "userId";
+        Instant uploadedTime = Instant.now();
+
+        UploadedFileInfo previous = Mockito.mock(UploadedFileInfo.class);
+        when(previous.getStorageKey()).thenReturn("previousStorageKey");
+        when(repository.findByUserIdAndFilenameIn(eq(userId), any())).thenReturn(singletonList(previous));
+        when(sharedContent.acquire(anyString(), anyLong(), any(Path.class))).thenReturn(dummyStoredContent(4L));
+        List<UploadedFile> recorded = new ArrayList<>();
+        doAnswer(invocationOnMock -> recorded.addAll(argumentAt(invocationOnMock, 0)))
+                .when(repository).upsertCompletedAll(any());
+
+        List<UploadPart> parts = Arrays.asList(
+                new UploadPart("test.txt", new ByteArrayInputStream("test".getBytes())),
+                new UploadPart("..test.txt", new ByteArrayInputStream("test".getBytes())),
+                new UploadPart("empty.txt", new ByteArrayInputStream(new byte[0])),
+                new UploadPart("large.txt", new ByteArrayInputStream("0123456789a".getBytes())),
+                new UploadPart(null, new ByteArrayInputStream("test".getBytes())),
+                new UploadPart(" ", new ByteArrayInputStream("test".getBytes())));
+
+        //when
+        List<BatchUploadResultResource> results = service.storeBatch(userId, parts.iterator(), uploadedTime);
+
+        //then
+        assertEquals(results.size(), 6);
+        assertEquals(results.get(0).getStatus(), "Completed");
+        assertEquals(results.get(0).getSize(), Long.valueOf(4));
+        assertEquals(results.get(1).getStatus(), "Failed");
+        assertEquals(results.get(2).getStatus(), "Failed");
+        assertEquals(results.get(3).getStatus(), "Failed");
+        assertEquals(results.get(3).getError(), "File size not allowed. Max file size allowed: 10 bytes");
+        assertEquals(results.get(4).getStatus(), "Failed");
+        assertEquals(results.get(4).getError(), "Failed to store file part without a filename");
+        assertEquals(results.get(5).getStatus(), "Failed");
+        assertEquals(results.get(5).getError(), "Failed to store file part without a filename");
+
+        assertEquals(recorded.size(), 1);
+        assertEquals(recorded.get(0).getFilename(), "test.txt");
+        assertEquals(recorded.get(0).getCreatedAt(), uploadedTime);
+        assertEquals(recorded.get(0).getContentHash(), TEST_CONTENT_HASH);
+        assertEquals(recorded.get(0).getStorageKey(), "storageKey");
+        verify(sharedContent).acquire(eq(TEST_CONTENT_HASH), eq(4L), any(Path.class));
+        verify(sharedContent).release("previousStorageKey");
+        verify(repository).upsertCompletedAll(any());
+        try (Stream<Path> leftovers = Files.list(getTemporaryDirectory())) {
+            assertEquals(leftovers.count(), 0L);
         }
     }
 
+    @Test(expected = StorageException.class)
+    public void storeBatchShouldReleaseStoredContentWhenRequestCannotBeRead() throws Exception {
+        //given
+        when(sharedContent.acquire(anyString(), anyLong(), any(Path.class))).thenReturn(dummyStoredContent(4L));
+
+        List<UploadPart> parts = Arrays.asList(
+                new UploadPart("test.txt", new ByteArrayInputStream("test".getBytes())),
+                new UploadPart("broken.txt", interruptedStream("01")));
+
+        //when
+        try {
+            service.storeBatch("userId", parts.iterator(), Instant.now());
+        } finally {
+            //then
+            verify(sharedContent).acquire(eq(TEST_CONTENT_HASH), eq(4L), any(Path.class));
+            verify(sharedContent).release("storageKey");
+            verifyNoMoreInteractions(repository, sharedContent);
+        }
+    }
+
+    private UploadedFileInfo dummyUploadedFileInfo(FileUploadStatus status) {
+        UploadedFileInfo uploadedFileInfo = Mockito.mock(UploadedFileInfo.class);
+        when(uploadedFileInfo.getId()).thenReturn(1L);
+        when(uploadedFileInfo.getFilename()).thenReturn("test.pdf");
+        when(uploadedFileInfo.getStatus()).thenReturn(status);
+        when(uploadedFileInfo.getSize()).thenReturn(9L);
+        when(uploadedFileInfo.getLastModifiedAt()).thenReturn(Instant.now());
+        when(uploadedFileInfo.getStorageKey()).thenReturn("storageKey");
+        when(uploadedFileInfo.getContentHash()).thenReturn(TEST_CONTENT_HASH);
+        return uploadedFileInfo;
+    }
+
+    private StoredContent dummyStoredContent(Long size) {
+        return StoredContent.builder()
+                .contentHash("hash")
+                .storageKey("storageKey")
+                .size(size)
+                .codec(ContentCodec.IDENTITY)
+                .storedSize(size)
+                .compressible(true)
+                .referenceCount(1)
+                .build();
+    }
+
     private MockMultipartFile dummyMultipartFile(String filename) {
-        return new MockMultipartFile("test", filename, "image/jpeg", "test".getBytes());
+        return dummyMultipartFile(filename, "test");
+    }
+
+    private MockMultipartFile dummyMultipartFile(String filename, String content) {
+        return new MockMultipartFile("test", filename, "image/jpeg", content.getBytes());
+    }
+
+    private UploadedFileInfo dummyUploadedFileInfo(Long id, String filename) {
+        UploadedFileInfo uploadedFileInfo = Mockito.mock(UploadedFileInfo.class);
+        when(uploadedFileInfo.getId()).thenReturn(id);
+        when(uploadedFileInfo.getUserId()).thenReturn("userId");
+        when(uploadedFileInfo.getFilename()).thenReturn(filename);
+        when(uploadedFileInfo.getStatus()).thenReturn(COMPLETED);
+        return uploadedFileInfo;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T argumentAt(InvocationOnMock invocation, int index) {
+        return (T) invocation.getArguments()[index];
     }
 
-}
\ No newline at end of file
+}
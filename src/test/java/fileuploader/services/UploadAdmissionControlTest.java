@@ -0,0 +1,148 @@
+package fileuploader.services;
+
+import fileuploader.exceptions.TooManyRequestsException;
+import fileuploader.metrics.UploadMetrics;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static fileuploader.services.UploadAdmissionControl.BYTES_LIMIT;
+import static fileuploader.services.UploadAdmissionControl.UPLOADS_LIMIT;
+import static fileuploader.services.UploadAdmissionControl.USER_BYTES_LIMIT;
+import static fileuploader.services.UploadAdmissionControl.USER_UPLOADS_LIMIT;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class UploadAdmissionControlTest {
+
+    @Mock
+    private UploadMetrics metrics;
+
+    @InjectMocks
+    private UploadAdmissionControl admissionControl;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+        ReflectionTestUtils.setField(admissionControl, "maxUploads", "3");
+        ReflectionTestUtils.setField(admissionControl, "maxUserUploads", "2");
+        ReflectionTestUtils.setField(admissionControl, "maxBytes", "100");
+        ReflectionTestUtils.setField(admissionControl, "maxUserBytes", "50");
+    }
+
+    @Test
+    public void admitShouldHoldLimitsUntilClosed() {
+        //when
+        UploadAdmissionControl.Admission admission = admissionControl.admit("userId", 10);
+
+        //then
+        assertEquals(admissionControl.getUploads(), 1);
+        assertEquals(admissionControl.getBytes(), 10L);
+
+        //when
+        admission.close();
+        admission.close();
+
+        //then
+        assertEquals(admissionControl.getUploads(), 0);
+        assertEquals(admissionControl.getBytes(), 0L);
+    }
+
+    @Test(expected = TooManyRequestsException.class)
+    public void admitShouldRejectWhenUserHasTooManyUploads() {
+        //given
+        admissionControl.admit("userId", 1);
+        admissionControl.admit("userId", 1);
+        admissionControl.admit("otherUserId", 1).close();
+
+        //when
+        try {
+            admissionControl.admit("userId", 1);
+        } finally {
+            //then
+            assertEquals(admissionControl.getUploads(), 2);
+            verify(metrics).uploadRejected(USER_UPLOADS_LIMIT);
+            verifyNoMoreInteractions(metrics);
+        }
+    }
+
+    @Test(expected = TooManyRequestsException.class)
+    public void admitShouldCountUploadsWithoutUserIdInOneSharedBucket() {
+        //given
+        admissionControl.admit(null, 1);
+        admissionControl.admit(null, 1);
+
+        //when
+        try {
+            admissionControl.admit(null, 1);
+        } finally {
+            //then
+            assertEquals(admissionControl.getUploads(), 2);
+            verify(metrics).uploadRejected(USER_UPLOADS_LIMIT);
+            verifyNoMoreInteractions(metrics);
+        }
+    }
+
+    @Test(expected = TooManyRequestsException.class)
+    public void admitShouldRejectWhenThereAreTooManyUploads() {
+        //given
+        admissionControl.admit("a", 1);
+        admissionControl.admit("b", 1);
+        admissionControl.admit(null, 1);
+
+        //when
+        try {
+            admissionControl.admit("c", 1);
+        } finally {
+            //then
+            verify(metrics).uploadRejected(UPLOADS_LIMIT);
+            verifyNoMoreInteractions(metrics);
+        }
+    }
+
+    @Test(expected = TooManyRequestsException.class)
+    public void admitShouldRejectWhenUserHasTooManyBytesInFlight() {
+        //given
+        admissionControl.admit("userId", 40);
+
+        //when
+        try {
+            admissionControl.admit("userId", 20);
+        } finally {
+            //then
+            verify(metrics).uploadRejected(USER_BYTES_LIMIT);
+            verifyNoMoreInteractions(metrics);
+        }
+    }
+
+    @Test(expected = TooManyRequestsException.class)
+    public void admitShouldRejectWhenThereAreTooManyBytesInFlight() {
+        //given
+        admissionControl.admit("a", 50);
+        admissionControl.admit("b", 40);
+
+        //when
+        try {
+            admissionControl.admit("c", 20);
+        } finally {
+            //then
+            verify(metrics).uploadRejected(BYTES_LIMIT);
+            verifyNoMoreInteractions(metrics);
+        }
+    }
+
+    @Test
+    public void admitShouldAdmitUploadLargerThanLimitsWhenNothingElseIsInFlight() {
+        //when
+        admissionControl.admit("userId", 1000);
+
+        //then
+        assertEquals(admissionControl.getBytes(), 1000L);
+        verifyNoMoreInteractions(metrics);
+    }
+
+}
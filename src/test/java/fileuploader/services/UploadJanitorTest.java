@@ -0,0 +1,220 @@
+package fileuploader.services;
+
+import fileuploader.enums.FileUploadStatus;
+import fileuploader.metrics.UploadMetrics;
+import fileuploader.projection.UploadedFileInfo;
+import fileuploader.repositories.UploadedFileRepository;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.Spy;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.sql.Timestamp;
+import java.time.Instant;
+
+import static fileuploader.enums.FileUploadStatus.FINALIZING;
+import static fileuploader.enums.FileUploadStatus.PENDING;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class UploadJanitorTest {
+
+    private static final String ABANDONED_UPLOAD_ERROR = "Upload abandoned: no chunk received for 3600 seconds";
+    private static final String INTERRUPTED_FINALIZATION_ERROR = "Upload abandoned: finalization did not complete";
+
+    @Mock
+    private UploadedFileRepository repository;
+
+    @Mock
+    private UploadMetrics metrics;
+
+    @Spy
+    private UploadSessionRegistry sessionRegistry = new UploadSessionRegistry();
+
+    @InjectMocks
+    private UploadJanitor janitor;
+
+    private String tmpDirectory = "fileuploader_janitor_test";
+
+    @Before
+    public void setup() throws IOException {
+        initMocks(this);
+        ReflectionTestUtils.setField(janitor, "tmpDirectory", tmpDirectory);
+        ReflectionTestUtils.setField(janitor, "idleTimeoutSeconds", "3600");
+        ReflectionTestUtils.setField(janitor, "batchSize", "10");
+        ReflectionTestUtils.setField(sessionRegistry, "maxSessions", "10");
+        ReflectionTestUtils.setField(sessionRegistry, "maxTmpBytes", "1000");
+
+        Files.createDirectories(getTemporaryDirectory());
+        when(repository.findByStatusInAndCreatedAtBeforeOrderByCreatedAtAsc(eq(asList(PENDING, FINALIZING)),
+                any(Instant.class), any(Pageable.class)))
+                .thenReturn(emptyList());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(getTemporaryDirectory().toFile());
+    }
+
+    @Test
+    public void sweepShouldExpireIdleSessionsAndFailTheirUploads() throws Exception {
+        //given
+        Path tempFile = createTempFile("userId_idle.pdf", 4, 0L);
+        UploadSession idle = sessionRegistry.open("userId", "idle.pdf", 4,
+                () -> new UploadSession("userId", "idle.pdf", tempFile, new ReceivedRanges(4)));
+        ReflectionTestUtils.setField(idle, "lastAccessedAt", 0L);
+
+        Path activeFile = createTempFile("userId_active.pdf", 4, System.currentTimeMillis());
+        sessionRegistry.open("userId", "active.pdf", 4,
+                () -> new UploadSession("userId", "active.pdf", activeFile, new ReceivedRanges(4)));
+
+        when(repository.failPending(eq("userId"), eq("idle.pdf"), any(Timestamp.class), eq(ABANDONED_UPLOAD_ERROR)))
+                .thenReturn(1);
+
+        //when
+        janitor.sweep();
+
+        //then
+        assertFalse(Files.exists(tempFile));
+        assertTrue(Files.exists(activeFile));
+        assertFalse(sessionRegistry.contains("userId", "idle.pdf"));
+        assertTrue(sessionRegistry.contains("userId", "active.pdf"));
+
+        verify(repository).failPending(eq("userId"), eq("idle.pdf"), any(Timestamp.class), eq(ABANDONED_UPLOAD_ERROR));
+        verify(repository, never()).failPending(eq("userId"), eq("active.pdf"), any(Timestamp.class), anyString());
+        verify(metrics).uploadsAbandoned(1);
+    }
+
+    @Test
+    public void sweepShouldFailPendingUploadsWithoutSession() {
+        //given
+        sessionRegistry.open("userId", "slow.pdf", 4,
+                () -> new UploadSession("userId", "slow.pdf", Paths.get("slow"), new ReceivedRanges(4)));
+
+        UploadedFileInfo orphaned = dummyUploadedFileInfo("orphaned.pdf", PENDING);
+        UploadedFileInfo slow = dummyUploadedFileInfo("slow.pdf", PENDING);
+        when(repository.findByStatusInAndCreatedAtBeforeOrderByCreatedAtAsc(eq(asList(PENDING, FINALIZING)),
+                any(Instant.class), any(Pageable.class)))
+                .thenReturn(asList(orphaned, slow));
+        when(repository.failUnfinished(eq("userId"), eq("orphaned.pdf"), any(Timestamp.class), eq(ABANDONED_UPLOAD_ERROR)))
+                .thenReturn(1);
+
+        //when
+        janitor.sweep();
+
+        //then
+        verify(repository).failUnfinished(eq("userId"), eq("orphaned.pdf"), any(Timestamp.class), eq(ABANDONED_UPLOAD_ERROR));
+        verify(repository, never()).failUnfinished(eq("userId"), eq("slow.pdf"), any(Timestamp.class), anyString());
+        verify(metrics).uploadsAbandoned(1);
+    }
+
+    @Test
+    public void sweepShouldFailFinalizingUploadsWithoutFinalization() throws Exception {
+        //given
+        Path assembledFile = createTempFile("userId_queued.pdf.finalizing", 4, 0L);
+        sessionRegistry.startFinalization("userId", "queued.pdf", assembledFile);
+
+        UploadedFileInfo interrupted = dummyUploadedFileInfo("interrupted.pdf", FINALIZING);
+        UploadedFileInfo queued = dummyUploadedFileInfo("queued.pdf", FINALIZING);
+        when(repository.findByStatusInAndCreatedAtBeforeOrderByCreatedAtAsc(eq(asList(PENDING, FINALIZING)),
+                any(Instant.class), any(Pageable.class)))
+                .thenReturn(asList(interrupted, queued));
+        when(repository.failUnfinished(eq("userId"), eq("interrupted.pdf"), any(Timestamp.class),
+                eq(INTERRUPTED_FINALIZATION_ERROR)))
+                .thenReturn(1);
+
+        //when
+        janitor.sweep();
+
+        //then
+        assertTrue(Files.exists(assembledFile));
+        verify(repository).failUnfinished(eq("userId"), eq("interrupted.pdf"), any(Timestamp.class),
+                eq(INTERRUPTED_FINALIZATION_ERROR));
+        verify(repository, never()).failUnfinished(eq("userId"), eq("queued.pdf"), any(Timestamp.class), anyString());
+        verify(metrics).uploadsAbandoned(1);
+    }
+
+    @Test
+    public void sweepShouldDeleteStaleTempFilesOfNoSessionInBatches() throws Exception {
+        //given
+        ReflectionTestUtils.setField(janitor, "batchSize", "2");
+        Path first = createTempFile("userId_a.pdf.finalizing", 1, 0L);
+        Path second = createTempFile("userId_b.pdf", 1, 0L);
+        Path third = createTempFile("userId_c.pdf", 1, 0L);
+        Path recent = createTempFile("userId_d.pdf", 1, System.currentTimeMillis());
+
+        //when
+        janitor.sweep();
+
+        //then
+        assertEquals(countExisting(first, second, third), 1);
+        assertTrue(Files.exists(recent));
+
+        //when
+        janitor.sweep();
+
+        //then
+        assertEquals(countExisting(first, second, third), 0);
+        assertTrue(Files.exists(recent));
+    }
+
+    @Test
+    public void sweepShouldReleaseTmpBytesOfExpiredSessions() throws Exception {
+        //given
+        UploadSession idle = sessionRegistry.open("userId", "a.pdf", 100,
+                () -> new UploadSession("userId", "a.pdf", Paths.get("a"), new ReceivedRanges(100)));
+        ReflectionTestUtils.setField(idle, "lastAccessedAt", 0L);
+        sessionRegistry.open("userId", "b.pdf", 30,
+                () -> new UploadSession("userId", "b.pdf", Paths.get("b"), new ReceivedRanges(30)));
+
+        //when
+        janitor.sweep();
+
+        //then
+        assertEquals(sessionRegistry.getTmpBytesInUse(), 30L);
+    }
+
+    private Path createTempFile(String name, int size, long lastModifiedAt) throws IOException {
+        Path file = Files.write(getTemporaryDirectory().resolve(name), new byte[size]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModifiedAt));
+        return file;
+    }
+
+    private long countExisting(Path... files) {
+        return asList(files).stream().filter(Files::exists).count();
+    }
+
+    private UploadedFileInfo dummyUploadedFileInfo(String filename, FileUploadStatus status) {
+        UploadedFileInfo uploadedFileInfo = Mockito.mock(UploadedFileInfo.class);
+        when(uploadedFileInfo.getUserId()).thenReturn("userId");
+        when(uploadedFileInfo.getFilename()).thenReturn(filename);
+        when(uploadedFileInfo.getStatus()).thenReturn(status);
+        return uploadedFileInfo;
+    }
+
+    private Path getTemporaryDirectory() {
+        return Paths.get(System.getProperty("user.home"), tmpDirectory);
+    }
+
+}
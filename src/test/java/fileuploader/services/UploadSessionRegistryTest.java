@@ -0,0 +1,137 @@
+package fileuploader.services;
+
+import fileuploader.exceptions.StorageException;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Paths;
+import java.util.List;
+
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class UploadSessionRegistryTest {
+
+    private UploadSessionRegistry registry;
+
+    @Before
+    public void setup() {
+        registry = new UploadSessionRegistry();
+        ReflectionTestUtils.setField(registry, "maxSessions", "2");
+        ReflectionTestUtils.setField(registry, "maxTmpBytes", "10");
+    }
+
+    @Test
+    public void openShouldStartSessionOnlyOnce() {
+        UploadSession first = registry.open("userId", "a.pdf", 4, () -> newSession("a"));
+        UploadSession second = registry.open("userId", "a.pdf", 4, () -> newSession("other"));
+
+        assertSame(first, second);
+        assertEquals(registry.size(), 1);
+        assertEquals(registry.getTmpBytesInUse(), 4L);
+    }
+
+    @Test
+    public void openShouldKeepSessionsOfDifferentUsersApart() {
+        UploadSession first = registry.open("user_a", "b.pdf", 4, () -> newSession("a"));
+        UploadSession second = registry.open("user", "a_b.pdf", 4, () -> newSession("b"));
+
+        assertNotSame(first, second);
+        assertEquals(registry.size(), 2);
+    }
+
+    @Test(expected = StorageException.class)
+    public void openShouldThrowStorageExceptionWhenRegistryIsFull() {
+        registry.open("userId", "a.pdf", 4, () -> newSession("a"));
+        registry.open("userId", "b.pdf", 4, () -> newSession("b"));
+
+        registry.open("userId", "c.pdf", 1, () -> newSession("c"));
+    }
+
+    @Test(expected = StorageException.class)
+    public void openShouldThrowStorageExceptionWhenTmpBudgetIsExceeded() {
+        registry.open("userId", "a.pdf", 4, () -> newSession("a"));
+
+        try {
+            registry.open("userId", "b.pdf", 7, () -> newSession("b"));
+        } finally {
+            assertEquals(registry.size(), 1);
+            assertEquals(registry.getTmpBytesInUse(), 4L);
+        }
+    }
+
+    @Test(expected = StorageException.class)
+    public void openShouldReleaseReservationWhenSessionCannotStart() {
+        try {
+            registry.open("userId", "a.pdf", 4, () -> {
+                throw new StorageException("could not preallocate");
+            });
+        } finally {
+            assertEquals(registry.size(), 0);
+            assertEquals(registry.getTmpBytesInUse(), 0L);
+        }
+    }
+
+    @Test
+    public void removeShouldReleaseTmpBytesOfTheSession() {
+        registry.open("userId", "a.pdf", 6, () -> newSession("a"));
+        registry.remove("userId", "a.pdf");
+        registry.remove("userId", "a.pdf");
+
+        registry.open("userId", "b.pdf", 6, () -> newSession("b"));
+
+        assertTrue(registry.contains("userId", "b.pdf"));
+        assertEquals(registry.getTmpBytesInUse(), 6L);
+    }
+
+    @Test
+    public void removeShouldFreeRoomForNewSessions() {
+        registry.open("userId", "a.pdf", 1, () -> newSession("a"));
+        registry.open("userId", "b.pdf", 1, () -> newSession("b"));
+
+        registry.remove("userId", "a.pdf");
+        registry.open("userId", "c.pdf", 1, () -> newSession("c"));
+
+        assertEquals(registry.size(), 2);
+        assertFalse(registry.contains("userId", "a.pdf"));
+        assertTrue(registry.contains("userId", "c.pdf"));
+    }
+
+    @Test
+    public void removeIdleSessionsShouldOnlyRemoveIdleSessions() {
+        UploadSession idle = registry.open("userId", "a.pdf", 1, () -> newSession("a"));
+        ReflectionTestUtils.setField(idle, "lastAccessedAt", 0L);
+        registry.open("userId", "b.pdf", 1, () -> newSession("b"));
+
+        List<UploadSession> removed = registry.removeIdleSessions(1000L, 10);
+
+        assertEquals(removed, singletonList(idle));
+        assertEquals(registry.size(), 1);
+        assertEquals(registry.tempFiles(), singleton(Paths.get("b")));
+        assertEquals(registry.getTmpBytesInUse(), 1L);
+    }
+
+    @Test
+    public void removeIdleSessionsShouldStopAtLimit() {
+        UploadSession first = registry.open("userId", "a.pdf", 1, () -> newSession("a"));
+        UploadSession second = registry.open("userId", "b.pdf", 1, () -> newSession("b"));
+        ReflectionTestUtils.setField(first, "lastAccessedAt", 0L);
+        ReflectionTestUtils.setField(second, "lastAccessedAt", 0L);
+
+        List<UploadSession> removed = registry.removeIdleSessions(1000L, 1);
+
+        assertEquals(removed.size(), 1);
+        assertEquals(registry.size(), 1);
+    }
+
+    private UploadSession newSession(String name) {
+        return new UploadSession("userId", name, Paths.get(name), new ReceivedRanges(4));
+    }
+
+}
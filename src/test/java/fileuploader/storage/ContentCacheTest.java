@@ -0,0 +1,170 @@
+package fileuploader.storage;
+
+import fileuploader.metrics.UploadMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class ContentCacheTest {
+
+    private String cacheDirectory = "fileuploader_test_cache";
+
+    @Mock
+    private ContentStore contentStore;
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    private UploadMetrics metrics = new UploadMetrics(meterRegistry, () -> 0, () -> 0);
+
+    @InjectMocks
+    private ContentCache contentCache;
+
+    @Before
+    public void setup() throws IOException {
+        initMocks(this);
+        ReflectionTestUtils.setField(contentCache, "enabled", true);
+        ReflectionTestUtils.setField(contentCache, "cacheDirectory", cacheDirectory);
+        ReflectionTestUtils.setField(contentCache, "maxBytes", "10");
+        ReflectionTestUtils.setField(contentCache, "maxEntryBytes", "8");
+        contentCache.init();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(Paths.get(System.getProperty("user.home"), cacheDirectory).toFile());
+    }
+
+    @Test
+    public void getShouldServeRangesFromCacheOnceContentWasReadToTheEnd() throws Exception {
+        //given
+        when(contentStore.get("key", 0, 6)).thenReturn(new ByteArrayInputStream("012345".getBytes()));
+        read("key", 0, 6);
+
+        //when
+        String range = read("key", 2, 3);
+
+        //then
+        assertEquals(range, "234");
+        assertEquals(contentCache.getCachedBytes(), 6L);
+        assertEquals(meterRegistry.get("download.cache.requests").tag("result", "hit").counter().count(), 1.0, 0);
+        assertEquals(meterRegistry.get("download.cache.requests").tag("result", "miss").counter().count(), 1.0, 0);
+        assertEquals(meterRegistry.get("download.cache.hit.ratio").gauge().value(), 0.5, 0);
+
+        verify(contentStore).get("key", 0, 6);
+        verifyNoMoreInteractions(contentStore);
+    }
+
+    @Test
+    public void getShouldNotCacheContentThatWasNotReadToTheEnd() throws Exception {
+        //given
+        when(contentStore.get("key", 0, 6)).thenReturn(new ByteArrayInputStream("012345".getBytes()),
+                new ByteArrayInputStream("012345".getBytes()));
+        try (InputStream inputStream = contentCache.get("key", 0, 6)) {
+            inputStream.read(new byte[3]);
+        }
+
+        //when
+        String content = read("key", 0, 6);
+
+        //then
+        assertEquals(content, "012345");
+        verify(contentStore, times(2)).get("key", 0, 6);
+    }
+
+    @Test
+    public void getShouldEvictLeastRecentlyUsedContentBeyondMaxBytes() throws Exception {
+        //given
+        when(contentStore.get("first", 0, 4)).thenReturn(new ByteArrayInputStream("1111".getBytes()));
+        when(contentStore.get("second", 0, 4)).thenReturn(new ByteArrayInputStream("2222".getBytes()),
+                new ByteArrayInputStream("2222".getBytes()));
+        when(contentStore.get("third", 0, 4)).thenReturn(new ByteArrayInputStream("3333".getBytes()));
+        read("first", 0, 4);
+        read("second", 0, 4);
+        read("first", 0, 4);
+
+        //when
+        read("third", 0, 4);
+        read("first", 0, 4);
+        read("second", 0, 4);
+
+        //then
+        assertEquals(meterRegistry.get("download.cache.evictions").counter().count(), 2.0, 0);
+        assertEquals(meterRegistry.get("download.cache.evicted.bytes").counter().count(), 8.0, 0);
+        assertEquals(contentCache.getCachedBytes(), 8L);
+
+        verify(contentStore).get("first", 0, 4);
+        verify(contentStore, times(2)).get("second", 0, 4);
+        verify(contentStore).get("third", 0, 4);
+    }
+
+    @Test
+    public void getShouldNotCacheContentLargerThanMaxEntryBytes() throws Exception {
+        //given
+        when(contentStore.get("key", 0, 9)).thenReturn(new ByteArrayInputStream("012345678".getBytes()));
+
+        //when
+        read("key", 0, 9);
+
+        //then
+        assertEquals(contentCache.getCachedBytes(), 0L);
+    }
+
+    @Test
+    public void invalidateShouldDropCachedContent() throws Exception {
+        //given
+        when(contentStore.get("key", 0, 6)).thenReturn(new ByteArrayInputStream("012345".getBytes()),
+                new ByteArrayInputStream("abcdef".getBytes()));
+        read("key", 0, 6);
+
+        //when
+        contentCache.invalidate("key");
+
+        //then
+        assertEquals(contentCache.getCachedBytes(), 0L);
+        assertEquals(read("key", 0, 6), "abcdef");
+        verify(contentStore, times(2)).get("key", 0, 6);
+    }
+
+    @Test
+    public void getShouldReadFromContentStoreWhenDisabled() throws Exception {
+        //given
+        ReflectionTestUtils.setField(contentCache, "enabled", false);
+        when(contentStore.get("key", 0, 6)).thenReturn(new ByteArrayInputStream("012345".getBytes()),
+                new ByteArrayInputStream("012345".getBytes()));
+
+        //when
+        read("key", 0, 6);
+        read("key", 0, 6);
+
+        //then
+        assertEquals(contentCache.getCachedBytes(), 0L);
+        verify(contentStore, times(2)).get("key", 0, 6);
+    }
+
+    private String read(String key, long offset, long length) throws IOException {
+        try (InputStream inputStream = contentCache.get(key, offset, length)) {
+            return IOUtils.toString(inputStream, "UTF-8");
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package fileuploader.storage;
+
+import fileuploader.enums.ContentCodec;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContentCompressorTest {
+
+    private ContentCompressor compressor;
+
+    private Path directory;
+
+    @Before
+    public void setup() throws IOException {
+        compressor = new ContentCompressor();
+        ReflectionTestUtils.setField(compressor, "enabled", true);
+        ReflectionTestUtils.setField(compressor, "level", "1");
+        ReflectionTestUtils.setField(compressor, "minSize", "1024");
+        directory = Files.createTempDirectory("fileuploader");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory.toFile());
+    }
+
+    @Test
+    public void encodeShouldCompressTextAndDecodeRequestedRange() throws Exception {
+        //given
+        byte[] text = repeatedText(100_000);
+        Path file = Files.write(directory.resolve("text"), text);
+
+        //when
+        EncodedContent encoded = compressor.encode(file, text.length);
+
+        //then
+        assertEquals(encoded.getCodec(), ContentCodec.GZIP);
+        assertTrue(encoded.getSize() < text.length / 10);
+        assertTrue(encoded.isCompressible());
+        assertTrue(Files.exists(file));
+
+        try (InputStream decoded = compressor.decode(Files.newInputStream(encoded.getFile()), encoded.getCodec(), 1000, 50)) {
+            assertTrue(Arrays.equals(IOUtils.toByteArray(decoded), Arrays.copyOfRange(text, 1000, 1050)));
+        }
+    }
+
+    @Test
+    public void encodeShouldSkipRandomContent() throws Exception {
+        //given
+        byte[] bytes = new byte[100_000];
+        new Random(42).nextBytes(bytes);
+        Path file = Files.write(directory.resolve("random"), bytes);
+
+        //when
+        EncodedContent encoded = compressor.encode(file, bytes.length);
+
+        //then
+        assertEquals(encoded.getCodec(), ContentCodec.IDENTITY);
+        assertEquals(encoded.getFile(), file);
+        assertFalse(encoded.isCompressible());
+    }
+
+    @Test
+    public void encodeShouldSkipContentWithCompressedMagicBytes() throws Exception {
+        //given
+        Path file = directory.resolve("text.gz");
+        try (GZIPOutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(file))) {
+            outputStream.write(repeatedText(100_000));
+        }
+
+        //when
+        boolean compressible = compressor.isCompressible(file);
+
+        //then
+        assertFalse(compressible);
+    }
+
+    @Test
+    public void encodeShouldSkipSmallContent() throws Exception {
+        //given
+        Path file = Files.write(directory.resolve("small"), "small text".getBytes());
+
+        //when
+        EncodedContent encoded = compressor.encode(file, 10);
+
+        //then
+        assertEquals(encoded.getCodec(), ContentCodec.IDENTITY);
+    }
+
+    private byte[] repeatedText(int size) {
+        byte[] line = "2017-11-23 10:00:00 INFO fileuploader upload completed\n".getBytes();
+        byte[] text = new byte[size];
+        for (int i = 0; i < size; i++) {
+            text[i] = line[i % line.length];
+        }
+        return text;
+    }
+
+}
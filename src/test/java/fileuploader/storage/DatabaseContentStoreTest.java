@@ -0,0 +1,96 @@
+package fileuploader.storage;
+
+import fileuploader.exceptions.StorageException;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DatabaseContentStoreTest {
+
+    private EmbeddedDatabase dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private DatabaseContentStore contentStore;
+
+    @Before
+    public void setup() {
+        dataSource = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).generateUniqueName(true).build();
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE contentBlob (storage_key VARCHAR(255) PRIMARY KEY, content BLOB NOT NULL)");
+
+        contentStore = new DatabaseContentStore();
+        ReflectionTestUtils.setField(contentStore, "dataSource", dataSource);
+        ReflectionTestUtils.setField(contentStore, "jdbcTemplate", jdbcTemplate);
+    }
+
+    @After
+    public void tearDown() {
+        dataSource.shutdown();
+    }
+
+    @Test
+    public void putShouldMoveSourceIntoDatabase() throws Exception {
+        //given
+        Path source = dummyFile("test data");
+
+        //when
+        String key = contentStore.put(source);
+
+        //then
+        assertFalse(Files.exists(source));
+        assertTrue(contentStore.exists(key));
+        assertEquals(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM contentBlob", Integer.class).intValue(), 1);
+    }
+
+    @Test
+    public void getShouldReturnRequestedRange() throws Exception {
+        //given
+        String key = contentStore.put(dummyFile("0123456789"));
+
+        //when
+        try (InputStream inputStream = contentStore.get(key, 3, 4)) {
+            //then
+            assertEquals(IOUtils.toString(inputStream, "UTF-8"), "3456");
+        }
+    }
+
+    @Test(expected = StorageException.class)
+    public void getShouldThrowStorageExceptionWhenContentDoesNotExist() {
+        contentStore.get("0123456789abcdef", 0, 1);
+    }
+
+    @Test
+    public void deleteShouldRemoveContent() throws Exception {
+        //given
+        String key = contentStore.put(dummyFile("test data"));
+
+        //when
+        contentStore.delete(key);
+
+        //then
+        assertFalse(contentStore.exists(key));
+    }
+
+    private Path dummyFile(String content) throws IOException {
+        Path source = Files.createTempFile("fileuploader", ".tmp");
+        Files.write(source, content.getBytes());
+        return source;
+    }
+
+}
@@ -0,0 +1,90 @@
+package fileuploader.storage;
+
+import fileuploader.exceptions.StorageException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileSystemContentStoreTest {
+
+    private FileSystemContentStore contentStore;
+
+    private String storageDirectory = "fileuploader_test_store";
+
+    @Before
+    public void setup() {
+        contentStore = new FileSystemContentStore();
+        ReflectionTestUtils.setField(contentStore, "storageDirectory", storageDirectory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(Paths.get(System.getProperty("user.home"), storageDirectory).toFile());
+    }
+
+    @Test
+    public void putShouldMoveSourceIntoShardedLocation() throws Exception {
+        //given
+        Path source = dummyFile("test data");
+
+        //when
+        String key = contentStore.put(source);
+
+        //then
+        Path target = contentStore.resolve(key);
+        assertFalse(Files.exists(source));
+        assertTrue(contentStore.exists(key));
+        assertEquals(target.getParent().getFileName().toString(), key.substring(2, 4));
+        assertEquals(target.getParent().getParent().getFileName().toString(), key.substring(0, 2));
+        assertEquals(new String(Files.readAllBytes(target)), "test data");
+    }
+
+    @Test
+    public void getShouldReturnRequestedRange() throws Exception {
+        //given
+        String key = contentStore.put(dummyFile("0123456789"));
+
+        //when
+        try (InputStream inputStream = contentStore.get(key, 3, 4)) {
+            //then
+            assertEquals(IOUtils.toString(inputStream, "UTF-8"), "3456");
+        }
+    }
+
+    @Test(expected = StorageException.class)
+    public void getShouldThrowStorageExceptionWhenContentDoesNotExist() {
+        contentStore.get("0123456789abcdef", 0, 1);
+    }
+
+    @Test
+    public void deleteShouldRemoveContent() throws Exception {
+        //given
+        String key = contentStore.put(dummyFile("test data"));
+
+        //when
+        contentStore.delete(key);
+
+        //then
+        assertFalse(contentStore.exists(key));
+    }
+
+    private Path dummyFile(String content) throws IOException {
+        Path source = Files.createTempFile("fileuploader", ".tmp");
+        Files.write(source, content.getBytes());
+        return source;
+    }
+
+}
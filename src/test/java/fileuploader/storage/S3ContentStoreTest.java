@@ -0,0 +1,168 @@
+package fileuploader.storage;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import fileuploader.exceptions.StorageException;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class S3ContentStoreTest {
+
+    private static final String BUCKET = "fileuploader";
+    private static final String ACCESS_KEY = "accessKey";
+
+    private HttpServer server;
+
+    private Map<String, byte[]> objects = new ConcurrentHashMap<>();
+
+    private S3ContentStore contentStore;
+
+    @Before
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+
+        contentStore = new S3ContentStore();
+        ReflectionTestUtils.setField(contentStore, "endpoint", "http://localhost:" + server.getAddress().getPort());
+        ReflectionTestUtils.setField(contentStore, "region", "us-east-1");
+        ReflectionTestUtils.setField(contentStore, "bucket", BUCKET);
+        ReflectionTestUtils.setField(contentStore, "accessKey", ACCESS_KEY);
+        ReflectionTestUtils.setField(contentStore, "secretKey", "secretKey");
+        contentStore.init();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void putShouldUploadSourceAsObjectOfBucket() throws Exception {
+        //given
+        Path source = dummyFile("test data");
+
+        //when
+        String key = contentStore.put(source);
+
+        //then
+        assertFalse(Files.exists(source));
+        assertTrue(contentStore.exists(key));
+        assertEquals(new String(objects.get("/" + BUCKET + "/" + key)), "test data");
+    }
+
+    @Test
+    public void getShouldReturnRequestedRange() throws Exception {
+        //given
+        String key = contentStore.put(dummyFile("0123456789"));
+
+        //when
+        try (InputStream inputStream = contentStore.get(key, 3, 4)) {
+            //then
+            assertEquals(IOUtils.toString(inputStream, "UTF-8"), "3456");
+        }
+    }
+
+    @Test(expected = StorageException.class)
+    public void getShouldThrowStorageExceptionWhenContentDoesNotExist() {
+        contentStore.get("0123456789abcdef", 0, 1);
+    }
+
+    @Test
+    public void deleteShouldRemoveContent() throws Exception {
+        //given
+        String key = contentStore.put(dummyFile("test data"));
+
+        //when
+        contentStore.delete(key);
+
+        //then
+        assertFalse(contentStore.exists(key));
+    }
+
+    @Test(expected = StorageException.class)
+    public void putShouldThrowStorageExceptionWhenRequestIsRejected() throws Exception {
+        //given
+        ReflectionTestUtils.setField(contentStore, "accessKey", "unknown");
+        contentStore.init();
+        Path source = dummyFile("test data");
+
+        //when
+        try {
+            contentStore.put(source);
+        } finally {
+            //then
+            assertTrue(Files.exists(source));
+            assertTrue(objects.isEmpty());
+            Files.delete(source);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("AWS4-HMAC-SHA256 Credential=" + ACCESS_KEY + "/")
+                || exchange.getRequestHeaders().getFirst("x-amz-date") == null) {
+            respond(exchange, 403, new byte[0]);
+            return;
+        }
+
+        switch (exchange.getRequestMethod()) {
+            case "PUT":
+                objects.put(path, IOUtils.toByteArray(exchange.getRequestBody()));
+                respond(exchange, 200, new byte[0]);
+                break;
+            case "GET":
+                byte[] object = objects.get(path);
+                if (object == null) {
+                    respond(exchange, 404, new byte[0]);
+                    break;
+                }
+                String[] range = exchange.getRequestHeaders().getFirst("Range").substring("bytes=".length()).split("-");
+                respond(exchange, 206, Arrays.copyOfRange(object, Integer.parseInt(range[0]), Integer.parseInt(range[1]) + 1));
+                break;
+            case "HEAD":
+                exchange.sendResponseHeaders(objects.containsKey(path) ? 200 : 404, -1);
+                exchange.close();
+                break;
+            case "DELETE":
+                objects.remove(path);
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+                break;
+            default:
+                respond(exchange, 405, new byte[0]);
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    private Path dummyFile(String content) throws IOException {
+        Path source = Files.createTempFile("fileuploader", ".tmp");
+        Files.write(source, content.getBytes());
+        return source;
+    }
+
+}
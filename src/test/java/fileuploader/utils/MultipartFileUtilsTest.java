@@ -4,6 +4,8 @@ import fileuploader.exceptions.StorageException;
 import org.junit.Test;
 import org.springframework.mock.web.MockMultipartFile;
 
+import static org.junit.Assert.assertEquals;
+
 /**
  * Created by luisoliveira on 11/13/17.
  */
@@ -32,6 +34,12 @@ public class MultipartFileUtilsTest {
         MultipartFileUtils.validate(multipartFile);
     }
 
+    @Test
+    public void extractOriginalFilenameShouldStripPrefixUpToLastUnderscore() {
+        assertEquals(MultipartFileUtils.extractOriginalFilename("1510000000000_test_4.png"), "4.png");
+        assertEquals(MultipartFileUtils.extractOriginalFilename("test4.png"), "test4.png");
+    }
+
     private MockMultipartFile dummyMultipartFile(String name, String originalFilename, String contentType, byte[] bytes) {
         return new MockMultipartFile(name, originalFilename, contentType, bytes);
     }